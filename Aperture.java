@@ -0,0 +1,34 @@
+/**
+ * Interface for the boundary of the machine, outside which a particle
+ * strikes the wall and is lost. A bunch given an aperture checks every
+ * particle against it after each step, records the ones it has lost
+ * and stops pushing them.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+public interface Aperture{
+
+  /**
+  * Return whether a particle at a position has left the machine.
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @return true if the particle is lost
+  */
+  boolean isLost(double x, double y, double z);
+
+  /**
+  * Return the aperture which loses a particle when either this one or
+  * another does, for example a maximum radius together with the walls
+  * of the dees.
+  *
+  * @param other The other aperture
+  * @return The combined aperture
+  */
+  default Aperture or(Aperture other)
+  {
+    return (x, y, z) -> isLost(x, y, z) || other.isLost(x, y, z);
+  }
+}
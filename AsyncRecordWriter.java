@@ -0,0 +1,267 @@
+/**
+ * Class which writes output records on a thread of its own, so the
+ * simulation never waits for the disk. Records are copied into a ring
+ * buffer that is allocated once, and an output thread takes them out
+ * and hands them to a record sink.
+ *
+ * There is a single producer, the simulation thread, and a single
+ * consumer, the output thread. When the buffer is full the backpressure
+ * policy decides what happens: BLOCK waits for space, DROP discards the
+ * new record, and DECIMATE keeps only every n-th record once the buffer
+ * is more than half full, and discards records when it is full.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.2
+ */
+
+import java.io.*;
+import java.util.concurrent.locks.LockSupport;
+
+public class AsyncRecordWriter implements RecordSink{
+
+  /**
+  * The policies for a record written while the buffer is full.
+  */
+  public enum Backpressure { BLOCK, DROP, DECIMATE }
+
+  /**
+  * PARK_NANOS is the longest time either thread sleeps before checking
+  * the buffer again.
+  */
+  protected static final long PARK_NANOS = 1000000;
+
+  /**
+  * sink receives the records, slots is the ring buffer holding
+  * capacity records of recordWidth doubles each. head counts the
+  * records put in, tail the records taken out and written the records
+  * handed to the sink. policy is the
+  * backpressure policy and decimation the fraction of records kept by
+  * DECIMATE. offered and dropped count the records written and
+  * discarded. failure holds any error from the output thread, which
+  * is given to the simulation thread by the next write, flush or
+  * close.
+  */
+  protected RecordSink sink;
+  protected double[] slots;
+  protected int capacity, recordWidth, decimation;
+  protected Backpressure policy;
+  protected volatile long head, tail, written;
+  protected volatile boolean closed, consumerWaiting;
+  protected volatile IOException failure;
+  protected long offered, dropped;
+  protected Thread consumer;
+
+  /**
+  * Constructor that uses the BLOCK policy, so that no records are lost.
+  *
+  * @param sinkIn user determined destination of the records
+  * @param capacityIn user determined number of records buffered
+  */
+  public AsyncRecordWriter(RecordSink sinkIn, int capacityIn)
+  {
+    this(sinkIn, capacityIn, Backpressure.BLOCK, 1);
+  }
+
+  /**
+  * Constructor that sets the destination, the size of the buffer and
+  * the backpressure policy, and starts the output thread.
+  *
+  * @param sinkIn user determined destination of the records
+  * @param capacityIn user determined number of records buffered
+  * @param policyIn user determined backpressure policy
+  * @param decimationIn keep one in this many records under DECIMATE
+  */
+  public AsyncRecordWriter(RecordSink sinkIn, int capacityIn,
+  Backpressure policyIn, int decimationIn)
+  {
+    sink = sinkIn;
+    capacity = capacityIn;
+    recordWidth = sink.getRecordWidth();
+    slots = new double[capacity*recordWidth];
+    policy = policyIn;
+    decimation = Math.max(1, decimationIn);
+    consumer = new Thread(this::drain, "AsyncRecordWriter");
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  /**
+  * Return the number of doubles per record
+  *
+  * @return The record width
+  */
+  public int getRecordWidth()
+  {
+    return recordWidth;
+  }
+
+  /**
+  * Return the number of records discarded by the backpressure policy
+  *
+  * @return The number of records dropped
+  */
+  public long getDropped()
+  {
+    return dropped;
+  }
+
+  /**
+  * Return the number of records kept, those written less those
+  * dropped
+  *
+  * @return The number of records
+  */
+  public long getRecords()
+  {
+    return offered - dropped;
+  }
+
+  /**
+  * Copies a record into the buffer, applying the backpressure policy
+  * if the output thread has fallen behind.
+  *
+  * @param valuesIn The values of the record
+  * @throws IOException if the output thread failed or the writer is
+  * closed
+  */
+  public void write(double[] valuesIn) throws IOException
+  {
+    if (failure != null)
+    {
+      throw failure;
+    }
+    if (closed)
+    {
+      throw new IOException("AsyncRecordWriter is closed");
+    }
+    long position = head;
+    long used = position - tail;
+    offered++;
+    if (policy == Backpressure.DECIMATE && used > capacity/2
+    && offered % decimation != 0)
+    {
+      dropped++;
+      return;
+    }
+    while (position - tail >= capacity)
+    {
+      if (policy != Backpressure.BLOCK)
+      {
+        dropped++;
+        return;
+      }
+      if (failure != null)
+      {
+        throw failure;
+      }
+      LockSupport.parkNanos(PARK_NANOS);
+    }
+    System.arraycopy(valuesIn, 0, slots,
+    (int) (position % capacity)*recordWidth, recordWidth);
+    head = position + 1;
+    if (consumerWaiting)
+    {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  /**
+  * Waits until every record kept so far has been handed to the sink,
+  * for example so that a checkpoint never records more output than
+  * has reached the file.
+  *
+  * @throws IOException if the output thread failed
+  */
+  public void flush() throws IOException
+  {
+    long position = head;
+    while (written < position)
+    {
+      if (failure != null)
+      {
+        throw failure;
+      }
+      LockSupport.unpark(consumer);
+      LockSupport.parkNanos(PARK_NANOS/10);
+    }
+    if (failure != null)
+    {
+      throw failure;
+    }
+  }
+
+  /**
+  * Waits for every buffered record to be written, stops the output
+  * thread and closes the sink.
+  *
+  * @throws IOException if a record or the sink could not be written
+  */
+  public void close() throws IOException
+  {
+    if (closed)
+    {
+      return;
+    }
+    closed = true;
+    LockSupport.unpark(consumer);
+    try
+    {
+      consumer.join();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing");
+    }
+    sink.close();
+    if (failure != null)
+    {
+      throw failure;
+    }
+  }
+
+  /**
+  * Run by the output thread. Takes records out of the buffer in order
+  * and writes them to the sink until the writer is closed and empty.
+  */
+  protected void drain()
+  {
+    double[] record = new double[recordWidth];
+    while (true)
+    {
+      long position = tail;
+      if (position == head)
+      {
+        if (closed && position == head)
+        {
+          return;
+        }
+        consumerWaiting = true;
+        if (position == head && !closed)
+        {
+          LockSupport.parkNanos(PARK_NANOS);
+        }
+        consumerWaiting = false;
+        continue;
+      }
+      System.arraycopy(slots, (int) (position % capacity)*recordWidth,
+      record, 0, recordWidth);
+      tail = position + 1;
+      try
+      {
+        sink.write(record);
+        written = position + 1;
+      }
+      catch (IOException e)
+      {
+        failure = e;
+        return;
+      }
+      catch (RuntimeException | Error e)
+      {
+        failure = new IOException("The output thread failed", e);
+        return;
+      }
+    }
+  }
+}
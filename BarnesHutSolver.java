@@ -0,0 +1,631 @@
+/**
+ * Space charge solver using the Barnes-Hut method. The particles are
+ * sorted along a Morton curve and grouped into an octree, each node
+ * holding the total charge and the centre of charge of the particles
+ * below it. The field at a position is then summed over the tree, a
+ * node being treated as a single charge when its size is less than the
+ * opening angle theta times its distance, and opened otherwise. This
+ * takes O(N log N) work for N particles rather than the O(N^2) of
+ * summing over every pair. A smaller theta is more accurate and
+ * slower; theta = 0 sums over every pair.
+ *
+ * Nodes with only one occupied child are skipped, so every node kept
+ * has at least two children and the tree has fewer than 2N nodes. The
+ * keys are worked out and the tree built by parallel tasks when a pool
+ * is given, and the finished tree is only read, so the threads pushing
+ * a bunch may all evaluate it at once. The field felt by a particle of
+ * the bunch leaves out the particle itself wherever it is evaluated, so
+ * the trial positions of an adaptive integrator feel no self force.
+ *
+ * The field is electrostatic, which is suitable while the particles
+ * move slowly compared with light. A softening length may be set to
+ * smooth the field of each particle at short range.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.1
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BarnesHutSolver implements SpaceChargeSolver{
+
+  /**
+  * LEAF_SIZE is the most particles in a leaf node and FORK_SIZE the
+  * fewest particles for which work is split between tasks.
+  */
+  protected static final int LEAF_SIZE = 8;
+  protected static final int FORK_SIZE = 8192;
+
+  /**
+  * theta is the opening angle and softening the softening length.
+  */
+  protected double theta, softening;
+
+  /**
+  * size is the number of particles. keys holds the Morton key of each
+  * particle in its upper bits and its index in the lower indexBits
+  * bits, and bits is the number of bits per axis in the key. sortedX,
+  * sortedY, sortedZ and sortedCharge hold the particles in key order
+  * and rank holds where in that order each particle is. rootX, rootY
+  * and rootZ are the lowest corner of the cube holding every particle
+  * and rootSize its side.
+  */
+  protected int size, bits, indexBits;
+  protected long[] keys = new long[0];
+  protected double[] sortedX = new double[0], sortedY = new double[0],
+  sortedZ = new double[0], sortedCharge = new double[0];
+  protected int[] rank = new int[0];
+  protected double rootX, rootY, rootZ, rootSize;
+
+  /**
+  * For each node, nodeX, nodeY and nodeZ are the centre of charge,
+  * nodeCharge the total charge, nodeWeight the total magnitude of
+  * charge and nodeSizeSquared the square of the side of its cube.
+  * Its children are nodes firstChild up to firstChild + children, a
+  * leaf having no children, and its particles are sorted particles
+  * first up to last. nodes counts the nodes in use.
+  */
+  protected double[] nodeX = new double[0], nodeY = new double[0],
+  nodeZ = new double[0], nodeCharge = new double[0],
+  nodeWeight = new double[0], nodeSizeSquared = new double[0];
+  protected int[] firstChild = new int[0], children = new int[0],
+  first = new int[0], last = new int[0];
+  protected AtomicInteger nodes = new AtomicInteger();
+
+  /**
+  * Constructor that sets the opening angle, with no softening.
+  *
+  * @param thetaIn user determined opening angle
+  */
+  public BarnesHutSolver(double thetaIn)
+  {
+    this(thetaIn, 0);
+  }
+
+  /**
+  * Constructor that sets the opening angle and softening length.
+  *
+  * @param thetaIn user determined opening angle
+  * @param softeningIn user determined softening length
+  */
+  public BarnesHutSolver(double thetaIn, double softeningIn)
+  {
+    theta = thetaIn;
+    softening = softeningIn;
+  }
+
+  /**
+  * Return the opening angle
+  *
+  * @return theta
+  */
+  public double getTheta()
+  {
+    return theta;
+  }
+
+  /**
+  * Set the opening angle
+  *
+  * @param thetaIn The opening angle
+  */
+  public void setTheta(double thetaIn)
+  {
+    theta = thetaIn;
+  }
+
+  /**
+  * Return the number of nodes in the tree
+  *
+  * @return The number of nodes
+  */
+  public int getNodes()
+  {
+    return nodes.get();
+  }
+
+  /**
+  * Sorts the particles of a store along the Morton curve and builds
+  * the tree.
+  *
+  * @param storeIn The store holding the particles
+  * @param poolIn The pool to work in, or null to work on the calling
+  * thread
+  */
+  public void update(ParticleStore storeIn, ForkJoinPool poolIn)
+  {
+    size = storeIn.size();
+    nodes.set(0);
+    if (size == 0)
+    {
+      return;
+    }
+    allocate(size);
+
+    double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+    double minY = minX, maxY = maxX, minZ = minX, maxZ = maxX;
+    for (int i = 0; i < size; i++)
+    {
+      minX = Math.min(minX, storeIn.x[i]);
+      maxX = Math.max(maxX, storeIn.x[i]);
+      minY = Math.min(minY, storeIn.y[i]);
+      maxY = Math.max(maxY, storeIn.y[i]);
+      minZ = Math.min(minZ, storeIn.z[i]);
+      maxZ = Math.max(maxZ, storeIn.z[i]);
+    }
+    rootX = minX;
+    rootY = minY;
+    rootZ = minZ;
+    rootSize = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+    if (rootSize == 0)
+    {
+      rootSize = 1;
+    }
+    indexBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(size - 1));
+    bits = Math.min(21, (63 - indexBits)/3);
+
+    KeyTask keyTask = new KeyTask(storeIn, 0, size, poolIn != null);
+    BuildTask buildTask = new BuildTask(storeIn, nodes.getAndIncrement(), 0,
+    size, 0, poolIn != null);
+    if (poolIn == null)
+    {
+      keyTask.compute();
+      Arrays.sort(keys, 0, size);
+      buildTask.compute();
+    }
+    else
+    {
+      poolIn.invoke(keyTask);
+      Arrays.parallelSort(keys, 0, size);
+      poolIn.invoke(buildTask);
+    }
+  }
+
+  /**
+  * Adds the electric field of the particles at a position to
+  * fieldsOut[0], [1] and [2].
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param fieldsOut Buffer holding the field to add to
+  */
+  public void addFieldAt(double x, double y, double z, double[] fieldsOut)
+  {
+    if (size > 0)
+    {
+      addNodeField(0, -1, x, y, z, theta*theta, softening*softening,
+      fieldsOut);
+    }
+  }
+
+  /**
+  * Adds the electric field of every particle but one at a position to
+  * fieldsOut[0], [1] and [2]. The particle is left out of the nodes
+  * holding it, which are always opened, as well as of its leaf.
+  *
+  * @param index The index in the store of the particle left out
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param fieldsOut Buffer holding the field to add to
+  */
+  public void addFieldAt(int index, double x, double y, double z,
+  double[] fieldsOut)
+  {
+    if (size > 0)
+    {
+      int self = index >= 0 && index < size ? rank[index] : -1;
+      addNodeField(0, self, x, y, z, theta*theta, softening*softening,
+      fieldsOut);
+    }
+  }
+
+  /**
+  * Adds the field of a node at a position, either as a single charge or
+  * by opening the node. A node holding the sorted particle self is
+  * always opened and that particle left out.
+  *
+  * @param node The node
+  * @param self The sorted particle left out, or -1 for none
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param thetaSquared The square of the opening angle
+  * @param softeningSquared The square of the softening length
+  * @param fieldsOut Buffer holding the field to add to
+  */
+  protected void addNodeField(int node, int self, double x, double y,
+  double z, double thetaSquared, double softeningSquared,
+  double[] fieldsOut)
+  {
+    double dx = x - nodeX[node];
+    double dy = y - nodeY[node];
+    double dz = z - nodeZ[node];
+    double distanceSquared = dx*dx + dy*dy + dz*dz;
+    boolean holdsSelf = self >= first[node] && self < last[node];
+    if (!holdsSelf && nodeSizeSquared[node] < thetaSquared*distanceSquared)
+    {
+      addCharge(nodeCharge[node], dx, dy, dz, distanceSquared
+      + softeningSquared, fieldsOut);
+      return;
+    }
+    if (children[node] == 0)
+    {
+      for (int p = first[node]; p < last[node]; p++)
+      {
+        dx = x - sortedX[p];
+        dy = y - sortedY[p];
+        dz = z - sortedZ[p];
+        distanceSquared = dx*dx + dy*dy + dz*dz + softeningSquared;
+        if (p != self && distanceSquared > 0)
+        {
+          addCharge(sortedCharge[p], dx, dy, dz, distanceSquared,
+          fieldsOut);
+        }
+      }
+      return;
+    }
+    for (int c = firstChild[node]; c < firstChild[node] + children[node];
+    c++)
+    {
+      addNodeField(c, self, x, y, z, thetaSquared, softeningSquared,
+      fieldsOut);
+    }
+  }
+
+  /**
+  * Adds the Coulomb field k q r/|r|^3 of a point charge.
+  *
+  * @param chargeIn The charge
+  * @param dx The x distance from the charge
+  * @param dy The y distance from the charge
+  * @param dz The z distance from the charge
+  * @param distanceSquared The square of the (softened) distance
+  * @param fieldsOut Buffer holding the field to add to
+  */
+  protected static void addCharge(double chargeIn, double dx, double dy,
+  double dz, double distanceSquared, double[] fieldsOut)
+  {
+    double inverse = 1/Math.sqrt(distanceSquared);
+    double factor = COULOMB*chargeIn*inverse*inverse*inverse;
+    fieldsOut[0] += factor*dx;
+    fieldsOut[1] += factor*dy;
+    fieldsOut[2] += factor*dz;
+  }
+
+  /**
+  * Makes sure the arrays can hold a number of particles and the nodes
+  * of their tree.
+  *
+  * @param sizeIn The number of particles
+  */
+  protected void allocate(int sizeIn)
+  {
+    if (keys.length < sizeIn)
+    {
+      keys = new long[sizeIn];
+      sortedX = new double[sizeIn];
+      sortedY = new double[sizeIn];
+      sortedZ = new double[sizeIn];
+      sortedCharge = new double[sizeIn];
+      rank = new int[sizeIn];
+    }
+    int capacity = 2*sizeIn;
+    if (nodeX.length < capacity)
+    {
+      nodeX = new double[capacity];
+      nodeY = new double[capacity];
+      nodeZ = new double[capacity];
+      nodeCharge = new double[capacity];
+      nodeWeight = new double[capacity];
+      nodeSizeSquared = new double[capacity];
+      firstChild = new int[capacity];
+      children = new int[capacity];
+      first = new int[capacity];
+      last = new int[capacity];
+    }
+  }
+
+  /**
+  * Return the Morton key of a position, the bits of its cell number
+  * along each axis interleaved, above the index of the particle.
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param index The index of the particle
+  * @return The key
+  */
+  protected long key(double x, double y, double z, int index)
+  {
+    double scale = (1 << bits)/rootSize;
+    long top = (1 << bits) - 1;
+    long cellX = Math.min(top, (long) ((x - rootX)*scale));
+    long cellY = Math.min(top, (long) ((y - rootY)*scale));
+    long cellZ = Math.min(top, (long) ((z - rootZ)*scale));
+    return ((spread(cellX) << 2 | spread(cellY) << 1 | spread(cellZ))
+    << indexBits) | index;
+  }
+
+  /**
+  * Spreads the lowest 21 bits of a number so that two zero bits lie
+  * between each of them.
+  *
+  * @param v The number
+  * @return The spread bits
+  */
+  protected static long spread(long v)
+  {
+    v &= 0x1fffffL;
+    v = (v | v << 32) & 0x1f00000000ffffL;
+    v = (v | v << 16) & 0x1f0000ff0000ffL;
+    v = (v | v << 8) & 0x100f00f00f00f00fL;
+    v = (v | v << 4) & 0x10c30c30c30c30c3L;
+    v = (v | v << 2) & 0x1249249249249249L;
+    return v;
+  }
+
+  /**
+  * Task which works out the keys of a range of particles.
+  */
+  protected class KeyTask extends RecursiveAction{
+
+    protected ParticleStore store;
+    protected int start, end;
+    protected boolean parallel;
+
+    /**
+    * Constructor that sets the range of particles.
+    *
+    * @param storeIn The store holding the particles
+    * @param startIn The index of the first particle
+    * @param endIn One past the index of the last particle
+    * @param parallelIn Whether to split the range between tasks
+    */
+    protected KeyTask(ParticleStore storeIn, int startIn, int endIn,
+    boolean parallelIn)
+    {
+      store = storeIn;
+      start = startIn;
+      end = endIn;
+      parallel = parallelIn;
+    }
+
+    /**
+    * Works out the keys, splitting the range in half while it is
+    * larger than FORK_SIZE.
+    */
+    protected void compute()
+    {
+      if (parallel && end - start > FORK_SIZE)
+      {
+        int middle = (start + end) >>> 1;
+        invokeAll(new KeyTask(store, start, middle, true),
+        new KeyTask(store, middle, end, true));
+        return;
+      }
+      for (int i = start; i < end; i++)
+      {
+        keys[i] = key(store.x[i], store.y[i], store.z[i], i);
+      }
+    }
+  }
+
+  /**
+  * Task which builds the part of the tree below a node from a range of
+  * sorted particles.
+  */
+  protected class BuildTask extends RecursiveAction{
+
+    protected ParticleStore store;
+    protected int node, start, end, level;
+    protected boolean parallel;
+
+    /**
+    * Constructor that sets the node and its particles.
+    *
+    * @param storeIn The store holding the particles
+    * @param nodeIn The node to build
+    * @param startIn The first sorted particle of the node
+    * @param endIn One past the last sorted particle of the node
+    * @param levelIn The depth of the node's cube below the root
+    * @param parallelIn Whether to build children in separate tasks
+    */
+    protected BuildTask(ParticleStore storeIn, int nodeIn, int startIn,
+    int endIn, int levelIn, boolean parallelIn)
+    {
+      store = storeIn;
+      node = nodeIn;
+      start = startIn;
+      end = endIn;
+      level = levelIn;
+      parallel = parallelIn;
+    }
+
+    /**
+    * Builds the node. Levels at which every particle falls in the same
+    * child are skipped, then the particles are divided between the
+    * occupied children, which are built in turn and combined.
+    */
+    protected void compute()
+    {
+      int[] bounds = new int[9];
+      int occupied = 0;
+      while (end - start > LEAF_SIZE && level < bits)
+      {
+        occupied = divide(bounds);
+        if (occupied > 1)
+        {
+          break;
+        }
+        level++;
+      }
+      double side = rootSize/(1L << level);
+      nodeSizeSquared[node] = side*side;
+      if (end - start <= LEAF_SIZE || level >= bits)
+      {
+        buildLeaf();
+        return;
+      }
+
+      int base = nodes.getAndAdd(occupied);
+      firstChild[node] = base;
+      children[node] = occupied;
+      first[node] = start;
+      last[node] = end;
+      BuildTask[] tasks = new BuildTask[occupied];
+      int child = 0;
+      for (int d = 0; d < 8; d++)
+      {
+        if (bounds[d + 1] > bounds[d])
+        {
+          tasks[child] = new BuildTask(store, base + child, bounds[d],
+          bounds[d + 1], level + 1, parallel);
+          child++;
+        }
+      }
+      if (parallel && end - start > FORK_SIZE)
+      {
+        invokeAll(tasks);
+      }
+      else
+      {
+        for (BuildTask task : tasks)
+        {
+          task.compute();
+        }
+      }
+
+      double charge = 0, weight = 0, sumX = 0, sumY = 0, sumZ = 0;
+      for (int c = base; c < base + occupied; c++)
+      {
+        charge += nodeCharge[c];
+        weight += nodeWeight[c];
+        sumX += nodeWeight[c]*nodeX[c];
+        sumY += nodeWeight[c]*nodeY[c];
+        sumZ += nodeWeight[c]*nodeZ[c];
+      }
+      setMoments(charge, weight, sumX, sumY, sumZ);
+    }
+
+    /**
+    * Finds where the particles of the node move from one child to the
+    * next at the current level.
+    *
+    * @param bounds Filled with the first particle of each child, and
+    * end in bounds[8]
+    * @return The number of occupied children
+    */
+    protected int divide(int[] bounds)
+    {
+      int shift = indexBits + 3*(bits - 1 - level);
+      long prefix = keys[start] & -(8L << shift);
+      int occupied = 0;
+      bounds[0] = start;
+      for (int d = 1; d < 8; d++)
+      {
+        bounds[d] = lowerBound(prefix | ((long) d << shift), bounds[d - 1]);
+        if (bounds[d] > bounds[d - 1])
+        {
+          occupied++;
+        }
+      }
+      bounds[8] = end;
+      if (end > bounds[7])
+      {
+        occupied++;
+      }
+      return occupied;
+    }
+
+    /**
+    * Return the first sorted particle from a position whose key is at
+    * least a value.
+    *
+    * @param value The key value
+    * @param from The first particle to consider
+    * @return The particle, or end if there is none
+    */
+    protected int lowerBound(long value, int from)
+    {
+      int low = from, high = end;
+      while (low < high)
+      {
+        int middle = (low + high) >>> 1;
+        if (keys[middle] < value)
+        {
+          low = middle + 1;
+        }
+        else
+        {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    /**
+    * Makes the node a leaf, copying its particles into key order and
+    * noting the rank of each.
+    */
+    protected void buildLeaf()
+    {
+      firstChild[node] = 0;
+      children[node] = 0;
+      first[node] = start;
+      last[node] = end;
+      long mask = (1L << indexBits) - 1;
+      double charge = 0, weight = 0, sumX = 0, sumY = 0, sumZ = 0;
+      for (int p = start; p < end; p++)
+      {
+        int i = (int) (keys[p] & mask);
+        sortedX[p] = store.x[i];
+        sortedY[p] = store.y[i];
+        sortedZ[p] = store.z[i];
+        sortedCharge[p] = store.charge[i];
+        rank[i] = p;
+        double w = Math.abs(store.charge[i]);
+        charge += store.charge[i];
+        weight += w;
+        sumX += w*store.x[i];
+        sumY += w*store.y[i];
+        sumZ += w*store.z[i];
+      }
+      setMoments(charge, weight, sumX, sumY, sumZ);
+    }
+
+    /**
+    * Sets the total charge and centre of charge of the node.
+    *
+    * @param charge The total charge
+    * @param weight The total magnitude of charge
+    * @param sumX The sum of magnitude of charge times x
+    * @param sumY The sum of magnitude of charge times y
+    * @param sumZ The sum of magnitude of charge times z
+    */
+    protected void setMoments(double charge, double weight, double sumX,
+    double sumY, double sumZ)
+    {
+      nodeCharge[node] = charge;
+      nodeWeight[node] = weight;
+      if (weight > 0)
+      {
+        nodeX[node] = sumX/weight;
+        nodeY[node] = sumY/weight;
+        nodeZ[node] = sumZ/weight;
+      }
+      else
+      {
+        // No charge at all, any position in the node will do
+        int i = (int) (keys[start] & ((1L << indexBits) - 1));
+        nodeX[node] = store.x[i];
+        nodeY[node] = store.y[i];
+        nodeZ[node] = store.z[i];
+      }
+    }
+  }
+}
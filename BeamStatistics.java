@@ -0,0 +1,406 @@
+/**
+ * Class which accumulates the statistics of a bunch of particles in a
+ * single pass: the centroid, RMS sizes, RMS emittances, Twiss
+ * parameters, energy spread and centroid momentum.
+ *
+ * Particles are taken in blocks. Within a block the sums of the values
+ * and their products are taken relative to the first particle of the
+ * block, which keeps them small, and each block is then folded into
+ * the running totals with the pairwise update of Chan, Golub and
+ * LeVeque. Statistics of separate ranges of a bunch can be merged the
+ * same way, so a bunch can be reduced in parallel.
+ *
+ * The momentum of a particle is gamma*m*v and its kinetic energy
+ * m*u^2/(gamma + 1) with u = gamma*v, which is exact at any speed.
+ * With s = sqrt(1 - v^2/c^2) these are m*v*(1 + s)/(s*(1 + s)) and
+ * m*v^2/(s*(1 + s)), so one square root and one division give both.
+ * The Lorentz factor is worked out from the velocity rather than read
+ * from the particle store, which only the relativistic algorithm keeps
+ * up to date.
+ *
+ * The statistics of no particles are NaN, as is the average position
+ * of an empty ParticleBunch.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.3
+ */
+public class BeamStatistics{
+
+  /**
+  * BLOCK is the number of particles summed before being folded into
+  * the running totals. The quantities are indexed as X, Y and Z for
+  * position, PX, PY and PZ for momentum and ENERGY for kinetic energy.
+  */
+  protected static final int BLOCK = 256;
+  protected static final int X = 0, Y = 1, Z = 2, PX = 3, PY = 4, PZ = 5,
+  ENERGY = 6, QUANTITIES = 7;
+  /**
+  * RECORD_WIDTH is the number of values written by writeRecord.
+  */
+  public static final int RECORD_WIDTH = 13;
+
+  protected static final double INVERSE_C_SQUARED = 1/
+  (RelativisticParticle.SPEED_OF_LIGHT*RelativisticParticle.SPEED_OF_LIGHT);
+
+  /**
+  * count is the number of particles and massSum their total mass.
+  * mean holds the mean of each quantity, squares the sum of squared
+  * deviations of each from its mean, and crossed the sum of products
+  * of the deviations of each position from its mean and the matching
+  * momentum from its mean.
+  */
+  protected long count;
+  protected double massSum;
+  protected double[] mean = new double[QUANTITIES];
+  protected double[] squares = new double[QUANTITIES];
+  protected double[] crossed = new double[3];
+
+  /**
+  * Default constructor. Creates the statistics of no particles.
+  */
+  public BeamStatistics()
+  {
+  }
+
+  /**
+  * Adds the particles from start up to, but not including, end of a
+  * particle store to the statistics.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  */
+  public void accumulate(ParticleStore storeIn, int start, int end)
+  {
+    double[] shift = new double[QUANTITIES];
+    double[] sum = new double[QUANTITIES];
+    double[] sumSquares = new double[QUANTITIES];
+    double[] sumCrossed = new double[3];
+    double[] x = storeIn.x, y = storeIn.y, z = storeIn.z;
+    double[] vx = storeIn.vx, vy = storeIn.vy, vz = storeIn.vz;
+    double[] mass = storeIn.mass;
+
+    for (int blockStart = start; blockStart < end; blockStart += BLOCK)
+    {
+      int blockEnd = Math.min(end, blockStart + BLOCK);
+      quantities(storeIn, blockStart, shift);
+      double x0 = shift[X], y0 = shift[Y], z0 = shift[Z];
+      double px0 = shift[PX], py0 = shift[PY], pz0 = shift[PZ];
+      double energy0 = shift[ENERGY];
+      double sx = 0, sy = 0, sz = 0, spx = 0, spy = 0, spz = 0, se = 0;
+      double sxx = 0, syy = 0, szz = 0, spxx = 0, spyy = 0, spzz = 0;
+      double see = 0, sxpx = 0, sypy = 0, szpz = 0, blockMass = 0;
+
+      for (int i = blockStart; i < blockEnd; i++)
+      {
+        double speedSquared = vx[i]*vx[i] + vy[i]*vy[i] + vz[i]*vz[i];
+        double s = Math.sqrt(1 - speedSquared*INVERSE_C_SQUARED);
+        double massFactor = mass[i]/(s*(1 + s));
+        double gammaMass = massFactor*(1 + s);
+        double dx = x[i] - x0;
+        double dy = y[i] - y0;
+        double dz = z[i] - z0;
+        double dpx = gammaMass*vx[i] - px0;
+        double dpy = gammaMass*vy[i] - py0;
+        double dpz = gammaMass*vz[i] - pz0;
+        double de = massFactor*speedSquared - energy0;
+        sx += dx;
+        sy += dy;
+        sz += dz;
+        spx += dpx;
+        spy += dpy;
+        spz += dpz;
+        se += de;
+        sxx += dx*dx;
+        syy += dy*dy;
+        szz += dz*dz;
+        spxx += dpx*dpx;
+        spyy += dpy*dpy;
+        spzz += dpz*dpz;
+        see += de*de;
+        sxpx += dx*dpx;
+        sypy += dy*dpy;
+        szpz += dz*dpz;
+        blockMass += mass[i];
+      }
+
+      int n = blockEnd - blockStart;
+      sum[X] = sx;
+      sum[Y] = sy;
+      sum[Z] = sz;
+      sum[PX] = spx;
+      sum[PY] = spy;
+      sum[PZ] = spz;
+      sum[ENERGY] = se;
+      sumSquares[X] = sxx;
+      sumSquares[Y] = syy;
+      sumSquares[Z] = szz;
+      sumSquares[PX] = spxx;
+      sumSquares[PY] = spyy;
+      sumSquares[PZ] = spzz;
+      sumSquares[ENERGY] = see;
+      sumCrossed[X] = sxpx - sx*spx/n;
+      sumCrossed[Y] = sypy - sy*spy/n;
+      sumCrossed[Z] = szpz - sz*spz/n;
+      for (int k = 0; k < QUANTITIES; k++)
+      {
+        sumSquares[k] -= sum[k]*sum[k]/n;
+        sum[k] = shift[k] + sum[k]/n;
+      }
+      fold(n, blockMass, sum, sumSquares, sumCrossed);
+    }
+  }
+
+  /**
+  * Combines the statistics of another, separate, group of particles
+  * into these statistics.
+  *
+  * @param other The statistics of the other particles
+  */
+  public void merge(BeamStatistics other)
+  {
+    fold(other.count, other.massSum, other.mean, other.squares,
+    other.crossed);
+  }
+
+  /**
+  * Folds the statistics of a separate group of particles into the
+  * running totals with the pairwise update of Chan, Golub and LeVeque.
+  *
+  * @param countIn The number of particles in the group
+  * @param massIn The total mass of the group
+  * @param meanIn The means of the group
+  * @param squaresIn The sums of squared deviations of the group
+  * @param crossedIn The sums of crossed deviations of the group
+  */
+  protected void fold(long countIn, double massIn, double[] meanIn,
+  double[] squaresIn, double[] crossedIn)
+  {
+    if (countIn == 0)
+    {
+      return;
+    }
+    double total = count + countIn;
+    double weight = count*(double) countIn/total;
+    for (int k = 0; k < 3; k++)
+    {
+      crossed[k] += crossedIn[k] + (meanIn[k] - mean[k])
+      *(meanIn[k + 3] - mean[k + 3])*weight;
+    }
+    for (int k = 0; k < QUANTITIES; k++)
+    {
+      double delta = meanIn[k] - mean[k];
+      mean[k] += delta*countIn/total;
+      squares[k] += squaresIn[k] + delta*delta*weight;
+    }
+    count += countIn;
+    massSum += massIn;
+  }
+
+  /**
+  * Return the number of particles
+  *
+  * @return The number of particles
+  */
+  public long getCount()
+  {
+    return count;
+  }
+
+  /**
+  * Return the mean position
+  *
+  * @return The centroid of the bunch
+  */
+  public PhysicsVector getMeanPosition()
+  {
+    return new PhysicsVector(meanOf(X), meanOf(Y), meanOf(Z));
+  }
+
+  /**
+  * Return the RMS size in x, y and z about the centroid
+  *
+  * @return The RMS sizes
+  */
+  public PhysicsVector getRmsSize()
+  {
+    return new PhysicsVector(Math.sqrt(squares[X]/count),
+    Math.sqrt(squares[Y]/count), Math.sqrt(squares[Z]/count));
+  }
+
+  /**
+  * Return the mean momentum
+  *
+  * @return The centroid momentum
+  */
+  public PhysicsVector getCentroidMomentum()
+  {
+    return new PhysicsVector(meanOf(PX), meanOf(PY), meanOf(PZ));
+  }
+
+  /**
+  * Return the mean kinetic energy
+  *
+  * @return The mean kinetic energy
+  */
+  public double getMeanEnergy()
+  {
+    return meanOf(ENERGY);
+  }
+
+  /**
+  * Return the RMS spread of kinetic energy about its mean
+  *
+  * @return The energy spread
+  */
+  public double getEnergySpread()
+  {
+    return Math.sqrt(squares[ENERGY]/count);
+  }
+
+  /**
+  * Return the RMS emittance in the phase space of one axis, given by
+  * sqrt(<x^2><p^2> - <xp>^2) for deviations from the means.
+  *
+  * @param axis 0 for x, 1 for y and 2 for z
+  * @return The RMS emittance in position times momentum
+  */
+  public double getEmittance(int axis)
+  {
+    double position = squares[axis]/count;
+    double momentum = squares[axis + 3]/count;
+    double correlation = crossed[axis]/count;
+    return Math.sqrt(Math.max(0, position*momentum
+    - correlation*correlation));
+  }
+
+  /**
+  * Return the normalised RMS emittance of one axis, the emittance
+  * divided by the mean particle mass times the speed of light.
+  *
+  * @param axis 0 for x, 1 for y and 2 for z
+  * @return The normalised RMS emittance
+  */
+  public double getNormalisedEmittance(int axis)
+  {
+    return getEmittance(axis)/((massSum/count)
+    *RelativisticParticle.SPEED_OF_LIGHT);
+  }
+
+  /**
+  * Return the Twiss beta of one axis, <x^2>/emittance, using the angle
+  * x' = p_x/|p| relative to the centroid momentum.
+  *
+  * @param axis 0 for x, 1 for y and 2 for z
+  * @return The Twiss beta
+  */
+  public double getTwissBeta(int axis)
+  {
+    return (squares[axis]/count)/traceEmittance(axis);
+  }
+
+  /**
+  * Return the Twiss alpha of one axis, -<xx'>/emittance.
+  *
+  * @param axis 0 for x, 1 for y and 2 for z
+  * @return The Twiss alpha
+  */
+  public double getTwissAlpha(int axis)
+  {
+    return -(crossed[axis]/count)/referenceMomentum()
+    /traceEmittance(axis);
+  }
+
+  /**
+  * Return the Twiss gamma of one axis, <x'^2>/emittance.
+  *
+  * @param axis 0 for x, 1 for y and 2 for z
+  * @return The Twiss gamma
+  */
+  public double getTwissGamma(int axis)
+  {
+    double reference = referenceMomentum();
+    return (squares[axis + 3]/count)/(reference*reference)
+    /traceEmittance(axis);
+  }
+
+  /**
+  * Return the emittance of one axis in position and angle x' = p_x/|p|.
+  *
+  * @param axis 0 for x, 1 for y and 2 for z
+  * @return The trace space emittance
+  */
+  protected double traceEmittance(int axis)
+  {
+    return getEmittance(axis)/referenceMomentum();
+  }
+
+  /**
+  * Fills a record of the statistics for a time: the time, the number
+  * of particles, the mean and RMS x, y and z positions, the
+  * normalised RMS emittance in x, y and z, and the mean kinetic energy
+  * and its spread.
+  *
+  * @param timeIn The time
+  * @param recordOut Buffer of at least RECORD_WIDTH values
+  */
+  public void writeRecord(double timeIn, double[] recordOut)
+  {
+    recordOut[0] = timeIn;
+    recordOut[1] = count;
+    for (int k = 0; k < 3; k++)
+    {
+      recordOut[2 + k] = meanOf(k);
+      recordOut[5 + k] = Math.sqrt(squares[k]/count);
+      recordOut[8 + k] = getNormalisedEmittance(k);
+    }
+    recordOut[11] = getMeanEnergy();
+    recordOut[12] = getEnergySpread();
+  }
+
+  /**
+  * Return the mean of one quantity, or NaN if there are no particles.
+  *
+  * @param k The index of the quantity
+  * @return The mean
+  */
+  protected double meanOf(int k)
+  {
+    return count == 0 ? Double.NaN : mean[k];
+  }
+
+  /**
+  * Return the magnitude of the centroid momentum.
+  *
+  * @return The reference momentum
+  */
+  protected double referenceMomentum()
+  {
+    double px = meanOf(PX), py = meanOf(PY), pz = meanOf(PZ);
+    return Math.sqrt(px*px + py*py + pz*pz);
+  }
+
+  /**
+  * Works out the position, momentum and kinetic energy of a particle.
+  *
+  * @param storeIn The store holding the particle
+  * @param i The index of the particle
+  * @param valueOut Buffer for the seven quantities
+  */
+  protected static void quantities(ParticleStore storeIn, int i,
+  double[] valueOut)
+  {
+    double speedSquared = storeIn.vx[i]*storeIn.vx[i]
+    + storeIn.vy[i]*storeIn.vy[i] + storeIn.vz[i]*storeIn.vz[i];
+    double s = Math.sqrt(1 - speedSquared*INVERSE_C_SQUARED);
+    double massFactor = storeIn.mass[i]/(s*(1 + s));
+    double gammaMass = massFactor*(1 + s);
+    valueOut[X] = storeIn.x[i];
+    valueOut[Y] = storeIn.y[i];
+    valueOut[Z] = storeIn.z[i];
+    valueOut[PX] = gammaMass*storeIn.vx[i];
+    valueOut[PY] = gammaMass*storeIn.vy[i];
+    valueOut[PZ] = gammaMass*storeIn.vz[i];
+    valueOut[ENERGY] = massFactor*speedSquared;
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ * Class which represents a transport line, a sequence of sections each
+ * of which a bunch spends a given time in. A section is either a
+ * transfer map, for an element whose motion is solved once, such as a
+ * drift, a dipole or a quadrupole, or a field which the bunch is
+ * stepped through with its integrator, for an element which needs full
+ * integration, such as an RF cavity or a field map.
+ *
+ * Consecutive maps are composed into a single map the first time the
+ * line is tracked, so a run of elements of any length costs one pass
+ * over the bunch. A bunch with an aperture is instead mapped through
+ * each element in turn, so the particles which leave the aperture
+ * inside a run are lost where they leave it. The time of a map section
+ * is the time the reference particle of the map spends in the element,
+ * and every particle of the bunch is mapped over that time.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.1
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Beamline{
+
+  /**
+  * sections holds the sections in the order the bunch passes through
+  * them, and compiled the same sections with consecutive maps composed,
+  * or null until the line is next tracked.
+  */
+  protected List<Section> sections = new ArrayList<Section>();
+  protected List<Section> compiled;
+
+  /**
+  * Default constructor. The line is empty.
+  */
+  public Beamline()
+  {
+  }
+
+  /**
+  * Adds an element whose motion is given by a transfer map. Maps next
+  * to each other are composed into one when a bunch without an aperture
+  * is tracked, while a bunch with an aperture is mapped through this
+  * element alone and checked against the aperture at its end.
+  *
+  * @param mapIn user determined transfer map of the element
+  */
+  public void addMap(TransferMap mapIn)
+  {
+    sections.add(new Section(mapIn, null, mapIn.getDuration()));
+    compiled = null;
+  }
+
+  /**
+  * Adds an element which the bunch is stepped through.
+  *
+  * @param fieldIn user determined field of the element
+  * @param durationIn user determined time spent in the element
+  */
+  public void addField(FieldEvaluator fieldIn, double durationIn)
+  {
+    sections.add(new Section(null, fieldIn, durationIn));
+    compiled = null;
+  }
+
+  /**
+  * Return the number of sections added
+  *
+  * @return The number of sections
+  */
+  public int getSections()
+  {
+    return sections.size();
+  }
+
+  /**
+  * Return the time spent in the whole line
+  *
+  * @return The duration
+  */
+  public double getDuration()
+  {
+    double duration = 0;
+    for (Section section : sections)
+    {
+      duration += section.duration;
+    }
+    return duration;
+  }
+
+  /**
+  * Return the sections with each run of consecutive maps composed into
+  * one, composing them if the line has changed.
+  *
+  * @return The composed sections
+  */
+  protected List<Section> compile()
+  {
+    if (compiled == null)
+    {
+      compiled = new ArrayList<Section>();
+      TransferMap run = null;
+      for (Section section : sections)
+      {
+        if (section.map != null)
+        {
+          run = run == null ? section.map : run.then(section.map);
+          continue;
+        }
+        if (run != null)
+        {
+          compiled.add(new Section(run, null, run.getDuration()));
+          run = null;
+        }
+        compiled.add(section);
+      }
+      if (run != null)
+      {
+        compiled.add(new Section(run, null, run.getDuration()));
+      }
+    }
+    return compiled;
+  }
+
+  /**
+  * Moves a bunch through the whole line. Each run of maps is applied
+  * in one pass, or map by map if the bunch has an aperture so it is
+  * checked at the end of every element, and each field is stepped
+  * through in equal steps no longer than timeStep, with the field
+  * evaluated at the end of each step as in CyclotronSimulation.
+  *
+  * @param bunchIn The bunch
+  * @param timeStep user determined longest step through a field
+  * @param timeIn The time at which the bunch enters the line
+  * @return The time at which the bunch leaves the line
+  */
+  public double track(ParticleBunch bunchIn, double timeStep, double timeIn)
+  {
+    double time = timeIn;
+    List<Section> line = bunchIn.getAperture() == null ? compile()
+    : sections;
+    for (Section section : line)
+    {
+      if (section.map != null)
+      {
+        time += section.duration;
+        bunchIn.applyMap(section.map, time);
+      }
+      else
+      {
+        long steps = Math.max(1, (long) Math.ceil(section.duration/timeStep));
+        double step = section.duration/steps;
+        for (long s = 0; s < steps; s++)
+        {
+          time += step;
+          bunchIn.updateBunch(step, time, section.field);
+        }
+      }
+    }
+    return time;
+  }
+
+  /**
+  * Class which holds one section of the line, either a map or a field,
+  * and the time spent in it.
+  */
+  protected static class Section{
+
+    protected TransferMap map;
+    protected FieldEvaluator field;
+    protected double duration;
+
+    /**
+    * Constructor that sets the section.
+    *
+    * @param mapIn The transfer map, or null for a field
+    * @param fieldIn The field, or null for a map
+    * @param durationIn The time spent in the section
+    */
+    protected Section(TransferMap mapIn, FieldEvaluator fieldIn,
+    double durationIn)
+    {
+      map = mapIn;
+      field = fieldIn;
+      duration = durationIn;
+    }
+  }
+}
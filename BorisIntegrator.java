@@ -0,0 +1,43 @@
+/**
+ * Integrator which implements the Boris algorithm. The electric field
+ * accelerates the particle for half a time interval either side of a
+ * rotation of its velocity about the magnetic field. The rotation
+ * keeps the speed of a particle in a pure magnetic field constant, so
+ * it stays accurate at much larger time intervals than the Euler
+ * algorithms.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.1
+ */
+public class BorisIntegrator implements Integrator{
+
+  /**
+  * Moves a range of particles with the Boris algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param timeIn The time at the start of the interval
+  * @param fieldIn The electromagnetic field
+  * @param kernelIn The kernel for pushing through a uniform field
+  */
+  public void push(ParticleStore storeIn, int start, int end,
+  double deltaTime, double timeIn, FieldEvaluator fieldIn,
+  PushKernel kernelIn)
+  {
+    double[] fields = new double[6];
+    if (fieldIn.isUniform())
+    {
+      fieldIn.fieldAt(0, 0, 0, timeIn, fields);
+      kernelIn.boris(storeIn, start, end, deltaTime, fields);
+      return;
+    }
+    for (int i = start; i < end; i++)
+    {
+      fieldIn.fieldAt(i, storeIn.x[i], storeIn.y[i], storeIn.z[i],
+      timeIn, fields);
+      storeIn.boris(i, deltaTime, fields);
+    }
+  }
+}
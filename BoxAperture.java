@@ -0,0 +1,47 @@
+/**
+ * Class represents a boundary in the shape of a box with faces along
+ * the axes, such as a beam pipe or the region the simulation covers.
+ * Particles outside the box are lost.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+public class BoxAperture implements Aperture{
+
+  /**
+  * min and max are the corners of the box with the smallest and largest
+  * coordinates.
+  */
+  protected double minX, minY, minZ, maxX, maxY, maxZ;
+
+  /**
+  * Constructor that sets the two opposite corners of the box.
+  *
+  * @param minIn user determined corner with the smallest coordinates
+  * @param maxIn user determined corner with the largest coordinates
+  */
+  public BoxAperture(PhysicsVector minIn, PhysicsVector maxIn)
+  {
+    minX = minIn.getX();
+    minY = minIn.getY();
+    minZ = minIn.getZ();
+    maxX = maxIn.getX();
+    maxY = maxIn.getY();
+    maxZ = maxIn.getZ();
+  }
+
+  /**
+  * Return whether a particle at a position is outside the box. A
+  * position which is not a number is lost too.
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @return true if the particle is lost
+  */
+  public boolean isLost(double x, double y, double z)
+  {
+    return !(x >= minX && x <= maxX && y >= minY && y <= maxY
+    && z >= minZ && z <= maxZ);
+  }
+}
@@ -0,0 +1,368 @@
+/**
+ * Class which holds a copy of the full state of a simulation at one
+ * step, so that a run can be carried on from it after the program has
+ * stopped, or branched into several runs. The state is the step number
+ * and time, the number of output records written, every particle of
+ * the bunch, the state of the field and of the space charge solver,
+ * and the random number generator of the bunch if it has its own.
+ *
+ * capture copies the state into arrays kept from one checkpoint to the
+ * next, which takes little longer than reading the bunch once, and
+ * write may then be called on another thread while the simulation
+ * carries on, as CheckpointWriter does. A run carried on with restore
+ * repeats the uninterrupted run exactly.
+ *
+ * The file starts with a 48 byte header: the magic number, the format
+ * version, the number of particles and the number of per particle
+ * arrays as ints, then the step as a long, the time as a double, the
+ * number of records as a long and the number of particles lost as a
+ * long. A file with fewer arrays, written before particles had ids,
+ * can still be read, each particle's id being its index. The states of
+ * the field, the solver and the random number generator follow, each
+ * as its length in bytes then the bytes, then each per particle array
+ * in turn. Numbers are little endian.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.1
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Random;
+
+public class Checkpoint{
+
+  /**
+  * MAGIC identifies a checkpoint file, VERSION its layout, HEADER_SIZE
+  * is the length of the header in bytes and BUFFER_SIZE the number of
+  * bytes written or read at a time.
+  */
+  public static final int MAGIC = 0x43484b50;
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 48;
+  protected static final int BUFFER_SIZE = 1 << 20;
+
+  /**
+  * step is the number of steps taken, time the simulation time,
+  * records the number of output records written and lost the number
+  * of particles lost from the bunch. store holds a copy of
+  * the particles, and fieldState, solverState and randomState the
+  * saved states of the field, the space charge solver and the random
+  * number generator, each empty when there is none.
+  */
+  protected long step, records, lost;
+  protected double time;
+  protected ParticleStore store = new ParticleStore(0);
+  protected byte[] fieldState = new byte[0], solverState = new byte[0],
+  randomState = new byte[0];
+
+  /**
+  * Default constructor. Creates an empty checkpoint to capture into.
+  */
+  public Checkpoint()
+  {
+  }
+
+  /**
+  * Return the number of steps taken
+  *
+  * @return The step
+  */
+  public long getStep()
+  {
+    return step;
+  }
+
+  /**
+  * Return the simulation time
+  *
+  * @return The time
+  */
+  public double getTime()
+  {
+    return time;
+  }
+
+  /**
+  * Return the number of output records written
+  *
+  * @return The number of records
+  */
+  public long getRecords()
+  {
+    return records;
+  }
+
+  /**
+  * Return the number of particles lost from the bunch
+  *
+  * @return The number of particles lost
+  */
+  public long getLost()
+  {
+    return lost;
+  }
+
+  /**
+  * Copies the state of a simulation into the checkpoint.
+  *
+  * @param stepIn The number of steps taken
+  * @param timeIn The simulation time
+  * @param recordsIn The number of output records written
+  * @param bunchIn The bunch
+  * @param fieldIn The field, or null if it has no state
+  * @throws IOException if a state cannot be saved
+  */
+  public void capture(long stepIn, double timeIn, long recordsIn,
+  ParticleBunch bunchIn, EMField fieldIn) throws IOException
+  {
+    step = stepIn;
+    time = timeIn;
+    records = recordsIn;
+    lost = bunchIn.getLostCount();
+    store.copyFrom(bunchIn.getStore());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    if (fieldIn != null)
+    {
+      fieldIn.writeState(out);
+    }
+    fieldState = bytes.toByteArray();
+
+    bytes.reset();
+    if (bunchIn.getSpaceCharge() != null)
+    {
+      bunchIn.getSpaceCharge().writeState(out);
+    }
+    solverState = bytes.toByteArray();
+
+    bytes.reset();
+    if (bunchIn.getRandom() != null)
+    {
+      ObjectOutputStream objects = new ObjectOutputStream(bytes);
+      objects.writeObject(bunchIn.getRandom());
+      objects.close();
+    }
+    randomState = bytes.toByteArray();
+  }
+
+  /**
+  * Sets a simulation back to the state in the checkpoint. The bunch
+  * and field should be set up as they were when it was captured, and
+  * the bunch may hold more particles than the checkpoint if some had
+  * been lost by then.
+  *
+  * @param bunchIn The bunch
+  * @param fieldIn The field, or null if it has no state
+  * @throws IOException if the bunch does not match the checkpoint or a
+  * state cannot be read
+  */
+  public void restore(ParticleBunch bunchIn, EMField fieldIn)
+  throws IOException
+  {
+    long started = store.size() + lost;
+    long bunchStarted = bunchIn.getNumberParticles() +
+    bunchIn.getLostCount();
+    if (bunchStarted != started)
+    {
+      throw new IOException("The checkpoint is of a bunch of " + started +
+      " particles but the bunch started with " + bunchStarted);
+    }
+    bunchIn.copyParticles(store);
+    bunchIn.setLostCount(lost);
+    if (fieldIn != null && fieldState.length > 0)
+    {
+      fieldIn.readState(new DataInputStream(new ByteArrayInputStream(
+      fieldState)));
+    }
+    if (bunchIn.getSpaceCharge() != null && solverState.length > 0)
+    {
+      bunchIn.getSpaceCharge().readState(new DataInputStream(
+      new ByteArrayInputStream(solverState)));
+    }
+    if (randomState.length > 0)
+    {
+      ObjectInputStream objects = new ObjectInputStream(
+      new ByteArrayInputStream(randomState));
+      try
+      {
+        bunchIn.setRandom((Random) objects.readObject());
+      }
+      catch (ClassNotFoundException e)
+      {
+        throw new IOException("Cannot read the random number generator",
+        e);
+      }
+    }
+  }
+
+  /**
+  * Writes the checkpoint to a file. It is first written under a
+  * temporary name and then renamed, so an earlier file of the same name
+  * is only replaced by a complete one.
+  *
+  * @param fileName user determined file name
+  * @throws IOException if the file cannot be written
+  */
+  public void write(String fileName) throws IOException
+  {
+    Path target = Paths.get(fileName);
+    Path part = Paths.get(fileName + ".part");
+    try (FileChannel channel = FileChannel.open(part,
+    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+    StandardOpenOption.WRITE))
+    {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      double[][] columns = store.columns();
+      buffer.putInt(MAGIC);
+      buffer.putInt(VERSION);
+      buffer.putInt(store.size());
+      buffer.putInt(columns.length);
+      buffer.putLong(step);
+      buffer.putDouble(time);
+      buffer.putLong(records);
+      buffer.putLong(lost);
+      for (byte[] state : new byte[][] {fieldState, solverState,
+      randomState})
+      {
+        buffer.putInt(state.length);
+        buffer.flip();
+        writeFully(channel, buffer);
+        writeFully(channel, ByteBuffer.wrap(state));
+      }
+
+      DoubleBuffer doubles = buffer.asDoubleBuffer();
+      for (double[] column : columns)
+      {
+        for (int i = 0; i < store.size(); i += doubles.capacity())
+        {
+          int count = Math.min(doubles.capacity(), store.size() - i);
+          doubles.clear();
+          doubles.put(column, i, count);
+          buffer.position(0).limit(8*count);
+          writeFully(channel, buffer);
+        }
+      }
+      channel.force(false);
+    }
+    try
+    {
+      Files.move(part, target, StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (AtomicMoveNotSupportedException e)
+    {
+      Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+  * Reads a checkpoint from a file.
+  *
+  * @param fileName user determined file name
+  * @return The checkpoint
+  * @throws IOException if the file cannot be read or is not a
+  * checkpoint
+  */
+  public static Checkpoint read(String fileName) throws IOException
+  {
+    Checkpoint checkpoint = new Checkpoint();
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+    StandardOpenOption.READ))
+    {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      buffer.limit(HEADER_SIZE);
+      readFully(channel, buffer);
+      buffer.flip();
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+      {
+        throw new IOException(fileName + " is not a checkpoint file");
+      }
+      int particles = buffer.getInt();
+      int columnCount = buffer.getInt();
+      checkpoint.step = buffer.getLong();
+      checkpoint.time = buffer.getDouble();
+      checkpoint.records = buffer.getLong();
+      checkpoint.lost = buffer.getLong();
+
+      byte[][] states = new byte[3][];
+      for (int s = 0; s < 3; s++)
+      {
+        buffer.clear().limit(4);
+        readFully(channel, buffer);
+        states[s] = new byte[buffer.getInt(0)];
+        readFully(channel, ByteBuffer.wrap(states[s]));
+      }
+      checkpoint.fieldState = states[0];
+      checkpoint.solverState = states[1];
+      checkpoint.randomState = states[2];
+
+      buffer.clear();
+      checkpoint.store = new ParticleStore(particles);
+      double[][] columns = checkpoint.store.columns();
+      if (columnCount > columns.length)
+      {
+        throw new IOException(fileName + " holds " + columnCount +
+        " arrays per particle rather than " + columns.length);
+      }
+      DoubleBuffer doubles = buffer.asDoubleBuffer();
+      for (int c = 0; c < columnCount; c++)
+      {
+        double[] column = columns[c];
+        for (int i = 0; i < particles; i += doubles.capacity())
+        {
+          int count = Math.min(doubles.capacity(), particles - i);
+          buffer.position(0).limit(8*count);
+          readFully(channel, buffer);
+          doubles.clear();
+          doubles.get(column, i, count);
+        }
+      }
+    }
+    return checkpoint;
+  }
+
+  /**
+  * Writes every remaining byte of a buffer to a channel, then clears
+  * the buffer.
+  *
+  * @param channel The channel
+  * @param buffer The buffer
+  * @throws IOException if the channel cannot be written
+  */
+  protected static void writeFully(FileChannel channel, ByteBuffer buffer)
+  throws IOException
+  {
+    while (buffer.hasRemaining())
+    {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+  * Fills the remainder of a buffer from a channel.
+  *
+  * @param channel The channel
+  * @param buffer The buffer
+  * @throws IOException if the channel ends first
+  */
+  protected static void readFully(FileChannel channel, ByteBuffer buffer)
+  throws IOException
+  {
+    while (buffer.hasRemaining())
+    {
+      if (channel.read(buffer) < 0)
+      {
+        throw new EOFException("The checkpoint file is cut short");
+      }
+    }
+  }
+}
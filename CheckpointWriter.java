@@ -0,0 +1,143 @@
+/**
+ * Class which writes checkpoints of a simulation at regular intervals
+ * without holding it up. At each checkpoint the state is copied, which
+ * is quick, and the copy is written to disk on a thread of its own
+ * while the simulation carries on. Only one checkpoint is written at a
+ * time, so if the last has not finished the next waits for it, and the
+ * copy is reused from one checkpoint to the next.
+ *
+ * The file name may contain a format such as %d, which is replaced by
+ * the step, to keep every checkpoint rather than only the latest.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+
+import java.io.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CheckpointWriter implements Closeable{
+
+  /**
+  * fileName is the name, or format of the names, of the files written
+  * and interval the number of steps between checkpoints. snapshot holds
+  * the copied state, writer is the thread writing it and pending the
+  * write in progress, if any.
+  */
+  protected String fileName;
+  protected long interval;
+  protected Checkpoint snapshot = new Checkpoint();
+  protected ExecutorService writer;
+  protected Future<?> pending;
+
+  /**
+  * Constructor that sets the file name and the interval, and starts
+  * the writing thread.
+  *
+  * @param fileNameIn user determined file name or format
+  * @param intervalIn user determined number of steps between
+  * checkpoints
+  */
+  public CheckpointWriter(String fileNameIn, long intervalIn)
+  {
+    fileName = fileNameIn;
+    interval = intervalIn;
+    writer = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "CheckpointWriter");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+  * Return whether a checkpoint is due at a step
+  *
+  * @param stepIn The number of steps taken
+  * @return true if the step is a whole number of intervals
+  */
+  public boolean isDue(long stepIn)
+  {
+    return interval > 0 && stepIn % interval == 0;
+  }
+
+  /**
+  * Copies the state of a simulation and starts writing it. Waits first
+  * for the last checkpoint to be written.
+  *
+  * @param stepIn The number of steps taken
+  * @param timeIn The simulation time
+  * @param recordsIn The number of output records written
+  * @param bunchIn The bunch
+  * @param fieldIn The field, or null if it has no state
+  * @throws IOException if the last checkpoint could not be written or
+  * a state cannot be saved
+  */
+  public void save(long stepIn, double timeIn, long recordsIn,
+  ParticleBunch bunchIn, EMField fieldIn) throws IOException
+  {
+    finish();
+    snapshot.capture(stepIn, timeIn, recordsIn, bunchIn, fieldIn);
+    String name = fileName.contains("%") ? String.format(fileName, stepIn)
+    : fileName;
+    pending = writer.submit(() -> {
+      snapshot.write(name);
+      return null;
+    });
+  }
+
+  /**
+  * Waits for the checkpoint being written, if any, to finish.
+  *
+  * @throws IOException if it could not be written
+  */
+  public void finish() throws IOException
+  {
+    if (pending == null)
+    {
+      return;
+    }
+    try
+    {
+      pending.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while writing a " +
+      "checkpoint");
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof IOException)
+      {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("A checkpoint could not be written",
+      e.getCause());
+    }
+    finally
+    {
+      pending = null;
+    }
+  }
+
+  /**
+  * Waits for the checkpoint being written and stops the writing thread.
+  *
+  * @throws IOException if the checkpoint could not be written
+  */
+  public void close() throws IOException
+  {
+    try
+    {
+      finish();
+    }
+    finally
+    {
+      writer.shutdown();
+    }
+  }
+}
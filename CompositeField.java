@@ -0,0 +1,428 @@
+/**
+ * Class represents an electromagnetic field built up from many bounded
+ * regions, such as the dees, magnets and drifts of a beamline, each
+ * with a field of its own. Each region is a box, including its lower
+ * faces but not its upper ones so that neighbouring regions do not
+ * both claim a shared face. Where regions overlap their fields are
+ * added, and the uniform electric and magnetic fields of the composite
+ * itself act everywhere as a background.
+ *
+ * To find the regions holding a position the space around the regions
+ * is divided into a uniform grid of cells, each listing the regions
+ * that reach into it, so only a few regions are tested whatever their
+ * number. The grid is rebuilt whenever a region is added and is never
+ * changed once built, so fieldAt can be used from many threads at once.
+ * atTime gives the composite for one step, sharing the grid but with
+ * the field of each region for that step.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.1
+ */
+
+import java.util.*;
+
+public class CompositeField extends EMField{
+
+  /**
+  * CELLS_PER_REGION is the number of grid cells aimed for per region
+  * and MAX_CELLS the most cells along any axis.
+  */
+  protected static final int CELLS_PER_REGION = 2;
+  protected static final int MAX_CELLS = 256;
+
+  /**
+  * regions holds the regions in the order they were added and index
+  * the grid used to find them. fields is working space for
+  * calculateAcceleration.
+  */
+  protected List<Region> regions = new ArrayList<Region>();
+  protected volatile Index index = new Index(new Region[0]);
+  protected double[] fields = new double[6];
+
+  /**
+  * A box shaped region of space together with the field inside it.
+  */
+  protected static class Region{
+    protected double minX, minY, minZ, maxX, maxY, maxZ;
+    protected FieldEvaluator field;
+
+    /**
+    * Constructor that sets the corners of the box and its field.
+    *
+    * @param minIn The lowest corner of the box
+    * @param maxIn The highest corner of the box
+    * @param fieldIn The field inside the box
+    */
+    protected Region(PhysicsVector minIn, PhysicsVector maxIn,
+    FieldEvaluator fieldIn)
+    {
+      minX = minIn.getX();
+      minY = minIn.getY();
+      minZ = minIn.getZ();
+      maxX = maxIn.getX();
+      maxY = maxIn.getY();
+      maxZ = maxIn.getZ();
+      field = fieldIn;
+    }
+
+    /**
+    * Constructor that copies the box of another region with a field of
+    * its own.
+    *
+    * @param regionIn The region whose box is copied
+    * @param fieldIn The field inside the box
+    */
+    protected Region(Region regionIn, FieldEvaluator fieldIn)
+    {
+      minX = regionIn.minX;
+      minY = regionIn.minY;
+      minZ = regionIn.minZ;
+      maxX = regionIn.maxX;
+      maxY = regionIn.maxY;
+      maxZ = regionIn.maxZ;
+      field = fieldIn;
+    }
+
+    /**
+    * Return whether a position lies in the box.
+    *
+    * @param x The x position
+    * @param y The y position
+    * @param z The z position
+    * @return true if the position is inside
+    */
+    protected boolean contains(double x, double y, double z)
+    {
+      return x >= minX && x < maxX && y >= minY && y < maxY && z >= minZ
+      && z < maxZ;
+    }
+  }
+
+  /**
+  * The uniform grid over the bounding box of the regions. The regions
+  * reaching into cell c are entries cellStart[c] up to cellStart[c + 1]
+  * of cellRegions, with cells numbered with x varying fastest.
+  */
+  protected static class Index{
+    protected Region[] regions;
+    protected double minX, minY, minZ, maxX, maxY, maxZ;
+    protected double inverseX, inverseY, inverseZ;
+    protected int nx, ny, nz;
+    protected int[] cellStart, cellRegions;
+
+    /**
+    * Constructor that builds the grid for a set of regions.
+    *
+    * @param regionsIn The regions
+    */
+    protected Index(Region[] regionsIn)
+    {
+      regions = regionsIn;
+      if (regions.length == 0)
+      {
+        nx = ny = nz = 1;
+        cellStart = new int[2];
+        cellRegions = new int[0];
+        return;
+      }
+      minX = minY = minZ = Double.POSITIVE_INFINITY;
+      maxX = maxY = maxZ = Double.NEGATIVE_INFINITY;
+      for (Region region : regions)
+      {
+        minX = Math.min(minX, region.minX);
+        minY = Math.min(minY, region.minY);
+        minZ = Math.min(minZ, region.minZ);
+        maxX = Math.max(maxX, region.maxX);
+        maxY = Math.max(maxY, region.maxY);
+        maxZ = Math.max(maxZ, region.maxZ);
+      }
+
+      // Cubic cells sized to give about CELLS_PER_REGION per region,
+      // counting only the axes along which the regions have extent
+      double volume = 1;
+      int axes = 0;
+      double[] extent = {maxX - minX, maxY - minY, maxZ - minZ};
+      for (double length : extent)
+      {
+        if (length > 0)
+        {
+          volume *= length;
+          axes++;
+        }
+      }
+      double size = axes == 0 ? 1 : Math.pow(volume/(CELLS_PER_REGION
+      *(double) regions.length), 1.0/axes);
+      nx = cells(extent[0], size);
+      ny = cells(extent[1], size);
+      nz = cells(extent[2], size);
+      inverseX = extent[0] > 0 ? nx/extent[0] : 0;
+      inverseY = extent[1] > 0 ? ny/extent[1] : 0;
+      inverseZ = extent[2] > 0 ? nz/extent[2] : 0;
+
+      // Count the regions in each cell, then fill them in
+      cellStart = new int[nx*ny*nz + 1];
+      for (int pass = 0; pass < 2; pass++)
+      {
+        int[] filled = pass == 0 ? null : new int[nx*ny*nz];
+        for (int r = 0; r < regions.length; r++)
+        {
+          Region region = regions[r];
+          int i0 = cell(region.minX, minX, inverseX, nx);
+          int i1 = cell(region.maxX, minX, inverseX, nx);
+          int j0 = cell(region.minY, minY, inverseY, ny);
+          int j1 = cell(region.maxY, minY, inverseY, ny);
+          int k0 = cell(region.minZ, minZ, inverseZ, nz);
+          int k1 = cell(region.maxZ, minZ, inverseZ, nz);
+          for (int k = k0; k <= k1; k++)
+          {
+            for (int j = j0; j <= j1; j++)
+            {
+              for (int i = i0; i <= i1; i++)
+              {
+                int c = (k*ny + j)*nx + i;
+                if (pass == 0)
+                {
+                  cellStart[c + 1]++;
+                }
+                else
+                {
+                  cellRegions[cellStart[c] + filled[c]++] = r;
+                }
+              }
+            }
+          }
+        }
+        if (pass == 0)
+        {
+          for (int c = 0; c < nx*ny*nz; c++)
+          {
+            cellStart[c + 1] += cellStart[c];
+          }
+          cellRegions = new int[cellStart[nx*ny*nz]];
+        }
+      }
+    }
+
+    /**
+    * Constructor that shares the grid of another index for regions
+    * with the same boxes in the same order.
+    *
+    * @param indexIn The index whose grid is shared
+    * @param regionsIn The regions
+    */
+    protected Index(Index indexIn, Region[] regionsIn)
+    {
+      regions = regionsIn;
+      minX = indexIn.minX;
+      minY = indexIn.minY;
+      minZ = indexIn.minZ;
+      maxX = indexIn.maxX;
+      maxY = indexIn.maxY;
+      maxZ = indexIn.maxZ;
+      inverseX = indexIn.inverseX;
+      inverseY = indexIn.inverseY;
+      inverseZ = indexIn.inverseZ;
+      nx = indexIn.nx;
+      ny = indexIn.ny;
+      nz = indexIn.nz;
+      cellStart = indexIn.cellStart;
+      cellRegions = indexIn.cellRegions;
+    }
+
+    /**
+    * Return the number of cells along an axis for cells of a size.
+    *
+    * @param length The extent of the regions along the axis
+    * @param size The size of a cell
+    * @return The number of cells
+    */
+    protected static int cells(double length, double size)
+    {
+      if (!(length > 0))
+      {
+        return 1;
+      }
+      return (int) Math.max(1, Math.min(MAX_CELLS, Math.ceil(length/size)));
+    }
+
+    /**
+    * Return the cell along an axis holding a coordinate, clamped to the
+    * grid.
+    *
+    * @param u The coordinate
+    * @param min The lowest coordinate of the grid
+    * @param inverse The number of cells per unit length
+    * @param n The number of cells along the axis
+    * @return The cell number
+    */
+    protected static int cell(double u, double min, double inverse, int n)
+    {
+      int c = (int) ((u - min)*inverse);
+      return c < 0 ? 0 : c >= n ? n - 1 : c;
+    }
+  }
+
+  /**
+  * Default constructor. Creates a composite with no regions and no
+  * background field.
+  */
+  public CompositeField()
+  {
+    super();
+  }
+
+  /**
+  * Constructor which sets the background electric field strength and
+  * magnetic flux density, which act everywhere.
+  *
+  * @param electricIn The background electric field strength
+  * @param magneticIn The background magnetic flux density
+  */
+  public CompositeField(PhysicsVector electricIn, PhysicsVector magneticIn)
+  {
+    super(electricIn, magneticIn);
+  }
+
+  /**
+  * Adds a box shaped region with a field of its own. The field is
+  * evaluated at the global position, so a field that varies in space
+  * should be set up in global coordinates.
+  *
+  * @param minIn user determined lowest corner of the region
+  * @param maxIn user determined highest corner of the region
+  * @param fieldIn user determined field inside the region
+  */
+  public synchronized void addRegion(PhysicsVector minIn,
+  PhysicsVector maxIn, FieldEvaluator fieldIn)
+  {
+    Region region = new Region(minIn, maxIn, fieldIn);
+    if (!(region.minX <= region.maxX && region.minY <= region.maxY
+    && region.minZ <= region.maxZ) || Double.isInfinite(region.minX
+    + region.minY + region.minZ + region.maxX + region.maxY + region.maxZ))
+    {
+      throw new IllegalArgumentException("A region must be a finite box " +
+      "with its lowest corner first");
+    }
+    regions.add(region);
+    index = new Index(regions.toArray(new Region[0]));
+  }
+
+  /**
+  * Return the number of regions
+  *
+  * @return The number of regions
+  */
+  public int getRegions()
+  {
+    return regions.size();
+  }
+
+  /**
+  * Return whether the field is the same at every position, which is
+  * only the case when there are no regions.
+  *
+  * @return true if there are no regions
+  */
+  public boolean isUniform()
+  {
+    return index.regions.length == 0;
+  }
+
+  /**
+  * Return the field for one step, in which each region whose field
+  * depends on time has that field for the step. It shares the grid and
+  * regions of this field, so no region should be added to it.
+  *
+  * @param timeIn The time of the step
+  * @return The field for the step, or this field if no region changes
+  */
+  public FieldEvaluator atTime(double timeIn)
+  {
+    Index grid = index;
+    Region[] stepRegions = null;
+    for (int r = 0; r < grid.regions.length; r++)
+    {
+      Region region = grid.regions[r];
+      FieldEvaluator stepField = region.field.atTime(timeIn);
+      if (stepField != region.field)
+      {
+        if (stepRegions == null)
+        {
+          stepRegions = grid.regions.clone();
+        }
+        stepRegions[r] = new Region(region, stepField);
+      }
+    }
+    if (stepRegions == null)
+    {
+      return this;
+    }
+    CompositeField step = new CompositeField(electric, magnetic);
+    step.regions = regions;
+    step.index = new Index(grid, stepRegions);
+    return step;
+  }
+
+  /**
+  * Evaluates the field at a position and time as the background field
+  * plus the fields of every region holding the position.
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param timeIn The current time
+  * @param fieldsOut Buffer of at least six values for the result
+  */
+  public void fieldAt(double x, double y, double z, double timeIn,
+  double[] fieldsOut)
+  {
+    double ex = electric.getX(), ey = electric.getY(), ez = electric.getZ();
+    double bx = magnetic.getX(), by = magnetic.getY(), bz = magnetic.getZ();
+    Index grid = index;
+    if (x >= grid.minX && x < grid.maxX && y >= grid.minY && y < grid.maxY
+    && z >= grid.minZ && z < grid.maxZ)
+    {
+      int c = (Index.cell(z, grid.minZ, grid.inverseZ, grid.nz)*grid.ny
+      + Index.cell(y, grid.minY, grid.inverseY, grid.ny))*grid.nx
+      + Index.cell(x, grid.minX, grid.inverseX, grid.nx);
+      for (int n = grid.cellStart[c]; n < grid.cellStart[c + 1]; n++)
+      {
+        Region region = grid.regions[grid.cellRegions[n]];
+        if (region.contains(x, y, z))
+        {
+          region.field.fieldAt(x, y, z, timeIn, fieldsOut);
+          ex += fieldsOut[0];
+          ey += fieldsOut[1];
+          ez += fieldsOut[2];
+          bx += fieldsOut[3];
+          by += fieldsOut[4];
+          bz += fieldsOut[5];
+        }
+      }
+    }
+    fieldsOut[0] = ex;
+    fieldsOut[1] = ey;
+    fieldsOut[2] = ez;
+    fieldsOut[3] = bx;
+    fieldsOut[4] = by;
+    fieldsOut[5] = bz;
+  }
+
+  /**
+  * Calculates the acceleration experienced by a charged particle
+  * according to the Lorentz force law (non-relativistic):
+  * a = (q/m)*(E + vxB), using the field at the position of the
+  * particle at time zero.
+  *
+  * @param particleIn the charged particle moving in the field
+  */
+  public void calculateAcceleration(ChargedParticle particleIn)
+  {
+    PhysicsVector position = particleIn.position;
+    PhysicsVector velocity = particleIn.velocity;
+    accelerationAt(position.getX(), position.getY(), position.getZ(),
+    velocity.getX(), velocity.getY(), velocity.getZ(), 0,
+    particleIn.getCharge()/particleIn.getMass(), fields);
+    acceleration.setVector(fields[0], fields[1], fields[2]);
+  }
+}
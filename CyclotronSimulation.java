@@ -0,0 +1,711 @@
+/**
+ * Class which runs one simulation of a bunch of charged particles in a
+ * cyclotron, a constant magnetic field together with an electric field
+ * which oscillates once per orbit, so that the bunch spirals outward.
+ * Every parameter has a default and may be changed by name with
+ * setParameter, so a run can be configured from the command line or a
+ * file rather than by editing the code. Each simulation has state of
+ * its own, so many can run at once on separate threads, as SweepRunner
+ * does.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.8
+ */
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class CyclotronSimulation{
+
+  /**
+  * timeStep is the interval which is used to calculate the
+  * acceleration of a particle. percentageField is by what proportion
+  * the field is scaled by when it has regional variation.
+  *
+  * algorithmChoice = 1 for Euler algorithm, algorithmChoice = 2 for
+  * Euler Cromer algorithm, algorithmChoice = 3 for Boris algorithm,
+  * which stays accurate at much larger timeStep, algorithmChoice = 4
+  * for the adaptive Dormand Prince algorithm, which divides each
+  * timeStep as finely as the field requires, and algorithmChoice = 5
+  * for relativistic Boris algorithm. noParticle determines the number
+  * of particles in a beam. noOrbits determines how many orbits are
+  * completed. noThreads determines how many threads push the beam,
+  * with 1 pushing it on the calling thread. spaceChargeChoice = 0
+  * ignores the forces between the particles, spaceChargeChoice = 1
+  * works them out with a Barnes Hut tree and spaceChargeChoice = 2
+  * with a particle in cell mesh, which suits very large beams. seed,
+  * when not zero, seeds a random number generator of the bunch's own
+  * so the run can be repeated, otherwise Math.random is used.
+  */
+  protected double particleMass = 1.67e-27;
+  protected double particleCharge = 1.60e-19;
+  protected double timeStep = 1.00e-4;
+  protected double percentageField = 1;
+  protected int algorithmChoice = 1;
+  protected int noParticle = 100;
+  protected int noOrbits = 5;
+  protected int noThreads = 1;
+  protected int spaceChargeChoice = 0;
+  protected long seed = 0;
+
+  /**
+  * fieldDivider determines below/above which x, y and z positions
+  * the magnetic field changes. Currently only x - position
+  * dependent changes implemented. initialSpread determines the
+  * maximum and minumum possible values of spread that the particles
+  * start with.
+  */
+  protected PhysicsVector fieldDivider = new PhysicsVector(0, 0, 0);
+  protected PhysicsVector initialSpread = new PhysicsVector(0.01, 0, 0);
+
+  /**
+  * electricMagnitude and electricDirection determine the magnitude and
+  * direction of the electric field, and magneticMagnitude and
+  * magneticDirection those of the magnetic field.
+  */
+  protected double electricMagnitude = 1.00e-7;
+  protected PhysicsVector electricDirection = new PhysicsVector(0, 1, 0);
+  protected double magneticMagnitude = 1e-7;
+  protected PhysicsVector magneticDirection = new PhysicsVector(0, 0, 1);
+
+  /**
+  * initialSpeed and velocityDirection determine the initial velocity,
+  * and positionMagnitude and positionDirection the initial position.
+  */
+  protected double initialSpeed = 0.10;
+  protected PhysicsVector velocityDirection = new PhysicsVector(1, 0, 0);
+  protected double positionMagnitude = 0;
+  protected PhysicsVector positionDirection = new PhysicsVector(0, 0, 0);
+
+  /**
+  * outputFile is the binary file to which each record, the time and
+  * the average x and y positions, is written, or null to write none.
+  * It can be turned into CSV with TrajectoryConverter. Records are
+  * handed to a separate output thread through a buffer of outputBuffer
+  * records, so the simulation does not wait for the disk; outputPolicy
+  * decides what happens when the buffer is full, and under DECIMATE
+  * one record in outputDecimation is kept once it is half full. If
+  * recordTracks is true the position and velocity of every particle is
+  * also recorded each step in the compressed file trackFile, in chunks
+  * of at most trackChunk steps, which can be turned into CSV with
+  * TrackConverter. If fieldMapFile names a map file written by FieldMap
+  * the beam travels in the mapped field instead of the cyclotron field.
+  */
+  protected String outputFile = "DataOut.bin";
+  protected int outputBuffer = 4096;
+  protected AsyncRecordWriter.Backpressure outputPolicy =
+  AsyncRecordWriter.Backpressure.BLOCK;
+  protected int outputDecimation = 10;
+  protected boolean recordTracks = false;
+  protected String trackFile = "Tracks.bin";
+  protected int trackChunk = 1024;
+  protected String fieldMapFile = null;
+
+  /**
+  * If checkpointInterval is above zero the full state of the
+  * simulation is saved every checkpointInterval steps to
+  * checkpointFile, on a thread of its own, and if restartFile names
+  * such a file the run carries on from it, appending to the output
+  * file, and repeats the uninterrupted run exactly. Tracks recorded
+  * after a restart go to a new file, trackFile with the step added
+  * before its extension.
+  */
+  protected int checkpointInterval = 0;
+  protected String checkpointFile = "Checkpoint.bin";
+  protected String restartFile = null;
+
+  /**
+  * When the program is run with -Dcyclotron.metrics=true the time of
+  * each phase of a step is measured, and a summary printed every
+  * metricsInterval steps, see SimulationMetrics.
+  */
+  protected int metricsInterval = 10000;
+
+  /**
+  * If statisticsInterval is above zero the full statistics of the
+  * bunch, see BeamStatistics.writeRecord, are worked out every
+  * statisticsInterval steps and written to statisticsFile, which
+  * TrajectoryConverter turns into CSV. A statistics pass reads every
+  * particle, as a push does, so it costs a large part of a step and is
+  * best kept to the output interval needed rather than every step.
+  */
+  protected int statisticsInterval = 0;
+  protected String statisticsFile = "Statistics.bin";
+
+  /**
+  * If offHeap is true the particles are held outside the Java heap, see
+  * OffHeapParticleBunch, in memory or, if offHeapFile names one, in a
+  * memory mapped file. Such a bunch cannot be checkpointed, have its
+  * tracks recorded or feel space charge.
+  */
+  protected boolean offHeap = false;
+  protected String offHeapFile = null;
+
+  /**
+  * If apertureRadius is above zero a particle is lost once it is
+  * further than apertureRadius from the z axis, and if deeHalfGap is
+  * above zero also once it is further than deeHalfGap from the median
+  * plane, where it would strike the dees. Lost particles are removed
+  * from the bunch and the time, id, position and velocity of each is
+  * written to lossFile, or nowhere if it is null.
+  */
+  protected double apertureRadius = 0;
+  protected double deeHalfGap = 0;
+  protected String lossFile = "Losses.bin";
+
+  /**
+  * steps and currentTime are the number of steps taken and the time
+  * reached by the last run, lost the number of particles it lost, and
+  * statistics the statistics of the bunch at its end.
+  */
+  protected long steps;
+  protected double currentTime;
+  protected long lost;
+  protected BeamStatistics statistics;
+
+  /**
+  * Default constructor. Every parameter takes its default value.
+  */
+  public CyclotronSimulation()
+  {
+  }
+
+  /**
+  * Sets a parameter from its name and a value given as text. The
+  * components of the vector parameters are named with X, Y or Z after
+  * the name of the vector, for example initialSpreadX.
+  *
+  * @param name The name of the parameter
+  * @param value The value
+  * @throws IllegalArgumentException if there is no such parameter or
+  * the value cannot be read
+  */
+  public void setParameter(String name, String value)
+  {
+    try
+    {
+      switch (name)
+      {
+        case "particleMass":
+          particleMass = Double.parseDouble(value);
+          break;
+        case "particleCharge":
+          particleCharge = Double.parseDouble(value);
+          break;
+        case "timeStep":
+          timeStep = Double.parseDouble(value);
+          break;
+        case "percentageField":
+          percentageField = Double.parseDouble(value);
+          break;
+        case "algorithmChoice":
+          algorithmChoice = Integer.parseInt(value);
+          break;
+        case "noParticle":
+          noParticle = Integer.parseInt(value);
+          break;
+        case "noOrbits":
+          noOrbits = Integer.parseInt(value);
+          break;
+        case "noThreads":
+          noThreads = Integer.parseInt(value);
+          break;
+        case "spaceChargeChoice":
+          spaceChargeChoice = Integer.parseInt(value);
+          break;
+        case "seed":
+          seed = Long.parseLong(value);
+          break;
+        case "electricMagnitude":
+          electricMagnitude = Double.parseDouble(value);
+          break;
+        case "magneticMagnitude":
+          magneticMagnitude = Double.parseDouble(value);
+          break;
+        case "initialSpeed":
+          initialSpeed = Double.parseDouble(value);
+          break;
+        case "positionMagnitude":
+          positionMagnitude = Double.parseDouble(value);
+          break;
+        case "outputFile":
+          outputFile = text(value);
+          break;
+        case "outputBuffer":
+          outputBuffer = Integer.parseInt(value);
+          break;
+        case "outputPolicy":
+          outputPolicy = AsyncRecordWriter.Backpressure.valueOf(value);
+          break;
+        case "outputDecimation":
+          outputDecimation = Integer.parseInt(value);
+          break;
+        case "recordTracks":
+          recordTracks = Boolean.parseBoolean(value);
+          break;
+        case "trackFile":
+          trackFile = text(value);
+          break;
+        case "trackChunk":
+          trackChunk = Integer.parseInt(value);
+          break;
+        case "fieldMapFile":
+          fieldMapFile = text(value);
+          break;
+        case "checkpointInterval":
+          checkpointInterval = Integer.parseInt(value);
+          break;
+        case "checkpointFile":
+          checkpointFile = text(value);
+          break;
+        case "restartFile":
+          restartFile = text(value);
+          break;
+        case "metricsInterval":
+          metricsInterval = Integer.parseInt(value);
+          break;
+        case "offHeap":
+          offHeap = Boolean.parseBoolean(value);
+          break;
+        case "offHeapFile":
+          offHeapFile = text(value);
+          break;
+        case "apertureRadius":
+          apertureRadius = Double.parseDouble(value);
+          break;
+        case "deeHalfGap":
+          deeHalfGap = Double.parseDouble(value);
+          break;
+        case "lossFile":
+          lossFile = text(value);
+          break;
+        case "statisticsInterval":
+          statisticsInterval = Integer.parseInt(value);
+          break;
+        case "statisticsFile":
+          statisticsFile = text(value);
+          break;
+        default:
+          if (!setComponent(name, value))
+          {
+            throw new IllegalArgumentException("Unknown parameter " + name);
+          }
+      }
+    }
+    catch (NumberFormatException e)
+    {
+      throw new IllegalArgumentException("Cannot read " + value +
+      " as the value of " + name);
+    }
+  }
+
+  /**
+  * Return a text value, with "null" or an empty value meaning none.
+  *
+  * @param value The value
+  * @return The value, or null
+  */
+  protected static String text(String value)
+  {
+    return value.isEmpty() || value.equals("null") ? null : value;
+  }
+
+  /**
+  * Checks that none of the features an off heap bunch cannot support
+  * have been asked for, before any file is opened.
+  *
+  * @throws IllegalArgumentException naming the first one that has
+  */
+  protected void checkOffHeap()
+  {
+    String conflict = null;
+    if (checkpointInterval > 0)
+    {
+      conflict = "checkpointInterval";
+    }
+    else if (restartFile != null)
+    {
+      conflict = "restartFile";
+    }
+    else if (recordTracks && trackFile != null)
+    {
+      conflict = "recordTracks";
+    }
+    else if (spaceChargeChoice != 0)
+    {
+      conflict = "spaceChargeChoice";
+    }
+    if (conflict != null)
+    {
+      throw new IllegalArgumentException("offHeap=true cannot be used " +
+      "with " + conflict + ", as an off heap bunch cannot be " +
+      "checkpointed, restarted, have its tracks recorded or feel space " +
+      "charge");
+    }
+  }
+
+  /**
+  * Return a file name with a step number added before its extension,
+  * so Tracks.bin at step 500 becomes Tracks500.bin.
+  *
+  * @param fileName The file name
+  * @param stepIn The step
+  * @return The file name for the step
+  */
+  protected static String withStep(String fileName, long stepIn)
+  {
+    int dot = fileName.lastIndexOf('.');
+    if (dot <= fileName.lastIndexOf(File.separatorChar))
+    {
+      return fileName + stepIn;
+    }
+    return fileName.substring(0, dot) + stepIn + fileName.substring(dot);
+  }
+
+  /**
+  * Sets one component of a vector parameter.
+  *
+  * @param name The name of the vector followed by X, Y or Z
+  * @param value The value of the component
+  * @return false if there is no such parameter
+  */
+  protected boolean setComponent(String name, String value)
+  {
+    if (name.isEmpty())
+    {
+      return false;
+    }
+    String vector = name.substring(0, name.length() - 1);
+    char axis = name.charAt(name.length() - 1);
+    PhysicsVector target;
+    switch (vector)
+    {
+      case "fieldDivider":
+        target = fieldDivider;
+        break;
+      case "initialSpread":
+        target = initialSpread;
+        break;
+      case "electricDirection":
+        target = electricDirection;
+        break;
+      case "magneticDirection":
+        target = magneticDirection;
+        break;
+      case "velocityDirection":
+        target = velocityDirection;
+        break;
+      case "positionDirection":
+        target = positionDirection;
+        break;
+      default:
+        return false;
+    }
+    double x = target.getX(), y = target.getY(), z = target.getZ();
+    if (axis == 'X')
+    {
+      x = Double.parseDouble(value);
+    }
+    else if (axis == 'Y')
+    {
+      y = Double.parseDouble(value);
+    }
+    else if (axis == 'Z')
+    {
+      z = Double.parseDouble(value);
+    }
+    else
+    {
+      return false;
+    }
+    target.setVector(x, y, z);
+    return true;
+  }
+
+  /**
+  * Return the number of steps taken by the last run
+  *
+  * @return The number of steps
+  */
+  public long getSteps()
+  {
+    return steps;
+  }
+
+  /**
+  * Return the time reached by the last run
+  *
+  * @return The time
+  */
+  public double getTime()
+  {
+    return currentTime;
+  }
+
+  /**
+  * Return the number of particles lost by the last run
+  *
+  * @return The number of particles lost
+  */
+  public long getLost()
+  {
+    return lost;
+  }
+
+  /**
+  * Return the statistics of the bunch at the end of the last run
+  *
+  * @return The statistics
+  */
+  public BeamStatistics getStatistics()
+  {
+    return statistics;
+  }
+
+  /**
+  * Runs the simulation. At each instant of time each particle in the
+  * bunch is moved according to how much force it feels in the
+  * electromagnetic field, until the time taken for noOrbits orbits has
+  * elapsed. At each time step the time and the x and y positions are
+  * written to the output file as the z position is not expected to
+  * change.
+  *
+  * @return The statistics of the bunch at the end of the run
+  * @throws IOException if a file cannot be read or written
+  * @throws IllegalArgumentException if offHeap is combined with
+  * checkpoints, a restart, track recording or space charge
+  */
+  public BeamStatistics run() throws IOException
+  {
+    if (offHeap)
+    {
+      checkOffHeap();
+    }
+    PhysicsVector electricField = PhysicsVector.scale(electricMagnitude,
+    electricDirection);
+    PhysicsVector magneticField = PhysicsVector.scale(magneticMagnitude,
+    magneticDirection);
+    PhysicsVector initialVelocity = PhysicsVector.scale(initialSpeed,
+    velocityDirection);
+    PhysicsVector initialPosition = PhysicsVector.scale(positionMagnitude,
+    positionDirection);
+
+    // orbitTime calculates the time taken for an orbit by
+    // T = 2piM/|B|q, an analytic formulation. The total time of the
+    // simulation is determined by the time taken for these orbits to
+    // complete. This is not meant to be exact, just an order of
+    // magnitude estimate for simulation time.
+    double orbitTime = (2*Math.PI*particleMass)/
+    (magneticMagnitude*particleCharge);
+    double endTime = orbitTime*noOrbits;
+    currentTime = 0;
+
+    Checkpoint restart = null;
+    if (restartFile != null)
+    {
+      restart = Checkpoint.read(restartFile);
+    }
+    AsyncRecordWriter writer = null;
+    if (outputFile != null)
+    {
+      TrajectoryWriter trajectory = restart == null ?
+      new TrajectoryWriter(outputFile, 3) :
+      new TrajectoryWriter(outputFile, 3, restart.getRecords());
+      writer = new AsyncRecordWriter(trajectory, outputBuffer, outputPolicy,
+      outputDecimation);
+    }
+    double[] record = new double[3];
+    TrackRecorder tracks = null;
+    DynamicField field = new DynamicField(fieldDivider, electricField,
+    magneticField, percentageField);
+    FieldEvaluator beamField = field;
+    if (fieldMapFile != null)
+    {
+      beamField = FieldMap.load(fieldMapFile);
+    }
+    ParticleBunch bunch = offHeap ? ParticleBunch.offHeap(particleMass,
+    particleCharge, initialPosition, initialVelocity, noParticle,
+    Integrator.forChoice(algorithmChoice), offHeapFile)
+    : new ParticleBunch(particleMass, particleCharge, initialPosition,
+    initialVelocity, noParticle, algorithmChoice);
+    if (seed != 0)
+    {
+      bunch.setRandom(new Random(seed));
+    }
+
+    // The positions of the particles in the bunch are set randomly in
+    // accordance with the defined spread. Also the initial electric
+    // field value is saved and set to oscillate once per orbit.
+    bunch.randomisePositions(initialSpread);
+    field.initialiseElectric();
+    field.setPeriod(orbitTime);
+    ForkJoinPool pushPool = null;
+    if (noThreads > 1)
+    {
+      pushPool = new ForkJoinPool(noThreads);
+      bunch.setPool(pushPool);
+    }
+    if (spaceChargeChoice == 1)
+    {
+      bunch.setSpaceCharge(new BarnesHutSolver(0.5));
+    }
+    else if (spaceChargeChoice == 2)
+    {
+      bunch.setSpaceCharge(new PICSolver(32, 32, 32));
+    }
+    SimulationMetrics metrics = null;
+    if (SimulationMetrics.ENABLED)
+    {
+      metrics = new SimulationMetrics(metricsInterval);
+      bunch.setMetrics(metrics);
+    }
+    long step = 0;
+    if (restart != null)
+    {
+      restart.restore(bunch, field);
+      currentTime = restart.getTime();
+      step = restart.getStep();
+    }
+    long firstStep = step;
+    TrajectoryWriter losses = null;
+    if (apertureRadius > 0)
+    {
+      bunch.setAperture(new RadialAperture(apertureRadius,
+      deeHalfGap > 0 ? deeHalfGap : Double.POSITIVE_INFINITY,
+      new PhysicsVector()));
+      if (lossFile != null)
+      {
+        losses = restart == null ?
+        new TrajectoryWriter(lossFile, ParticleBunch.LOSS_WIDTH) :
+        new TrajectoryWriter(lossFile, ParticleBunch.LOSS_WIDTH,
+        restart.getLost());
+      }
+    }
+    if (recordTracks && trackFile != null)
+    {
+      tracks = new TrackRecorder(restart == null ? trackFile :
+      withStep(trackFile, step), noParticle, trackChunk);
+    }
+    TrajectoryWriter statisticsOut = null;
+    double[] statisticsRecord = new double[BeamStatistics.RECORD_WIDTH];
+    if (statisticsInterval > 0 && statisticsFile != null)
+    {
+      statisticsOut = restart == null ?
+      new TrajectoryWriter(statisticsFile, BeamStatistics.RECORD_WIDTH) :
+      new TrajectoryWriter(statisticsFile, BeamStatistics.RECORD_WIDTH,
+      (step + statisticsInterval - 1)/statisticsInterval);
+    }
+    CheckpointWriter checkpoints = null;
+    if (checkpointInterval > 0)
+    {
+      checkpoints = new CheckpointWriter(checkpointFile, checkpointInterval);
+    }
+
+    try
+    {
+      while (currentTime <= endTime)
+      {
+        if (writer != null)
+        {
+          bunch.calculateAverage();
+        }
+        long outputStart = metrics != null ? System.nanoTime() : 0;
+        if (checkpoints != null && step != firstStep
+        && checkpoints.isDue(step))
+        {
+          long records = 0;
+          if (writer != null)
+          {
+            writer.flush();
+            records = writer.getRecords();
+          }
+          checkpoints.save(step, currentTime, records, bunch, field);
+        }
+        if (writer != null)
+        {
+          PhysicsVector average = bunch.getAverage();
+          record[0] = currentTime;
+          record[1] = average.getX();
+          record[2] = average.getY();
+          writer.write(record);
+        }
+        if (tracks != null)
+        {
+          tracks.record(currentTime, bunch.getStore());
+        }
+        if (statisticsOut != null && step % statisticsInterval == 0)
+        {
+          bunch.calculateStatistics();
+          bunch.getStatistics().writeRecord(currentTime, statisticsRecord);
+          statisticsOut.write(statisticsRecord);
+        }
+        if (metrics != null)
+        {
+          metrics.record(SimulationMetrics.OUTPUT, outputStart,
+          bunch.getNumberParticles());
+        }
+        currentTime += timeStep;
+
+        bunch.updateBunch(timeStep, currentTime, beamField);
+        if (losses != null)
+        {
+          bunch.writeLosses(losses);
+        }
+        else
+        {
+          bunch.clearLosses();
+        }
+        step++;
+        if (metrics != null)
+        {
+          metrics.endStep(bunch.getNumberParticles());
+        }
+        if (bunch.getNumberParticles() == 0)
+        {
+          break;
+        }
+      }
+      if (metrics != null)
+      {
+        metrics.summarise();
+      }
+      steps = step;
+      lost = bunch.getLostCount();
+      bunch.calculateStatistics();
+      statistics = bunch.getStatistics();
+    }
+    finally
+    {
+      if (writer != null)
+      {
+        writer.close();
+      }
+      if (checkpoints != null)
+      {
+        checkpoints.close();
+      }
+      if (tracks != null)
+      {
+        tracks.close();
+      }
+      if (losses != null)
+      {
+        losses.close();
+      }
+      if (statisticsOut != null)
+      {
+        statisticsOut.close();
+      }
+      if (pushPool != null)
+      {
+        pushPool.shutdown();
+      }
+      if (bunch instanceof Closeable)
+      {
+        ((Closeable) bunch).close();
+      }
+    }
+    return statistics;
+  }
+}
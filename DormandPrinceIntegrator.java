@@ -0,0 +1,230 @@
+/**
+ * Integrator which implements the adaptive Dormand Prince algorithm,
+ * an embedded Runge Kutta method of fifth order with a fourth order
+ * error estimate. Each time interval is divided into substeps whose
+ * size is chosen separately for every particle, so that the estimated
+ * error stays within the tolerance. Large substeps are taken where the
+ * field is smooth and small ones where it changes quickly, such as at
+ * the divider of a DynamicField.
+ *
+ * The last substep size of each particle is kept in the particle
+ * store and used as the first guess in the next interval.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.2
+ */
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class DormandPrinceIntegrator implements Integrator{
+
+  /**
+  * DEFAULT_TOLERANCE is the tolerance used by Integrator.forChoice.
+  * The remaining constants are the Dormand Prince coefficients, C the
+  * fraction of the substep at which each stage is evaluated, A the
+  * weights of the earlier stages in each stage, B the fifth order
+  * solution and E the difference between the fifth and fourth order
+  * solutions.
+  */
+  public static final double DEFAULT_TOLERANCE = 1e-8;
+  protected static final double[] C = {0, 1.0/5, 3.0/10, 4.0/5, 8.0/9, 1,
+  1};
+  protected static final double[][] A = {
+    {},
+    {1.0/5},
+    {3.0/40, 9.0/40},
+    {44.0/45, -56.0/15, 32.0/9},
+    {19372.0/6561, -25360.0/2187, 64448.0/6561, -212.0/729},
+    {9017.0/3168, -355.0/33, 46732.0/5247, 49.0/176, -5103.0/18656},
+    {35.0/384, 0, 500.0/1113, 125.0/192, -2187.0/6784, 11.0/84}};
+  protected static final double[] E = {71.0/57600, 0, -71.0/16695,
+  71.0/1920, -17253.0/339200, 22.0/525, -1.0/40};
+
+  /**
+  * relativeTolerance and absoluteTolerance bound the error of each
+  * component of position and velocity in a substep by
+  * absoluteTolerance + relativeTolerance*|value|. maxSubSteps limits
+  * the number of substeps, accepted or not, tried for one particle in
+  * one interval.
+  * evaluations counts the field evaluations made.
+  */
+  protected double relativeTolerance, absoluteTolerance;
+  protected int maxSubSteps = 100000;
+  protected LongAdder evaluations = new LongAdder();
+
+  /**
+  * Constructor that uses the same value for the relative and the
+  * absolute tolerance.
+  *
+  * @param toleranceIn user determined tolerance
+  */
+  public DormandPrinceIntegrator(double toleranceIn)
+  {
+    this(toleranceIn, toleranceIn);
+  }
+
+  /**
+  * Constructor that sets the relative and absolute tolerances.
+  *
+  * @param relativeIn user determined relative tolerance
+  * @param absoluteIn user determined absolute tolerance
+  */
+  public DormandPrinceIntegrator(double relativeIn, double absoluteIn)
+  {
+    relativeTolerance = relativeIn;
+    absoluteTolerance = absoluteIn;
+  }
+
+  /**
+  * Return the number of field evaluations made so far
+  *
+  * @return The number of field evaluations
+  */
+  public long getEvaluations()
+  {
+    return evaluations.sum();
+  }
+
+  /**
+  * Moves a range of particles over one time interval, dividing it
+  * into substeps that keep the error of each within the tolerance.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param timeIn The time at the start of the interval
+  * @param fieldIn The electromagnetic field
+  * @param kernelIn Not used, as the substeps differ between particles
+  * @throws ArithmeticException if a particle cannot reach the end of
+  * the interval within maxSubSteps substeps, or its substep becomes
+  * too small to advance the time
+  */
+  public void push(ParticleStore storeIn, int start, int end,
+  double deltaTime, double timeIn, FieldEvaluator fieldIn,
+  PushKernel kernelIn)
+  {
+    double[] state = new double[6];
+    double[] trial = new double[6];
+    double[] buffer = new double[6];
+    double[][] stages = new double[7][6];
+    long count = 0;
+
+    for (int i = start; i < end; i++)
+    {
+      double chargeOverMass = storeIn.charge[i]/storeIn.mass[i];
+      state[0] = storeIn.x[i];
+      state[1] = storeIn.y[i];
+      state[2] = storeIn.z[i];
+      state[3] = storeIn.vx[i];
+      state[4] = storeIn.vy[i];
+      state[5] = storeIn.vz[i];
+
+      double time = timeIn;
+      double endTime = timeIn + deltaTime;
+      double step = storeIn.stepSize[i];
+      if (step <= 0 || step > deltaTime)
+      {
+        step = deltaTime;
+      }
+      derivative(fieldIn, i, time, state, chargeOverMass, stages[0],
+      buffer);
+      count++;
+
+      int subSteps = 0;
+      while (time < endTime)
+      {
+        double remaining = endTime - time;
+        boolean last = step >= remaining;
+        double h = last ? remaining : step;
+        if (subSteps == maxSubSteps || time + h == time)
+        {
+          throw new ArithmeticException("Dormand Prince integration of " +
+          "particle " + (long) storeIn.id[i] + " stopped at time " + time +
+          " of " + endTime + " after " + subSteps + " substeps");
+        }
+        subSteps++;
+
+        for (int s = 1; s < 7; s++)
+        {
+          for (int j = 0; j < 6; j++)
+          {
+            double sum = 0;
+            for (int k = 0; k < s; k++)
+            {
+              sum += A[s][k]*stages[k][j];
+            }
+            trial[j] = state[j] + h*sum;
+          }
+          derivative(fieldIn, i, time + C[s]*h, trial, chargeOverMass,
+          stages[s], buffer);
+        }
+        count += 6;
+
+        double error = 0;
+        for (int j = 0; j < 6; j++)
+        {
+          double sum = 0;
+          for (int k = 0; k < 7; k++)
+          {
+            sum += E[k]*stages[k][j];
+          }
+          double scale = absoluteTolerance + relativeTolerance
+          *Math.max(Math.abs(state[j]), Math.abs(trial[j]));
+          error = Math.max(error, Math.abs(h*sum)/scale);
+        }
+
+        double factor = error == 0 ? 5
+        : Math.min(5, Math.max(0.2, 0.9*Math.pow(error, -0.2)));
+        if (error <= 1)
+        {
+          time = last ? endTime : time + h;
+          System.arraycopy(trial, 0, state, 0, 6);
+          double[] first = stages[0];
+          stages[0] = stages[6];
+          stages[6] = first;
+          if (!last || factor < 1)
+          {
+            step = h*factor;
+          }
+        }
+        else
+        {
+          step = h*factor;
+        }
+      }
+
+      storeIn.stepSize[i] = step;
+      storeIn.setPosition(i, state[0], state[1], state[2]);
+      storeIn.setVelocity(i, state[3], state[4], state[5]);
+      storeIn.setAcceleration(i, stages[0][3], stages[0][4], stages[0][5]);
+    }
+    evaluations.add(count);
+  }
+
+  /**
+  * Calculates the rate of change of position and velocity, which are
+  * the velocity and the Lorentz acceleration.
+  *
+  * @param fieldIn The electromagnetic field
+  * @param index The index in the store of the particle
+  * @param timeIn The time
+  * @param stateIn The position followed by the velocity
+  * @param chargeOverMass The charge to mass ratio q/m
+  * @param rateOut The velocity followed by the acceleration
+  * @param buffer Working space of six values
+  */
+  protected void derivative(FieldEvaluator fieldIn, int index,
+  double timeIn, double[] stateIn, double chargeOverMass, double[] rateOut,
+  double[] buffer)
+  {
+    fieldIn.accelerationAt(index, stateIn[0], stateIn[1], stateIn[2],
+    stateIn[3], stateIn[4], stateIn[5], timeIn, chargeOverMass, buffer);
+    rateOut[0] = stateIn[3];
+    rateOut[1] = stateIn[4];
+    rateOut[2] = stateIn[5];
+    rateOut[3] = buffer[0];
+    rateOut[4] = buffer[1];
+    rateOut[5] = buffer[2];
+  }
+}
@@ -7,10 +7,19 @@
  * It also has the property of having a electric field which
  * oscillates in time.
  *
+ * fieldAt evaluates both effects from the saved fields, position and
+ * time without changing the object, so one DynamicField can be shared
+ * between threads. The electric field may instead follow an RF
+ * waveform, and either way atTime works its time dependence out once
+ * per step for every particle. reduceX and oscillatingElectric instead
+ * overwrite the current fields and should only be used from a single
+ * thread.
+ *
  * @author Tehmoor Hussain
- * @version 1.5
+ * @version 1.10
  */
 
+import java.io.*;
 import java.lang.Math;
 
 public class DynamicField extends EMField{
@@ -21,10 +30,14 @@ public class DynamicField extends EMField{
   * determines the x, y and z positions at which there is a magnetic
   * field change. savedMagnetic and savedElectric save the magnetic
   * and electric fields so that continuous multiplication does not
-  * occur during the loop.
+  * occur during the loop. period is the time taken for one
+  * oscillation of the electric field used by fieldAt, when it is zero
+  * the electric field does not oscillate. waveform, when set, replaces
+  * the sine of the given period.
   */
-  protected double fieldReduction;
+  protected double fieldReduction, period;
   protected PhysicsVector divider, savedMagnetic, savedElectric;
+  protected RFWaveform waveform;
 
   /**
   * Default constructor. Sets data members to zero.
@@ -55,6 +68,9 @@ public class DynamicField extends EMField{
     super(electricIn, magneticIn);
     fieldReduction = reductionIn;
     divider = new PhysicsVector(dividerIn);
+    savedMagnetic = new PhysicsVector(magneticIn);
+    savedElectric = new PhysicsVector(electricIn);
+    period = 0;
   }
 
   /**
@@ -77,6 +93,48 @@ public class DynamicField extends EMField{
     divider = new PhysicsVector(dividerIn);
 	}
 
+  /**
+  * Return the period of the oscillating electric field
+  *
+  * @return The period, zero when the field does not oscillate
+  */
+  public double getPeriod()
+  {
+    return period;
+  }
+
+  /**
+  * Set the period of the oscillating electric field used by fieldAt
+  *
+  * @param periodIn The period, zero for a constant electric field
+  */
+  public void setPeriod(double periodIn)
+  {
+    period = periodIn;
+  }
+
+  /**
+  * Return the waveform of the electric field
+  *
+  * @return The waveform, null when the period is used
+  */
+  public RFWaveform getWaveform()
+  {
+    return waveform;
+  }
+
+  /**
+  * Set a waveform for the electric field used by fieldAt, with any
+  * harmonics, frequency ramp and envelope, in place of the sine of
+  * the period.
+  *
+  * @param waveformIn The waveform, null to use the period
+  */
+  public void setWaveform(RFWaveform waveformIn)
+  {
+    waveform = waveformIn;
+  }
+
   /**
   * Saves the initial value of magnetic field for later use.
   */
@@ -93,15 +151,11 @@ public class DynamicField extends EMField{
   */
   public void reduceX(PhysicsVector positionIn)
   {
-    magnetic = new PhysicsVector(savedMagnetic);
+    magnetic.setVector(savedMagnetic);
     if (positionIn.getX() > divider.getX())
     {
       magnetic.scale(fieldReduction);
     }
-    if (positionIn.getX() < divider.getX())
-    {
-      magnetic = new PhysicsVector(savedMagnetic);
-    }
   }
 
   /**
@@ -123,8 +177,183 @@ public class DynamicField extends EMField{
   */
   public void oscillatingElectric(double timeIn, double periodIn)
   {
-    electric = new PhysicsVector(savedElectric);
+    electric.setVector(savedElectric);
     electric.scale(Math.sin(2*Math.PI*timeIn/periodIn));
   }
 
+  /**
+  * Return whether the field is the same at every position, which is
+  * the case when the magnetic field is not reduced past the divider.
+  *
+  * @return true if the field does not depend on position
+  */
+  public boolean isUniform()
+  {
+    return fieldReduction == 1;
+  }
+
+  /**
+  * Evaluates the field at a position and time from the saved fields.
+  * Where x is above the divider the magnetic field is reduced. If a
+  * waveform has been set the electric field follows it, otherwise if a
+  * period has been set it oscillates as E = |E|Sin(2pi t/period).
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param timeIn The current time
+  * @param fieldsOut Buffer of at least six values for the result
+  */
+  public void fieldAt(double x, double y, double z, double timeIn,
+  double[] fieldsOut)
+  {
+    fieldWith(x, oscillation(timeIn), fieldsOut);
+  }
+
+  /**
+  * Return the field for one step, with the oscillation of the
+  * electric field worked out once at the time of the step.
+  *
+  * @param timeIn The time of the step
+  * @return The field for the step
+  */
+  public FieldEvaluator atTime(double timeIn)
+  {
+    return new Step(this, timeIn, oscillation(timeIn));
+  }
+
+  /**
+  * Return the factor multiplying the saved electric field at a time.
+  *
+  * @param timeIn The time
+  * @return The oscillation, one if the field does not oscillate
+  */
+  protected double oscillation(double timeIn)
+  {
+    if (waveform != null)
+    {
+      return waveform.valueAt(timeIn);
+    }
+    if (period != 0)
+    {
+      return Math.sin(2*Math.PI*timeIn/period);
+    }
+    return 1;
+  }
+
+  /**
+  * Evaluates the field at an x position for a given oscillation of
+  * the electric field.
+  *
+  * @param x The x position
+  * @param oscillation The factor multiplying the saved electric field
+  * @param fieldsOut Buffer of at least six values for the result
+  */
+  protected void fieldWith(double x, double oscillation, double[] fieldsOut)
+  {
+    double reduction = 1;
+    if (x > divider.getX())
+    {
+      reduction = fieldReduction;
+    }
+    fieldsOut[0] = savedElectric.getX()*oscillation;
+    fieldsOut[1] = savedElectric.getY()*oscillation;
+    fieldsOut[2] = savedElectric.getZ()*oscillation;
+    fieldsOut[3] = savedMagnetic.getX()*reduction;
+    fieldsOut[4] = savedMagnetic.getY()*reduction;
+    fieldsOut[5] = savedMagnetic.getZ()*reduction;
+  }
+
+  /**
+  * Writes the state of the field for a checkpoint: the current and
+  * saved fields, the divider, the field reduction and the period. The
+  * phase of the oscillation follows from the time, which the checkpoint
+  * holds, and a waveform is set up again rather than saved.
+  *
+  * @param out The stream to write to
+  * @throws IOException if the stream cannot be written
+  */
+  public void writeState(DataOutput out) throws IOException
+  {
+    super.writeState(out);
+    writeVector(out, savedElectric);
+    writeVector(out, savedMagnetic);
+    writeVector(out, divider);
+    out.writeDouble(fieldReduction);
+    out.writeDouble(period);
+  }
+
+  /**
+  * Reads back the state written by writeState.
+  *
+  * @param in The stream to read from
+  * @throws IOException if the stream cannot be read
+  */
+  public void readState(DataInput in) throws IOException
+  {
+    super.readState(in);
+    savedElectric = readVector(in);
+    savedMagnetic = readVector(in);
+    divider = readVector(in);
+    fieldReduction = in.readDouble();
+    period = in.readDouble();
+  }
+
+  /**
+  * Class which holds a field at the time of one step together with
+  * the oscillation of its electric field then.
+  */
+  protected static class Step implements FieldEvaluator{
+
+    protected DynamicField field;
+    protected double time, oscillation;
+
+    /**
+    * Constructor that sets the field, the time and the oscillation.
+    *
+    * @param fieldIn The field
+    * @param timeIn The time of the step
+    * @param oscillationIn The oscillation at that time
+    */
+    protected Step(DynamicField fieldIn, double timeIn,
+    double oscillationIn)
+    {
+      field = fieldIn;
+      time = timeIn;
+      oscillation = oscillationIn;
+    }
+
+    /**
+    * Evaluates the field at a position and time, reusing the
+    * oscillation at the time of the step.
+    *
+    * @param x The x position
+    * @param y The y position
+    * @param z The z position
+    * @param timeIn The current time
+    * @param fieldsOut Buffer of at least six values for the result
+    */
+    public void fieldAt(double x, double y, double z, double timeIn,
+    double[] fieldsOut)
+    {
+      if (timeIn == time)
+      {
+        field.fieldWith(x, oscillation, fieldsOut);
+      }
+      else
+      {
+        field.fieldAt(x, y, z, timeIn, fieldsOut);
+      }
+    }
+
+    /**
+    * Return whether the field is the same at every position.
+    *
+    * @return true if the field does not depend on position
+    */
+    public boolean isUniform()
+    {
+      return field.isUniform();
+    }
+  }
 }
@@ -2,12 +2,16 @@
  * Class represents an electromagnetic field. There is a constant
  * electric and magnetic field which comprise it. It also has
  * the ability of calculate the acceleration of particles
- * within it.
+ * within it. As a FieldEvaluator it can also be evaluated without
+ * writing to any of its members, for use from many threads.
  *
  * @author Tehmoor Hussain
- * @version 1.2
+ * @version 1.6
  */
-public class EMField{
+
+import java.io.*;
+
+public class EMField implements FieldEvaluator{
 
   /**
   Define the vectors which comprise the electromagnetic field,
@@ -23,6 +27,7 @@ public class EMField{
   {
     electric = new PhysicsVector();
     magnetic = new PhysicsVector();
+    acceleration = new PhysicsVector();
   }
 
  	/**
@@ -36,6 +41,7 @@ public class EMField{
   {
     electric = new PhysicsVector(electricIn);
     magnetic = new PhysicsVector(magneticIn);
+    acceleration = new PhysicsVector();
   }
 
   /**
@@ -98,18 +104,102 @@ public class EMField{
     return new PhysicsVector(acceleration);
   }
 
+  /**
+  * Writes the electric field strength and magnetic flux density into
+  * a buffer. The field is the same at every position and time.
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param timeIn The current time
+  * @param fieldsOut Buffer of at least six values for the result
+  */
+  public void fieldAt(double x, double y, double z, double timeIn,
+  double[] fieldsOut)
+  {
+    fieldsOut[0] = electric.getX();
+    fieldsOut[1] = electric.getY();
+    fieldsOut[2] = electric.getZ();
+    fieldsOut[3] = magnetic.getX();
+    fieldsOut[4] = magnetic.getY();
+    fieldsOut[5] = magnetic.getZ();
+  }
+
+  /**
+  * Return whether the field is the same at every position, which is
+  * always the case for a constant field.
+  *
+  * @return true
+  */
+  public boolean isUniform()
+  {
+    return true;
+  }
+
   /**
   * Calculates the acceleration experienced by a charged particle
   * according to the Lorentz force law (non-relativistic):
   * a = (q/m)*(E + vxB)
   *
-  * @param theParticle - the charged particle moving in the field
+  * @param particleIn the charged particle moving in the field
   */
   public void calculateAcceleration(ChargedParticle particleIn)
   {
-    acceleration = new PhysicsVector(electric);
-    acceleration.increaseBy(PhysicsVector.cross(particleIn.getVelocity(),
-    magnetic));
-    acceleration.scale(particleIn.getCharge()/particleIn.getMass());
+    PhysicsVector.lorentz(particleIn.getCharge()/particleIn.getMass(),
+    electric, particleIn.velocity, magnetic, acceleration);
+  }
+
+  /**
+  * Writes the state of the field, its electric and magnetic fields, for
+  * a checkpoint.
+  *
+  * @param out The stream to write to
+  * @throws IOException if the stream cannot be written
+  */
+  public void writeState(DataOutput out) throws IOException
+  {
+    writeVector(out, electric);
+    writeVector(out, magnetic);
+  }
+
+  /**
+  * Reads back the state written by writeState.
+  *
+  * @param in The stream to read from
+  * @throws IOException if the stream cannot be read
+  */
+  public void readState(DataInput in) throws IOException
+  {
+    electric = readVector(in);
+    magnetic = readVector(in);
+  }
+
+  /**
+  * Writes the components of a vector.
+  *
+  * @param out The stream to write to
+  * @param vectorIn The vector
+  * @throws IOException if the stream cannot be written
+  */
+  protected static void writeVector(DataOutput out, PhysicsVector vectorIn)
+  throws IOException
+  {
+    out.writeDouble(vectorIn.getX());
+    out.writeDouble(vectorIn.getY());
+    out.writeDouble(vectorIn.getZ());
+  }
+
+  /**
+  * Reads the components of a vector.
+  *
+  * @param in The stream to read from
+  * @return The vector
+  * @throws IOException if the stream cannot be read
+  */
+  protected static PhysicsVector readVector(DataInput in) throws IOException
+  {
+    double x = in.readDouble();
+    double y = in.readDouble();
+    return new PhysicsVector(x, y, in.readDouble());
   }
 }
@@ -0,0 +1,43 @@
+/**
+ * Integrator which implements the Euler Cromer algorithm:
+ * v_(n+1) = v_(n) + a_(n)*t
+ * r_(n+1) = r_(n) + v_(n+1)*t
+ *
+ * @author Tehmoor Hussain
+ * @version 1.1
+ */
+public class EulerCromerIntegrator implements Integrator{
+
+  /**
+  * Moves a range of particles with the Euler Cromer algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param timeIn The time at the start of the interval
+  * @param fieldIn The electromagnetic field
+  * @param kernelIn The kernel for pushing through a uniform field
+  */
+  public void push(ParticleStore storeIn, int start, int end,
+  double deltaTime, double timeIn, FieldEvaluator fieldIn,
+  PushKernel kernelIn)
+  {
+    double[] acceleration = new double[6];
+    if (fieldIn.isUniform())
+    {
+      fieldIn.fieldAt(0, 0, 0, timeIn, acceleration);
+      kernelIn.eulerCromer(storeIn, start, end, deltaTime, acceleration);
+      return;
+    }
+    for (int i = start; i < end; i++)
+    {
+      fieldIn.accelerationAt(i, storeIn.x[i], storeIn.y[i], storeIn.z[i],
+      storeIn.vx[i], storeIn.vy[i], storeIn.vz[i], timeIn,
+      storeIn.charge[i]/storeIn.mass[i], acceleration);
+      storeIn.setAcceleration(i, acceleration[0], acceleration[1],
+      acceleration[2]);
+      storeIn.eulerCromer(i, deltaTime);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * Interface for an electromagnetic field which can be evaluated at any
+ * position and time without changing its own state. Results are
+ * written into a buffer supplied by the caller, so one field object
+ * can be shared between many threads with no locking and no copies.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.2
+ */
+public interface FieldEvaluator{
+
+  /**
+  * Evaluates the field at a position and time. The electric field
+  * strength is written to fieldsOut[0], [1] and [2] and the magnetic
+  * flux density to fieldsOut[3], [4] and [5].
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param timeIn The current time
+  * @param fieldsOut Buffer of at least six values for the result
+  */
+  void fieldAt(double x, double y, double z, double timeIn,
+  double[] fieldsOut);
+
+  /**
+  * Evaluates the field felt by one particle of the bunch being pushed,
+  * given by its index in the store. The space charge field of a bunch
+  * leaves out the particle's own charge, which would otherwise act on
+  * it wherever it is evaluated away from that charge, as at the
+  * substeps of an adaptive integrator. Other fields are the same for
+  * every particle.
+  *
+  * @param index The index in the store of the particle
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param timeIn The current time
+  * @param fieldsOut Buffer of at least six values for the result
+  */
+  default void fieldAt(int index, double x, double y, double z,
+  double timeIn, double[] fieldsOut)
+  {
+    fieldAt(x, y, z, timeIn, fieldsOut);
+  }
+
+  /**
+  * Return whether the field is the same at every position. A uniform
+  * field may still vary in time, and lets a whole bunch be pushed
+  * with a single evaluation per step.
+  *
+  * @return true if the field does not depend on position
+  */
+  default boolean isUniform()
+  {
+    return false;
+  }
+
+  /**
+  * Return the field for one step at a given time, with any factor
+  * that depends only on the time worked out once for the whole bunch.
+  * The step drivers call it once per step and push every particle
+  * through the result, which is evaluated at any other time, such as
+  * an adaptive substep, as the field itself. A field with no such
+  * factor returns itself.
+  *
+  * @param timeIn The time of the step
+  * @return The field for the step
+  */
+  default FieldEvaluator atTime(double timeIn)
+  {
+    return this;
+  }
+
+  /**
+  * Calculates the acceleration experienced by a charged particle
+  * according to the Lorentz force law (non-relativistic):
+  * a = (q/m)*(E + vxB). The acceleration is written to
+  * accelerationOut[0], [1] and [2], the remaining entries are used
+  * as working space.
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param vx The x velocity
+  * @param vy The y velocity
+  * @param vz The z velocity
+  * @param timeIn The current time
+  * @param chargeOverMass The charge to mass ratio q/m
+  * @param accelerationOut Buffer of at least six values for the result
+  */
+  default void accelerationAt(double x, double y, double z, double vx,
+  double vy, double vz, double timeIn, double chargeOverMass,
+  double[] accelerationOut)
+  {
+    fieldAt(x, y, z, timeIn, accelerationOut);
+    lorentz(vx, vy, vz, chargeOverMass, accelerationOut);
+  }
+
+  /**
+  * Calculates the acceleration experienced by one particle of the bunch
+  * being pushed, given by its index in the store, as for fieldAt with
+  * an index. The acceleration is written to accelerationOut[0], [1]
+  * and [2], the remaining entries are used as working space.
+  *
+  * @param index The index in the store of the particle
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param vx The x velocity
+  * @param vy The y velocity
+  * @param vz The z velocity
+  * @param timeIn The current time
+  * @param chargeOverMass The charge to mass ratio q/m
+  * @param accelerationOut Buffer of at least six values for the result
+  */
+  default void accelerationAt(int index, double x, double y, double z,
+  double vx, double vy, double vz, double timeIn, double chargeOverMass,
+  double[] accelerationOut)
+  {
+    accelerationAt(x, y, z, vx, vy, vz, timeIn, chargeOverMass,
+    accelerationOut);
+  }
+
+  /**
+  * Turns the electric field strength and magnetic flux density in a
+  * buffer into the Lorentz acceleration a = (q/m)*(E + vxB), written to
+  * fieldsInOut[0], [1] and [2].
+  *
+  * @param vx The x velocity
+  * @param vy The y velocity
+  * @param vz The z velocity
+  * @param chargeOverMass The charge to mass ratio q/m
+  * @param fieldsInOut Buffer holding the field, then the acceleration
+  */
+  static void lorentz(double vx, double vy, double vz, double chargeOverMass,
+  double[] fieldsInOut)
+  {
+    double ax = (fieldsInOut[0] + (vy*fieldsInOut[5]
+    - vz*fieldsInOut[4]))*chargeOverMass;
+    double ay = (fieldsInOut[1] + (vz*fieldsInOut[3]
+    - vx*fieldsInOut[5]))*chargeOverMass;
+    double az = (fieldsInOut[2] + (vx*fieldsInOut[4]
+    - vy*fieldsInOut[3]))*chargeOverMass;
+    fieldsInOut[0] = ax;
+    fieldsInOut[1] = ay;
+    fieldsInOut[2] = az;
+  }
+}
@@ -0,0 +1,554 @@
+/**
+ * Class represents an electromagnetic field given by samples on a
+ * regular three dimensional grid, such as a measured or simulated map
+ * of a real magnet. Between the grid nodes the field is interpolated,
+ * trilinearly by default or with Catmull-Rom cubics if asked. Outside
+ * the grid the field is zero, except along an axis with a single node,
+ * along which the field does not change, so a two dimensional map can
+ * be given as a grid one node thick.
+ *
+ * The six values Ex, Ey, Ez, Bx, By and Bz of each node are kept
+ * together, with x varying fastest, then y, then z. They are held in
+ * segments of SEGMENT_NODES nodes, each either a primitive array or a
+ * read only memory mapped region of a map file, so maps larger than
+ * one array can be used and a map file is shared through the page
+ * cache by every run that loads it. Evaluating the field does not
+ * allocate or change the map.
+ *
+ * A map file starts with an 80 byte header: the magic number, the
+ * format version and the number of nodes along x, y and z as ints, four
+ * bytes of padding, then the origin and spacing of the grid in x, y and
+ * z as doubles and eight reserved bytes. The nodes follow as little
+ * endian doubles.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+public class FieldMap extends EMField{
+
+  /**
+  * MAGIC identifies a map file, VERSION its layout and HEADER_SIZE is
+  * the length of the header in bytes. VALUES is the number of doubles
+  * per node. Segments hold 1 << SEGMENT_SHIFT nodes.
+  */
+  public static final int MAGIC = 0x464d4150;
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 80;
+  public static final int VALUES = 6;
+  protected static final int SEGMENT_SHIFT = 22;
+  protected static final long SEGMENT_NODES = 1L << SEGMENT_SHIFT;
+
+  /**
+  * nx, ny and nz are the number of nodes along each axis. originX,
+  * originY and originZ are the position of the first node and
+  * spacingX, spacingY and spacingZ the distance between nodes, and
+  * inverseX, inverseY and inverseZ its reciprocal.
+  * segments holds the node values and cubic selects Catmull-Rom
+  * interpolation. fields is working space for calculateAcceleration.
+  */
+  protected int nx, ny, nz;
+  protected double originX, originY, originZ;
+  protected double spacingX, spacingY, spacingZ;
+  protected double inverseX, inverseY, inverseZ;
+  protected DoubleBuffer[] segments;
+  protected boolean cubic;
+  protected double[] fields = new double[VALUES];
+
+  /**
+  * Constructor that creates a map with every node set to zero, to be
+  * filled in with setNode.
+  *
+  * @param originIn user determined position of the first node
+  * @param spacingIn user determined distance between nodes
+  * @param nxIn user determined number of nodes along x
+  * @param nyIn user determined number of nodes along y
+  * @param nzIn user determined number of nodes along z
+  */
+  public FieldMap(PhysicsVector originIn, PhysicsVector spacingIn, int nxIn,
+  int nyIn, int nzIn)
+  {
+    super();
+    setGrid(originIn.getX(), originIn.getY(), originIn.getZ(),
+    spacingIn.getX(), spacingIn.getY(), spacingIn.getZ(), nxIn, nyIn, nzIn);
+    long nodes = (long) nx*ny*nz;
+    segments = new DoubleBuffer[(int) ((nodes + SEGMENT_NODES - 1)
+    >>> SEGMENT_SHIFT)];
+    for (int s = 0; s < segments.length; s++)
+    {
+      long count = Math.min(SEGMENT_NODES, nodes - (s*SEGMENT_NODES));
+      segments[s] = DoubleBuffer.wrap(new double[(int) count*VALUES]);
+    }
+  }
+
+  /**
+  * Constructor used by load, for a map whose nodes are already held.
+  */
+  protected FieldMap()
+  {
+    super();
+  }
+
+  /**
+  * Memory maps a map file. The file is read only when the field is
+  * evaluated, and only the parts that are used.
+  *
+  * @param fileName The map file
+  * @return The field map
+  * @throws IOException if the file cannot be read or is not a map file
+  */
+  public static FieldMap load(String fileName) throws IOException
+  {
+    FileChannel channel = FileChannel.open(Paths.get(fileName),
+    StandardOpenOption.READ);
+    try
+    {
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+      HEADER_SIZE);
+      header.order(ByteOrder.LITTLE_ENDIAN);
+      if (header.getInt(0) != MAGIC)
+      {
+        throw new IOException(fileName + " is not a field map");
+      }
+      if (header.getInt(4) != VERSION)
+      {
+        throw new IOException(fileName + " has unsupported version " +
+        header.getInt(4));
+      }
+      FieldMap map = new FieldMap();
+      map.setGrid(header.getDouble(24), header.getDouble(32),
+      header.getDouble(40), header.getDouble(48), header.getDouble(56),
+      header.getDouble(64), header.getInt(8), header.getInt(12),
+      header.getInt(16));
+      long nodes = (long) map.nx*map.ny*map.nz;
+      if (channel.size() < HEADER_SIZE + nodes*VALUES*8)
+      {
+        throw new IOException(fileName + " is truncated");
+      }
+      map.segments = new DoubleBuffer[(int) ((nodes + SEGMENT_NODES - 1)
+      >>> SEGMENT_SHIFT)];
+      for (int s = 0; s < map.segments.length; s++)
+      {
+        long count = Math.min(SEGMENT_NODES, nodes - (s*SEGMENT_NODES));
+        ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+        HEADER_SIZE + s*SEGMENT_NODES*VALUES*8, count*VALUES*8);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        map.segments[s] = region.asDoubleBuffer();
+      }
+      return map;
+    }
+    finally
+    {
+      channel.close();
+    }
+  }
+
+  /**
+  * Writes the map to a map file, which can be loaded with load.
+  *
+  * @param fileName user determined file name
+  * @throws IOException if the file cannot be written
+  */
+  public void save(String fileName) throws IOException
+  {
+    FileChannel channel = FileChannel.open(Paths.get(fileName),
+    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+    StandardOpenOption.WRITE);
+    try
+    {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC).putInt(VERSION).putInt(nx).putInt(ny).putInt(nz)
+      .putInt(0);
+      buffer.putDouble(originX).putDouble(originY).putDouble(originZ);
+      buffer.putDouble(spacingX).putDouble(spacingY).putDouble(spacingZ);
+      buffer.putDouble(0);
+      for (DoubleBuffer segment : segments)
+      {
+        for (int i = 0; i < segment.limit(); i++)
+        {
+          if (buffer.remaining() < 8)
+          {
+            writeAll(channel, buffer);
+          }
+          buffer.putDouble(segment.get(i));
+        }
+      }
+      writeAll(channel, buffer);
+    }
+    finally
+    {
+      channel.close();
+    }
+  }
+
+  /**
+  * Return the position of the first node
+  *
+  * @return The origin of the grid
+  */
+  public PhysicsVector getOrigin()
+  {
+    return new PhysicsVector(originX, originY, originZ);
+  }
+
+  /**
+  * Return the distance between nodes along each axis
+  *
+  * @return The spacing of the grid
+  */
+  public PhysicsVector getSpacing()
+  {
+    return new PhysicsVector(spacingX, spacingY, spacingZ);
+  }
+
+  /**
+  * Return the number of nodes along an axis
+  *
+  * @param axis 0 for x, 1 for y and 2 for z
+  * @return The number of nodes
+  */
+  public int getNodes(int axis)
+  {
+    return axis == 0 ? nx : axis == 1 ? ny : nz;
+  }
+
+  /**
+  * Return whether cubic interpolation is used
+  *
+  * @return true for Catmull-Rom cubics, false for trilinear
+  */
+  public boolean isCubic()
+  {
+    return cubic;
+  }
+
+  /**
+  * Set whether cubic interpolation is used. Cubics follow a smoothly
+  * varying field more closely than trilinear interpolation and have a
+  * continuous gradient, but read 64 nodes rather than 8. The cells at
+  * the edges of the grid are still interpolated linearly.
+  *
+  * @param cubicIn true for Catmull-Rom cubics, false for trilinear
+  */
+  public void setCubic(boolean cubicIn)
+  {
+    cubic = cubicIn;
+  }
+
+  /**
+  * Set the electric field strength and magnetic flux density at a node
+  *
+  * @param i The node number along x
+  * @param j The node number along y
+  * @param k The node number along z
+  * @param electricIn The electric field strength
+  * @param magneticIn The magnetic flux density
+  */
+  public void setNode(int i, int j, int k, PhysicsVector electricIn,
+  PhysicsVector magneticIn)
+  {
+    long node = ((long) k*ny + j)*nx + i;
+    DoubleBuffer segment = segments[(int) (node >>> SEGMENT_SHIFT)];
+    int offset = (int) (node & (SEGMENT_NODES - 1))*VALUES;
+    segment.put(offset, electricIn.getX());
+    segment.put(offset + 1, electricIn.getY());
+    segment.put(offset + 2, electricIn.getZ());
+    segment.put(offset + 3, magneticIn.getX());
+    segment.put(offset + 4, magneticIn.getY());
+    segment.put(offset + 5, magneticIn.getZ());
+  }
+
+  /**
+  * Return whether the field is the same at every position, which it
+  * is not for a map.
+  *
+  * @return false
+  */
+  public boolean isUniform()
+  {
+    return false;
+  }
+
+  /**
+  * Interpolates the electric field strength and magnetic flux density
+  * at a position from the nodes around it. The map does not change in
+  * time.
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param timeIn The current time
+  * @param fieldsOut Buffer of at least six values for the result
+  */
+  public void fieldAt(double x, double y, double z, double timeIn,
+  double[] fieldsOut)
+  {
+    for (int v = 0; v < VALUES; v++)
+    {
+      fieldsOut[v] = 0;
+    }
+    double u = (x - originX)*inverseX;
+    double w = (y - originY)*inverseY;
+    double h = (z - originZ)*inverseZ;
+    if (outside(u, nx) || outside(w, ny) || outside(h, nz))
+    {
+      return;
+    }
+    int i = cell(u, nx);
+    int j = cell(w, ny);
+    int k = cell(h, nz);
+    double tx = nx == 1 ? 0 : u - i;
+    double ty = ny == 1 ? 0 : w - j;
+    double tz = nz == 1 ? 0 : h - k;
+
+    if (!cubic)
+    {
+      int i1 = Math.min(i + 1, nx - 1);
+      int j1 = Math.min(j + 1, ny - 1);
+      int k1 = Math.min(k + 1, nz - 1);
+      long node = ((long) k*ny + j)*nx + i;
+      int stepX = (i1 - i)*VALUES;
+      int stepY = (j1 - j)*nx*VALUES;
+      int stepZ = (int) ((k1 - k)*(long) nx*ny*VALUES);
+      long far = node + (stepX + stepY + (long) stepZ)/VALUES;
+      if ((node >>> SEGMENT_SHIFT) == (far >>> SEGMENT_SHIFT))
+      {
+        // All eight corners lie in one segment, the usual case
+        DoubleBuffer segment = segments[(int) (node >>> SEGMENT_SHIFT)];
+        int o = (int) (node & (SEGMENT_NODES - 1))*VALUES;
+        for (int v = 0; v < VALUES; v++, o++)
+        {
+          double c00 = segment.get(o) + tx*(segment.get(o + stepX)
+          - segment.get(o));
+          double c10 = segment.get(o + stepY) + tx*(segment.get(o + stepY
+          + stepX) - segment.get(o + stepY));
+          double c01 = segment.get(o + stepZ) + tx*(segment.get(o + stepZ
+          + stepX) - segment.get(o + stepZ));
+          double c11 = segment.get(o + stepZ + stepY) + tx*(segment.get(o
+          + stepZ + stepY + stepX) - segment.get(o + stepZ + stepY));
+          double c0 = c00 + ty*(c10 - c00);
+          double c1 = c01 + ty*(c11 - c01);
+          fieldsOut[v] = c0 + tz*(c1 - c0);
+        }
+        return;
+      }
+      addNode(i, j, k, (1 - tx)*(1 - ty)*(1 - tz), fieldsOut);
+      addNode(i1, j, k, tx*(1 - ty)*(1 - tz), fieldsOut);
+      addNode(i, j1, k, (1 - tx)*ty*(1 - tz), fieldsOut);
+      addNode(i1, j1, k, tx*ty*(1 - tz), fieldsOut);
+      addNode(i, j, k1, (1 - tx)*(1 - ty)*tz, fieldsOut);
+      addNode(i1, j, k1, tx*(1 - ty)*tz, fieldsOut);
+      addNode(i, j1, k1, (1 - tx)*ty*tz, fieldsOut);
+      addNode(i1, j1, k1, tx*ty*tz, fieldsOut);
+      return;
+    }
+
+    boolean edgeX = i == 0 || i + 2 >= nx;
+    boolean edgeY = j == 0 || j + 2 >= ny;
+    boolean edgeZ = k == 0 || k + 2 >= nz;
+    for (int c = -1; c <= 2; c++)
+    {
+      double weightZ = cubicWeight(tz, c, edgeZ);
+      if (weightZ == 0)
+      {
+        continue;
+      }
+      int kc = clamp(k + c, nz);
+      for (int b = -1; b <= 2; b++)
+      {
+        double weightYZ = cubicWeight(ty, b, edgeY)*weightZ;
+        if (weightYZ == 0)
+        {
+          continue;
+        }
+        int jb = clamp(j + b, ny);
+        for (int a = -1; a <= 2; a++)
+        {
+          double weight = cubicWeight(tx, a, edgeX)*weightYZ;
+          if (weight != 0)
+          {
+            addNode(clamp(i + a, nx), jb, kc, weight, fieldsOut);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+  * Calculates the acceleration experienced by a charged particle
+  * according to the Lorentz force law (non-relativistic):
+  * a = (q/m)*(E + vxB), using the field interpolated at the position
+  * of the particle.
+  *
+  * @param particleIn the charged particle moving in the field
+  */
+  public void calculateAcceleration(ChargedParticle particleIn)
+  {
+    PhysicsVector position = particleIn.position;
+    PhysicsVector velocity = particleIn.velocity;
+    accelerationAt(position.getX(), position.getY(), position.getZ(),
+    velocity.getX(), velocity.getY(), velocity.getZ(), 0,
+    particleIn.getCharge()/particleIn.getMass(), fields);
+    acceleration.setVector(fields[0], fields[1], fields[2]);
+  }
+
+  /**
+  * Adds the values of a node, multiplied by a weight, to a buffer.
+  *
+  * @param i The node number along x
+  * @param j The node number along y
+  * @param k The node number along z
+  * @param weight The weight of the node
+  * @param fieldsOut The buffer being summed into
+  */
+  protected void addNode(int i, int j, int k, double weight,
+  double[] fieldsOut)
+  {
+    long node = ((long) k*ny + j)*nx + i;
+    DoubleBuffer segment = segments[(int) (node >>> SEGMENT_SHIFT)];
+    int offset = (int) (node & (SEGMENT_NODES - 1))*VALUES;
+    fieldsOut[0] += weight*segment.get(offset);
+    fieldsOut[1] += weight*segment.get(offset + 1);
+    fieldsOut[2] += weight*segment.get(offset + 2);
+    fieldsOut[3] += weight*segment.get(offset + 3);
+    fieldsOut[4] += weight*segment.get(offset + 4);
+    fieldsOut[5] += weight*segment.get(offset + 5);
+  }
+
+  /**
+  * Sets the origin, spacing and size of the grid.
+  *
+  * @param originXIn The x position of the first node
+  * @param originYIn The y position of the first node
+  * @param originZIn The z position of the first node
+  * @param spacingXIn The distance between nodes along x
+  * @param spacingYIn The distance between nodes along y
+  * @param spacingZIn The distance between nodes along z
+  * @param nxIn The number of nodes along x
+  * @param nyIn The number of nodes along y
+  * @param nzIn The number of nodes along z
+  */
+  protected void setGrid(double originXIn, double originYIn,
+  double originZIn, double spacingXIn, double spacingYIn,
+  double spacingZIn, int nxIn, int nyIn, int nzIn)
+  {
+    if (nxIn < 1 || nyIn < 1 || nzIn < 1)
+    {
+      throw new IllegalArgumentException("A field map needs at least one " +
+      "node along each axis");
+    }
+    originX = originXIn;
+    originY = originYIn;
+    originZ = originZIn;
+    spacingX = spacingXIn;
+    spacingY = spacingYIn;
+    spacingZ = spacingZIn;
+    inverseX = 1/spacingX;
+    inverseY = 1/spacingY;
+    inverseZ = 1/spacingZ;
+    nx = nxIn;
+    ny = nyIn;
+    nz = nzIn;
+  }
+
+  /**
+  * Return whether a position, in units of the node spacing from the
+  * first node, lies beyond the grid along an axis. An axis with a
+  * single node has no edges.
+  *
+  * @param u The position in node spacings
+  * @param n The number of nodes along the axis
+  * @return true if the position is outside the grid
+  */
+  protected static boolean outside(double u, int n)
+  {
+    return n > 1 && !(u >= 0 && u <= n - 1);
+  }
+
+  /**
+  * Return the node at the start of the cell holding a position, the
+  * last cell being used for a position on the far edge.
+  *
+  * @param u The position in node spacings, inside the grid
+  * @param n The number of nodes along the axis
+  * @return The node number
+  */
+  protected static int cell(double u, int n)
+  {
+    if (n == 1)
+    {
+      return 0;
+    }
+    return Math.min((int) u, n - 2);
+  }
+
+  /**
+  * Return a node number moved onto the grid.
+  *
+  * @param i The node number
+  * @param n The number of nodes along the axis
+  * @return The nearest node number on the grid
+  */
+  protected static int clamp(int i, int n)
+  {
+    return i < 0 ? 0 : i >= n ? n - 1 : i;
+  }
+
+  /**
+  * Return the Catmull-Rom weight of the node at offset c, from -1 to
+  * 2, from the start of the cell for a position a fraction t across it.
+  * In the first and last cells, which lack a node on one side, the
+  * linear weights are used instead.
+  *
+  * @param t The fraction of the cell
+  * @param c The offset of the node
+  * @param edge Whether the cell is at the edge of the grid
+  * @return The weight
+  */
+  protected static double cubicWeight(double t, int c, boolean edge)
+  {
+    if (edge)
+    {
+      return c == 0 ? 1 - t : c == 1 ? t : 0;
+    }
+    double t2 = t*t;
+    double t3 = t2*t;
+    switch (c)
+    {
+      case -1:
+        return 0.5*(-t3 + 2*t2 - t);
+      case 0:
+        return 0.5*(3*t3 - 5*t2 + 2);
+      case 1:
+        return 0.5*(-3*t3 + 4*t2 + t);
+      default:
+        return 0.5*(t3 - t2);
+    }
+  }
+
+  /**
+  * Writes the contents of a buffer to a channel and empties it.
+  *
+  * @param channel The channel
+  * @param buffer The buffer
+  * @throws IOException if the channel cannot be written
+  */
+  protected static void writeAll(FileChannel channel, ByteBuffer buffer)
+  throws IOException
+  {
+    buffer.flip();
+    while (buffer.hasRemaining())
+    {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
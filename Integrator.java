@@ -0,0 +1,64 @@
+/**
+ * Interface for a numerical algorithm which moves a range of charged
+ * particles through an electromagnetic field over one time interval.
+ * An integrator is chosen once for a whole bunch, and holds no state
+ * of its own so it may push different ranges on different threads.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.3
+ */
+public interface Integrator{
+
+  /**
+  * Moves the particles from start up to, but not including, end over
+  * one time interval. A uniform field may be evaluated once and the
+  * range handed to the push kernel.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param timeIn The time at the start of the interval
+  * @param fieldIn The electromagnetic field
+  * @param kernelIn The kernel for pushing through a uniform field
+  */
+  void push(ParticleStore storeIn, int start, int end, double deltaTime,
+  double timeIn, FieldEvaluator fieldIn, PushKernel kernelIn);
+
+  /**
+  * Returns the integrator for an algorithm number: 1 for Euler, 2 for
+  * Euler Cromer, 3 for Boris, 4 for the adaptive Dormand Prince
+  * algorithm at its default tolerance and 5 for relativistic Boris.
+  * Any other number prints a warning and returns the Euler integrator.
+  *
+  * @param choiceIn The algorithm number
+  * @return The integrator
+  */
+  static Integrator forChoice(int choiceIn)
+  {
+    if (choiceIn == 1)
+    {
+      return new EulerIntegrator();
+    }
+    else if (choiceIn == 2)
+    {
+      return new EulerCromerIntegrator();
+    }
+    else if (choiceIn == 3)
+    {
+      return new BorisIntegrator();
+    }
+    else if (choiceIn == 4)
+    {
+      return new DormandPrinceIntegrator(
+      DormandPrinceIntegrator.DEFAULT_TOLERANCE);
+    }
+    else if (choiceIn == 5)
+    {
+      return new RelativisticBorisIntegrator();
+    }
+    System.out.println("WARNING: Integrator.forChoice(int choiceIn) " +
+    "requires 1 to 5, using the Euler algorithm");
+    return new EulerIntegrator();
+  }
+}
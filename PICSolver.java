@@ -0,0 +1,745 @@
+/**
+ * Space charge solver using the particle in cell method. The charge of
+ * the particles is shared between the eight nearest nodes of a mesh
+ * around the bunch (cloud in cell), the potential of the mesh charges
+ * is found by convolving them with the Green's function of free space
+ * using fast Fourier transforms, and the electric field, the negative
+ * gradient of the potential, is interpolated back to each position
+ * with the same weights. The work on the mesh does not depend on the
+ * number of particles, so this suits very large bunches.
+ *
+ * The mesh is doubled along each axis and the charges placed in one
+ * corner (Hockney's method), so the circular convolution of the
+ * transforms gives the field of an isolated bunch, with no image
+ * charges. The Green's function is integrated over each mesh cell,
+ * which keeps it accurate for cells much longer along one axis than
+ * the others, as for a long bunch. The mesh follows the bunch, and its
+ * spacing is only changed when the bunch outgrows it or shrinks well
+ * inside it, so the transform of the Green's function is usually
+ * reused from the step before. Outside the mesh the bunch is treated
+ * as a single charge at its centre of charge.
+ *
+ * The charge is deposited and the transforms taken by parallel tasks
+ * when a pool is given, and the finished field is only read, so the
+ * threads pushing a bunch may all evaluate it at once. As with
+ * BarnesHutSolver the field is electrostatic.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.1
+ */
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+public class PICSolver implements SpaceChargeSolver{
+
+  /**
+  * FORK_SIZE is the fewest particles, and FORK_LINES the fewest lines
+  * of a transform, for which work is split between tasks. BLOCK is the
+  * number of neighbouring lines transformed together. GROWTH is the
+  * room left around the bunch when the spacing is set, and SHRINK how
+  * far the bunch must shrink before the spacing is made finer. FAR is
+  * the distance, in the largest spacing, beyond which the Green's
+  * function of a cell is taken as that of a point.
+  */
+  protected static final int FORK_SIZE = 8192;
+  protected static final int FORK_LINES = 64;
+  protected static final int BLOCK = 8;
+  protected static final double GROWTH = 1.1;
+  protected static final double SHRINK = 1.5;
+  protected static final double FAR = 32;
+
+  /**
+  * nx, ny and nz are the number of nodes of the mesh along each axis,
+  * and the doubled mesh has twice as many. minX, minY and minZ are the
+  * position of the first node and hx, hy and hz the spacings.
+  */
+  protected int nx, ny, nz;
+  protected double minX, minY, minZ, hx, hy, hz;
+
+  /**
+  * mesh holds the three components of the electric field at each node,
+  * with x varying fastest. totalCharge is the charge of the bunch and
+  * centreX, centreY and centreZ its centre of charge. size is the
+  * number of particles.
+  */
+  protected double[] mesh;
+  protected double totalCharge, centreX, centreY, centreZ;
+  protected int size;
+
+  /**
+  * real and imaginary hold the doubled mesh while it is transformed,
+  * green the transform of the Green's function for the spacing
+  * greenX, greenY and greenZ, and transformX, transformY and
+  * transformZ the transforms along each axis.
+  */
+  protected double[] real, imaginary, green;
+  protected double greenX, greenY, greenZ;
+  protected Transform transformX, transformY, transformZ;
+
+  /**
+  * Constructor that sets the number of mesh nodes along each axis, each
+  * a power of two of at least four.
+  *
+  * @param nxIn user determined number of nodes along x
+  * @param nyIn user determined number of nodes along y
+  * @param nzIn user determined number of nodes along z
+  */
+  public PICSolver(int nxIn, int nyIn, int nzIn)
+  {
+    for (int n : new int[] {nxIn, nyIn, nzIn})
+    {
+      if (n < 4 || Integer.bitCount(n) != 1)
+      {
+        throw new IllegalArgumentException("The number of mesh nodes " +
+        "along each axis must be a power of two of at least four");
+      }
+    }
+    nx = nxIn;
+    ny = nyIn;
+    nz = nzIn;
+    mesh = new double[3*nx*ny*nz];
+    real = new double[8*nx*ny*nz];
+    imaginary = new double[8*nx*ny*nz];
+    transformX = new Transform(2*nx);
+    transformY = new Transform(2*ny);
+    transformZ = new Transform(2*nz);
+  }
+
+  /**
+  * Return the spacing of the mesh
+  *
+  * @return The spacings along x, y and z
+  */
+  public PhysicsVector getSpacing()
+  {
+    return new PhysicsVector(hx, hy, hz);
+  }
+
+  /**
+  * Deposits the charges of the particles of a store on a mesh around
+  * them and works out the electric field at each node.
+  *
+  * @param storeIn The store holding the particles
+  * @param poolIn The pool to work in, or null to work on the calling
+  * thread
+  */
+  public void update(ParticleStore storeIn, ForkJoinPool poolIn)
+  {
+    size = storeIn.size();
+    totalCharge = 0;
+    if (size == 0)
+    {
+      return;
+    }
+
+    double lowX = Double.POSITIVE_INFINITY, highX = Double.NEGATIVE_INFINITY;
+    double lowY = lowX, highY = highX, lowZ = lowX, highZ = highX;
+    double weight = 0, sumX = 0, sumY = 0, sumZ = 0;
+    for (int i = 0; i < size; i++)
+    {
+      lowX = Math.min(lowX, storeIn.x[i]);
+      highX = Math.max(highX, storeIn.x[i]);
+      lowY = Math.min(lowY, storeIn.y[i]);
+      highY = Math.max(highY, storeIn.y[i]);
+      lowZ = Math.min(lowZ, storeIn.z[i]);
+      highZ = Math.max(highZ, storeIn.z[i]);
+      double charge = storeIn.charge[i];
+      totalCharge += charge;
+      weight += Math.abs(charge);
+      sumX += Math.abs(charge)*storeIn.x[i];
+      sumY += Math.abs(charge)*storeIn.y[i];
+      sumZ += Math.abs(charge)*storeIn.z[i];
+    }
+    centreX = weight > 0 ? sumX/weight : 0.5*(lowX + highX);
+    centreY = weight > 0 ? sumY/weight : 0.5*(lowY + highY);
+    centreZ = weight > 0 ? sumZ/weight : 0.5*(lowZ + highZ);
+    place(lowX, highX, lowY, highY, lowZ, highZ);
+
+    Arrays.fill(real, 0);
+    Arrays.fill(imaginary, 0);
+    boolean parallel = poolIn != null;
+    if (hx != greenX || hy != greenY || hz != greenZ)
+    {
+      fillGreen();
+      transform(poolIn, false, false);
+      green = real.clone();
+      double scale = COULOMB/real.length;
+      for (int n = 0; n < green.length; n++)
+      {
+        green[n] *= scale;
+      }
+      greenX = hx;
+      greenY = hy;
+      greenZ = hz;
+      Arrays.fill(real, 0);
+      Arrays.fill(imaginary, 0);
+    }
+
+    if (parallel && size > FORK_SIZE)
+    {
+      double[] nodes = poolIn.invoke(new DepositTask(storeIn, 0, size,
+      Math.max(FORK_SIZE, size/poolIn.getParallelism() + 1)));
+      int n = 0;
+      for (int k = 0; k < nz; k++)
+      {
+        for (int j = 0; j < ny; j++)
+        {
+          int row = (k*2*ny + j)*2*nx;
+          for (int i = 0; i < nx; i++)
+          {
+            real[row + i] = nodes[n++];
+          }
+        }
+      }
+    }
+    else
+    {
+      deposit(storeIn, 0, size, real, 2*nx, 4*nx*ny);
+    }
+
+    // The transform of the potential is that of the charges times that
+    // of the Green's function, which is real as the function is even
+    transform(poolIn, false, true);
+    for (int n = 0; n < real.length; n++)
+    {
+      real[n] *= green[n];
+      imaginary[n] *= green[n];
+    }
+    transform(poolIn, true, true);
+    gradient();
+  }
+
+  /**
+  * Adds the electric field of the particles at a position to
+  * fieldsOut[0], [1] and [2], interpolated from the mesh inside it and
+  * as that of a single charge outside.
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param fieldsOut Buffer holding the field to add to
+  */
+  public void addFieldAt(double x, double y, double z, double[] fieldsOut)
+  {
+    if (size == 0)
+    {
+      return;
+    }
+    double u = (x - minX)/hx;
+    double v = (y - minY)/hy;
+    double w = (z - minZ)/hz;
+    if (u >= 0 && u < nx - 1 && v >= 0 && v < ny - 1 && w >= 0
+    && w < nz - 1)
+    {
+      int i = (int) u, j = (int) v, k = (int) w;
+      double fx = u - i, fy = v - j, fz = w - k;
+      int node = 3*((k*ny + j)*nx + i);
+      int stepY = 3*nx, stepZ = 3*nx*ny;
+      for (int c = 0; c < 3; c++)
+      {
+        int n = node + c;
+        double low = (1 - fy)*((1 - fx)*mesh[n] + fx*mesh[n + 3])
+        + fy*((1 - fx)*mesh[n + stepY] + fx*mesh[n + stepY + 3]);
+        n += stepZ;
+        double high = (1 - fy)*((1 - fx)*mesh[n] + fx*mesh[n + 3])
+        + fy*((1 - fx)*mesh[n + stepY] + fx*mesh[n + stepY + 3]);
+        fieldsOut[c] += (1 - fz)*low + fz*high;
+      }
+      return;
+    }
+    double dx = x - centreX, dy = y - centreY, dz = z - centreZ;
+    double distanceSquared = dx*dx + dy*dy + dz*dz;
+    if (distanceSquared > 0)
+    {
+      double inverse = 1/Math.sqrt(distanceSquared);
+      double factor = COULOMB*totalCharge*inverse*inverse*inverse;
+      fieldsOut[0] += factor*dx;
+      fieldsOut[1] += factor*dy;
+      fieldsOut[2] += factor*dz;
+    }
+  }
+
+  /**
+  * Writes the spacing of the mesh, which is kept from step to step, for
+  * a checkpoint.
+  *
+  * @param out The stream to write to
+  * @throws IOException if the stream cannot be written
+  */
+  public void writeState(DataOutput out) throws IOException
+  {
+    out.writeDouble(hx);
+    out.writeDouble(hy);
+    out.writeDouble(hz);
+  }
+
+  /**
+  * Reads back the spacing written by writeState.
+  *
+  * @param in The stream to read from
+  * @throws IOException if the stream cannot be read
+  */
+  public void readState(DataInput in) throws IOException
+  {
+    hx = in.readDouble();
+    hy = in.readDouble();
+    hz = in.readDouble();
+  }
+
+  /**
+  * Sets the spacing and position of the mesh to hold the bunch, with a
+  * margin of at least one cell on each side. The spacing along an axis
+  * is kept while the bunch fits and has not shrunk by more than SHRINK.
+  *
+  * @param lowX The lowest x position of a particle
+  * @param highX The highest x position of a particle
+  * @param lowY The lowest y position of a particle
+  * @param highY The highest y position of a particle
+  * @param lowZ The lowest z position of a particle
+  * @param highZ The highest z position of a particle
+  */
+  protected void place(double lowX, double highX, double lowY,
+  double highY, double lowZ, double highZ)
+  {
+    double needX = (highX - lowX)/(nx - 3.5);
+    double needY = (highY - lowY)/(ny - 3.5);
+    double needZ = (highZ - lowZ)/(nz - 3.5);
+
+    // An axis along which the bunch is flat is given the largest
+    // spacing of the others so that its cells are not too thin
+    double largest = Math.max(needX, Math.max(needY, needZ));
+    if (largest == 0)
+    {
+      largest = 1;
+    }
+    hx = spacing(hx, needX > 0 ? needX : largest);
+    hy = spacing(hy, needY > 0 ? needY : largest);
+    hz = spacing(hz, needZ > 0 ? needZ : largest);
+    minX = 0.5*(lowX + highX) - 0.5*(nx - 1)*hx;
+    minY = 0.5*(lowY + highY) - 0.5*(ny - 1)*hy;
+    minZ = 0.5*(lowZ + highZ) - 0.5*(nz - 1)*hz;
+  }
+
+  /**
+  * Return the spacing to use along an axis.
+  *
+  * @param current The spacing used last step
+  * @param need The smallest spacing that holds the bunch
+  * @return The spacing
+  */
+  protected static double spacing(double current, double need)
+  {
+    if (current >= need && current <= SHRINK*need)
+    {
+      return current;
+    }
+    return GROWTH*need;
+  }
+
+  /**
+  * Fills the doubled mesh with the Green's function 1/r averaged over
+  * the cell at each offset, the offsets past half way along an axis
+  * being negative. The average is worked out from the corners of the
+  * cell, which are shared between neighbouring cells, so each corner
+  * is only evaluated once.
+  */
+  protected void fillGreen()
+  {
+    int cx = nx + 2, cy = ny + 2, cz = nz + 2;
+    double[] corners = new double[cx*cy*cz];
+    for (int k = 0; k < cz; k++)
+    {
+      for (int j = 0; j < cy; j++)
+      {
+        for (int i = 0; i < cx; i++)
+        {
+          corners[(k*cy + j)*cx + i] = antiderivative((i - 0.5)*hx,
+          (j - 0.5)*hy, (k - 0.5)*hz);
+        }
+      }
+    }
+
+    double volume = hx*hy*hz;
+    double far = FAR*Math.max(hx, Math.max(hy, hz));
+    int sx = 2*nx, sy = 2*ny, sz = 2*nz;
+    for (int k = 0; k < sz; k++)
+    {
+      int dk = k <= nz ? k : sz - k;
+      for (int j = 0; j < sy; j++)
+      {
+        int dj = j <= ny ? j : sy - j;
+        for (int i = 0; i < sx; i++)
+        {
+          int di = i <= nx ? i : sx - i;
+          double x = di*hx, y = dj*hy, z = dk*hz;
+          double distance = Math.sqrt(x*x + y*y + z*z);
+          double value;
+          if (distance > far)
+          {
+            value = 1/distance;
+          }
+          else
+          {
+            int c = (dk*cy + dj)*cx + di;
+            value = (corners[c + cy*cx + cx + 1] - corners[c + cy*cx + cx]
+            - corners[c + cy*cx + 1] + corners[c + cy*cx]
+            - corners[c + cx + 1] + corners[c + cx] + corners[c + 1]
+            - corners[c])/volume;
+          }
+          real[(k*sy + j)*sx + i] = value;
+        }
+      }
+    }
+  }
+
+  /**
+  * Return a function whose third mixed derivative is 1/r, so that the
+  * integral of 1/r over a box follows from its values at the corners.
+  *
+  * @param x The x position, not zero
+  * @param y The y position, not zero
+  * @param z The z position, not zero
+  * @return The value of the function
+  */
+  protected static double antiderivative(double x, double y, double z)
+  {
+    double r = Math.sqrt(x*x + y*y + z*z);
+    return y*z*Math.log(x + r) + x*z*Math.log(y + r) + x*y*Math.log(z + r)
+    - 0.5*(x*x*Math.atan(y*z/(x*r)) + y*y*Math.atan(x*z/(y*r))
+    + z*z*Math.atan(x*y/(z*r)));
+  }
+
+  /**
+  * Deposits the charge of a range of particles on a mesh, sharing each
+  * between the eight nodes around it.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The first particle
+  * @param end One past the last particle
+  * @param nodesOut The charge at each node
+  * @param sx The distance between rows of nodesOut
+  * @param stepZ The distance between planes of nodesOut
+  */
+  protected void deposit(ParticleStore storeIn, int start, int end,
+  double[] nodesOut, int sx, int stepZ)
+  {
+    for (int p = start; p < end; p++)
+    {
+      double u = (storeIn.x[p] - minX)/hx;
+      double v = (storeIn.y[p] - minY)/hy;
+      double w = (storeIn.z[p] - minZ)/hz;
+      int i = (int) u, j = (int) v, k = (int) w;
+      double fx = u - i, fy = v - j, fz = w - k;
+      double charge = storeIn.charge[p];
+      int n = k*stepZ + j*sx + i;
+      double low = charge*(1 - fz), high = charge*fz;
+      nodesOut[n] += low*(1 - fy)*(1 - fx);
+      nodesOut[n + 1] += low*(1 - fy)*fx;
+      nodesOut[n + sx] += low*fy*(1 - fx);
+      nodesOut[n + sx + 1] += low*fy*fx;
+      n += stepZ;
+      nodesOut[n] += high*(1 - fy)*(1 - fx);
+      nodesOut[n + 1] += high*(1 - fy)*fx;
+      nodesOut[n + sx] += high*fy*(1 - fx);
+      nodesOut[n + sx + 1] += high*fy*fx;
+    }
+  }
+
+  /**
+  * Works out the electric field at each node as the negative gradient
+  * of the potential, with central differences inside the mesh and one
+  * sided differences on its faces.
+  */
+  protected void gradient()
+  {
+    int sx = 2*nx, sy = 2*ny;
+    for (int k = 0; k < nz; k++)
+    {
+      int k0 = Math.max(0, k - 1), k1 = Math.min(nz - 1, k + 1);
+      for (int j = 0; j < ny; j++)
+      {
+        int j0 = Math.max(0, j - 1), j1 = Math.min(ny - 1, j + 1);
+        int row = (k*sy + j)*sx;
+        int node = 3*(k*ny + j)*nx;
+        for (int i = 0; i < nx; i++)
+        {
+          int i0 = Math.max(0, i - 1), i1 = Math.min(nx - 1, i + 1);
+          mesh[node++] = (real[row + i0] - real[row + i1])/((i1 - i0)*hx);
+          mesh[node++] = (real[(k*sy + j0)*sx + i] - real[(k*sy + j1)*sx
+          + i])/((j1 - j0)*hy);
+          mesh[node++] = (real[(k0*sy + j)*sx + i] - real[(k1*sy + j)*sx
+          + i])/((k1 - k0)*hz);
+        }
+      }
+    }
+  }
+
+  /**
+  * Transforms the doubled mesh along each axis in turn. When only the
+  * corner holding the charges or the potential matters, the lines that
+  * are zero before a forward transform, or not needed after an inverse
+  * one, are skipped.
+  *
+  * @param poolIn The pool to work in, or null to work on the calling
+  * thread
+  * @param inverse Whether to take the inverse transform, without the
+  * division by the number of points
+  * @param corner Whether only the corner of the mesh matters
+  */
+  protected void transform(ForkJoinPool poolIn, boolean inverse,
+  boolean corner)
+  {
+    int sx = 2*nx, sy = 2*ny, sz = 2*nz;
+    boolean parallel = poolIn != null;
+    LineTask[] passes = {
+      new LineTask(transformX, 1, sx, sx*sy, corner ? ny : sy, 0,
+      (corner ? ny : sy)*(corner ? nz : sz), inverse, parallel),
+      new LineTask(transformY, sx, 1, sx*sy, sx, 0,
+      sx*(corner ? nz : sz), inverse, parallel),
+      new LineTask(transformZ, sx*sy, 1, sx, sx, 0, sx*sy, inverse,
+      parallel)};
+    for (int pass = 0; pass < 3; pass++)
+    {
+      LineTask task = passes[inverse ? 2 - pass : pass];
+      if (poolIn == null)
+      {
+        task.compute();
+      }
+      else
+      {
+        poolIn.invoke(task);
+      }
+    }
+  }
+
+  /**
+  * Task which deposits the charge of a range of particles on a mesh of
+  * its own. When split, the meshes of the two halves are added in a
+  * fixed order, so the result does not depend on the timing of the
+  * threads.
+  */
+  protected class DepositTask extends RecursiveTask<double[]>{
+
+    protected ParticleStore store;
+    protected int start, end, grain;
+
+    /**
+    * Constructor that sets the range of particles.
+    *
+    * @param storeIn The store holding the particles
+    * @param startIn The first particle
+    * @param endIn One past the last particle
+    * @param grainIn The most particles deposited by one task
+    */
+    protected DepositTask(ParticleStore storeIn, int startIn, int endIn,
+    int grainIn)
+    {
+      store = storeIn;
+      start = startIn;
+      end = endIn;
+      grain = grainIn;
+    }
+
+    /**
+    * Deposits the charge, splitting the range in half while it is
+    * larger than the grain.
+    *
+    * @return The charge at each node of the mesh
+    */
+    protected double[] compute()
+    {
+      if (end - start > grain)
+      {
+        int middle = (start + end) >>> 1;
+        DepositTask right = new DepositTask(store, middle, end, grain);
+        right.fork();
+        double[] nodes = new DepositTask(store, start, middle,
+        grain).compute();
+        double[] other = right.join();
+        for (int n = 0; n < nodes.length; n++)
+        {
+          nodes[n] += other[n];
+        }
+        return nodes;
+      }
+      double[] nodes = new double[nx*ny*nz];
+      deposit(store, start, end, nodes, nx, nx*ny);
+      return nodes;
+    }
+  }
+
+  /**
+  * Task which transforms a range of the lines along one axis of the
+  * doubled mesh. Line m starts at (m/across)*outer + (m%across)*inner
+  * and its points are stride apart. BLOCK neighbouring lines are copied
+  * out and transformed together, so the memory between them is read
+  * once and each step of the transform is repeated over the lines.
+  */
+  protected class LineTask extends RecursiveAction{
+
+    protected Transform transform;
+    protected int stride, inner, outer, across, start, end;
+    protected boolean inverse, parallel;
+
+    /**
+    * Constructor that sets the lines to transform.
+    *
+    * @param transformIn The transform along the axis
+    * @param strideIn The distance between points of a line
+    * @param innerIn The distance between neighbouring lines
+    * @param outerIn The distance between rows of lines
+    * @param acrossIn The number of lines in a row
+    * @param startIn The first line
+    * @param endIn One past the last line
+    * @param inverseIn Whether to take the inverse transform
+    * @param parallelIn Whether to split the range between tasks
+    */
+    protected LineTask(Transform transformIn, int strideIn, int innerIn,
+    int outerIn, int acrossIn, int startIn, int endIn, boolean inverseIn,
+    boolean parallelIn)
+    {
+      transform = transformIn;
+      stride = strideIn;
+      inner = innerIn;
+      outer = outerIn;
+      across = acrossIn;
+      start = startIn;
+      end = endIn;
+      inverse = inverseIn;
+      parallel = parallelIn;
+    }
+
+    /**
+    * Transforms the lines, splitting the range in half while it is
+    * larger than FORK_LINES.
+    */
+    protected void compute()
+    {
+      if (parallel && end - start > FORK_LINES)
+      {
+        int middle = (start + end) >>> 1;
+        invokeAll(new LineTask(transform, stride, inner, outer, across,
+        start, middle, inverse, true), new LineTask(transform, stride,
+        inner, outer, across, middle, end, inverse, true));
+        return;
+      }
+      int length = transform.length;
+      double[] re = new double[length*BLOCK], im = new double[length*BLOCK];
+      int[] first = new int[BLOCK];
+      for (int m = start; m < end; m += BLOCK)
+      {
+        int lines = Math.min(BLOCK, end - m);
+        for (int b = 0; b < lines; b++)
+        {
+          first[b] = ((m + b)/across)*outer + ((m + b)%across)*inner;
+        }
+        for (int s = 0; s < length; s++)
+        {
+          for (int b = 0; b < lines; b++)
+          {
+            re[s*BLOCK + b] = real[first[b] + s*stride];
+            im[s*BLOCK + b] = imaginary[first[b] + s*stride];
+          }
+        }
+        transform.apply(re, im, inverse);
+        for (int s = 0; s < length; s++)
+        {
+          for (int b = 0; b < lines; b++)
+          {
+            real[first[b] + s*stride] = re[s*BLOCK + b];
+            imaginary[first[b] + s*stride] = im[s*BLOCK + b];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+  * The fast Fourier transform of one length, a power of two, with its
+  * bit reversal permutation and factors worked out once, applied to
+  * BLOCK lines at a time.
+  */
+  protected static class Transform{
+    protected int length;
+    protected int[] reversed;
+    protected double[] cosines, sines;
+
+    /**
+    * Constructor that works out the permutation and factors.
+    *
+    * @param lengthIn The length of the transform
+    */
+    protected Transform(int lengthIn)
+    {
+      length = lengthIn;
+      reversed = new int[length];
+      int bits = Integer.numberOfTrailingZeros(length);
+      for (int i = 0; i < length; i++)
+      {
+        reversed[i] = Integer.reverse(i) >>> (32 - bits);
+      }
+      cosines = new double[length/2];
+      sines = new double[length/2];
+      for (int i = 0; i < length/2; i++)
+      {
+        cosines[i] = Math.cos(2*Math.PI*i/length);
+        sines[i] = Math.sin(2*Math.PI*i/length);
+      }
+    }
+
+    /**
+    * Transforms BLOCK lines in place, using exp(-i...) for the forward
+    * transform and exp(+i...) for the inverse. Point s of line b is
+    * held at s*BLOCK + b, so each step is taken for every line at once.
+    *
+    * @param re The real parts
+    * @param im The imaginary parts
+    * @param inverse Whether to take the inverse transform
+    */
+    protected void apply(double[] re, double[] im, boolean inverse)
+    {
+      for (int i = 0; i < length; i++)
+      {
+        int r = reversed[i];
+        if (r > i)
+        {
+          for (int b = 0; b < BLOCK; b++)
+          {
+            double t = re[i*BLOCK + b];
+            re[i*BLOCK + b] = re[r*BLOCK + b];
+            re[r*BLOCK + b] = t;
+            t = im[i*BLOCK + b];
+            im[i*BLOCK + b] = im[r*BLOCK + b];
+            im[r*BLOCK + b] = t;
+          }
+        }
+      }
+      double sign = inverse ? 1 : -1;
+      for (int half = 1; half < length; half <<= 1)
+      {
+        int step = length/(2*half);
+        for (int s = 0; s < length; s += 2*half)
+        {
+          for (int t = 0; t < half; t++)
+          {
+            double c = cosines[t*step], n = sign*sines[t*step];
+            int a = (s + t)*BLOCK, d = (s + t + half)*BLOCK;
+            for (int b = 0; b < BLOCK; b++)
+            {
+              double bre = re[d + b]*c - im[d + b]*n;
+              double bim = re[d + b]*n + im[d + b]*c;
+              re[d + b] = re[a + b] - bre;
+              im[d + b] = im[a + b] - bim;
+              re[a + b] += bre;
+              im[a + b] += bim;
+            }
+          }
+        }
+      }
+    }
+  }
+}
@@ -5,7 +5,7 @@
  * and Euler Cromer.
  *
  * @author Tehmoor Hussain
- * @version 1.2
+ * @version 1.3
  */
 public class Particle{
 
@@ -148,9 +148,9 @@ public class Particle{
 	*/
 	public void euler(double deltaTime, PhysicsVector accelerationIn)
 	{
-		acceleration = new PhysicsVector(accelerationIn);
-		position.increaseBy(PhysicsVector.scale(deltaTime, velocity));
-		velocity.increaseBy(PhysicsVector.scale(deltaTime, acceleration));
+		acceleration.setVector(accelerationIn);
+		position.addScaled(deltaTime, velocity);
+		velocity.addScaled(deltaTime, acceleration);
 	}
 
 	/**
@@ -166,9 +166,9 @@ public class Particle{
 	* @param accelerationIn The current acceleration
 	*/
 	public void eulerCromer(double deltaTime, PhysicsVector accelerationIn){
-		acceleration = new PhysicsVector(accelerationIn);
-		velocity.increaseBy(PhysicsVector.scale(deltaTime, acceleration));
-		position.increaseBy(PhysicsVector.scale(deltaTime, velocity));
+		acceleration.setVector(accelerationIn);
+		velocity.addScaled(deltaTime, acceleration);
+		position.addScaled(deltaTime, velocity);
 	}
 
 	/**
@@ -5,43 +5,121 @@
  * a beam of particles.
  *
  * @author Tehmoor Hussain
- * @version 1.8
+ * @version 2.14
  */
 
+import java.io.IOException;
 import java.lang.Math;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 public class ParticleBunch extends ChargedParticle{
 
   /**
 	* numberParticles defines the number of particles in a bunch.
-	* choice determines which algorithm is used to calculate the
-	* position of a proton. averagePosition gives the average position
-	* of particles within the bunch. newPosition is created to hold
-	* position so that the value of the original position isn't
-	* modified. randomSpread contains the randomised spread.
-	* ChargedParticles is an array of charged particle objects which
-	* is meant to represent a bunch of particles.
+	* integrator is the algorithm used to calculate the position of
+	* a proton, chosen once for the whole bunch. averagePosition gives
+	* the average position of particles within the bunch. newPosition
+	* is created to hold position so that the value of the original
+	* position isn't modified. randomSpread contains the randomised
+	* spread. particles holds the state of every charged particle in
+	* the bunch as contiguous arrays, which is meant to represent a
+	* bunch of particles.
 	*/
-	protected int numberParticles, choice;
+	protected int numberParticles;
+	protected Integrator integrator;
 	protected PhysicsVector averagePosition, newPosition, randomSpread;
-	protected ChargedParticle[] ChargedParticles;
+	protected ParticleStore particles;
+
+	/**
+	* statistics holds the beam statistics from the last call to
+	* calculateStatistics.
+	*/
+	protected BeamStatistics statistics = new BeamStatistics();
+
+	/**
+	* pool is the fork join pool used to push the bunch in parallel, when
+	* it is null the bunch is pushed on the calling thread. grainSize is
+	* the largest number of particles pushed by a single parallel task.
+	*/
+	protected ForkJoinPool pool;
+	protected int grainSize = 4096;
+
+	/**
+	* kernel pushes ranges of particles through a uniform field, using
+	* SIMD instructions where the Java Vector API is available.
+	*/
+	protected PushKernel kernel = PushKernel.select();
+
+	/**
+	* uniformField holds the current fields of a DynamicField for
+	* updateBunch, so that no field is allocated each step.
+	*/
+	protected EMField uniformField = new EMField();
+
+	/**
+	* spaceCharge works out the field the particles exert on each other,
+	* when it is null they ignore each other.
+	*/
+	protected SpaceChargeSolver spaceCharge;
+
+	/**
+	* random generates the random numbers used by the bunch, when it is
+	* null Math.random is used. A generator of its own lets a run be
+	* repeated, and its state saved in a checkpoint.
+	*/
+	protected Random random;
+
+	/**
+	* metrics adds up the time spent in each phase of a step, when it is
+	* null, or SimulationMetrics.ENABLED is false, nothing is measured.
+	*/
+	protected SimulationMetrics metrics;
+
+	/**
+	* LOSS_WIDTH is the number of values recorded for each particle lost:
+	* the time, its id, and its position and velocity.
+	*/
+	public static final int LOSS_WIDTH = 8;
+
+	/**
+	* aperture is the boundary of the machine, when it is null no
+	* particle is lost. pending holds the indices of the particles found
+	* outside it during a step and pendingCount how many there are.
+	* losses holds the records of the particles lost since they were last
+	* written, lossCount how many there are, and lostCount is the number
+	* of particles lost in all.
+	*/
+	protected Aperture aperture;
+	protected int[] pending = new int[16];
+	protected int pendingCount;
+	protected double[] losses = new double[16*LOSS_WIDTH];
+	protected int lossCount;
+	protected long lostCount;
 
 	/**
   * Default constructor. Sets data members to zero.
   */
 	public ParticleBunch(){
 		numberParticles = 0;
+		integrator = new EulerIntegrator();
 		averagePosition = new PhysicsVector();
 		newPosition = new PhysicsVector();
 		randomSpread = new PhysicsVector();
+		particles = new ParticleStore(0);
 	}
 
 	/**
   * Constructor that takes six arguments to create a ParticleBunch.
   * The mass, charge, position, velocity, number of particles and
 	* algorithm choice are are then set from these arguments. The
-	* array length is set to the number of particles. The array is
-	* then populated with the number of particles of entries.
+	* particle store is sized to the number of particles and every
+	* entry is populated with the same initial state. The algorithm
+	* choice is 1 for Euler, 2 for Euler Cromer and 3 for Boris.
   *
   * @param massIn user determined mass
   * @param chargeIn user determined charge
@@ -53,13 +131,90 @@ public class ParticleBunch extends ChargedParticle{
 	public ParticleBunch(double massIn, double chargeIn,
 	PhysicsVector positionIn, PhysicsVector velocityIn, int numberIn,
 	int choiceIn){
+		this(massIn, chargeIn, positionIn, velocityIn, numberIn,
+		Integrator.forChoice(choiceIn));
+	}
+
+	/**
+  * Constructor that takes six arguments to create a ParticleBunch.
+  * The mass, charge, position, velocity, number of particles and
+	* integrator are are then set from these arguments. The particle
+	* store is sized to the number of particles and every entry is
+	* populated with the same initial state.
+  *
+  * @param massIn user determined mass
+  * @param chargeIn user determined charge
+  * @param postionIn user determined position
+  * @param velocityIn user determined velocity
+	* @param numberIn user determined number of particles
+	* @param integratorIn user determined integrator
+  **/
+	public ParticleBunch(double massIn, double chargeIn,
+	PhysicsVector positionIn, PhysicsVector velocityIn, int numberIn,
+	Integrator integratorIn){
 		super(massIn, chargeIn, positionIn, velocityIn);
 		numberParticles = numberIn;
-		choice = choiceIn;
-		ChargedParticles = new ChargedParticle[numberParticles];
+		integrator = integratorIn;
+		averagePosition = new PhysicsVector();
+		newPosition = new PhysicsVector();
+		randomSpread = new PhysicsVector();
+		particles = new ParticleStore(numberParticles);
+		ChargedParticle particle = new ChargedParticle(massIn, chargeIn,
+		positionIn, velocityIn);
 		for (int i = 0; i < numberParticles; i++){
-			ChargedParticles[i] = new ChargedParticle(massIn, chargeIn, positionIn,
-			velocityIn);
+			particles.setParticle(i, particle);
+		}
+	}
+
+	/**
+  * Returns a bunch whose particles are held outside the Java heap, in
+	* memory allocated with the Foreign Function and Memory API or in a
+	* memory mapped file, so that the size of the heap and the work of
+	* the garbage collector do not grow with the number of particles.
+	* OffHeapParticleBunch is looked for by name, like the SIMD push
+	* kernel, and is kept in the offheap directory, so the rest of the
+	* program builds without it.
+  *
+  * @param massIn user determined mass
+  * @param chargeIn user determined charge
+  * @param positionIn user determined position
+  * @param velocityIn user determined velocity
+	* @param numberIn user determined number of particles
+	* @param integratorIn user determined integrator
+	* @param fileIn user determined file backing the particles, or null to
+	* hold them in memory
+	* @return The bunch
+	* @throws IOException if the file cannot be mapped
+	* @throws UnsupportedOperationException if OffHeapParticleBunch has
+	* not been compiled, which needs Java 22, or Java 21 with
+	* --enable-preview
+  */
+	public static ParticleBunch offHeap(double massIn, double chargeIn,
+	PhysicsVector positionIn, PhysicsVector velocityIn, int numberIn,
+	Integrator integratorIn, String fileIn) throws IOException{
+		String packageName = ParticleBunch.class.getPackageName();
+		try {
+			return (ParticleBunch) Class.forName(packageName.isEmpty() ?
+			"OffHeapParticleBunch" : packageName + ".OffHeapParticleBunch")
+			.getConstructor(double.class, double.class, PhysicsVector.class,
+			PhysicsVector.class, int.class, Integrator.class, String.class)
+			.newInstance(massIn, chargeIn, positionIn, velocityIn, numberIn,
+			integratorIn, fileIn);
+		}
+		catch (InvocationTargetException e){
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException){
+				throw (IOException) cause;
+			}
+			if (cause instanceof Error){
+				throw (Error) cause;
+			}
+			throw (RuntimeException) cause;
+		}
+		catch (ReflectiveOperationException | LinkageError e){
+			throw new UnsupportedOperationException("Off heap particle " +
+			"storage needs OffHeapParticleBunch compiled with Java 22, or " +
+			"Java 21 with --enable-preview", e);
 		}
 	}
 
@@ -81,6 +236,51 @@ public class ParticleBunch extends ChargedParticle{
 		return new PhysicsVector(averagePosition);
 	}
 
+	/**
+  * Return the store holding the state of every particle
+  *
+  * @return The particle store
+  */
+	public ParticleStore getStore(){
+		return particles;
+	}
+
+	/**
+  * Return a copy of one particle in the bunch as a charged particle
+	* object. Changes to the returned particle do not affect the bunch,
+	* use setParticle to write them back.
+  *
+  * @param i The index of the particle
+	* @return A copy of the particle
+  */
+	public ChargedParticle getParticle(int i){
+		return particles.getParticle(i);
+	}
+
+	/**
+  * Set the state of one particle in the bunch
+  *
+  * @param i The index of the particle
+	* @param particleIn The new state of the particle
+  */
+	public void setParticle(int i, ChargedParticle particleIn){
+		particles.setParticle(i, particleIn);
+	}
+
+	/**
+  * Return copies of every particle in the bunch as charged particle
+	* objects.
+  *
+	* @return An array of copies of the particles
+  */
+	public ChargedParticle[] getParticles(){
+		ChargedParticle[] copies = new ChargedParticle[numberParticles];
+		for (int i = 0; i < numberParticles; i++){
+			copies[i] = getParticle(i);
+		}
+		return copies;
+	}
+
 	/**
   * A different spread value from +Spread -> -Spread is
 	* generated for each particle in the bunch. This is then
@@ -90,33 +290,545 @@ public class ParticleBunch extends ChargedParticle{
   */
 	public void randomisePositions(PhysicsVector spreadIn){
 		for(int i = 0; i < numberParticles; i++){
-       randomSpread = new PhysicsVector(spreadIn);
-			 randomSpread.scale(2*Math.random()-1);
-			 newPosition = new PhysicsVector(position);
+       randomSpread.setVector(spreadIn);
+			 double uniform = random == null ? Math.random() : random.nextDouble();
+			 randomSpread.scale(2*uniform-1);
+			 newPosition.setVector(position);
 			 newPosition.increaseBy(randomSpread);
-			 ChargedParticles[i].setPosition(newPosition);
+			 placeParticle(i, newPosition.getX(), newPosition.getY(),
+			 newPosition.getZ());
 		}
 	}
 
 	/**
-  * According to the algorithm chosen each particle in the bunch is
+  * Set the position of one particle in the bunch
+  *
+  * @param i The index of the particle
+	* @param xIn The new x position
+	* @param yIn The new y position
+	* @param zIn The new z position
+  */
+	protected void placeParticle(int i, double xIn, double yIn, double zIn){
+		particles.setPosition(i, xIn, yIn, zIn);
+	}
+
+	/**
+  * Set the pool used to push the bunch in parallel. Passing null
+	* returns the bunch to pushing on the calling thread. As every
+	* particle is moved independently the result is identical in
+	* either mode.
+  *
+  * @param poolIn The fork join pool, or null for sequential pushing
+  */
+	public void setPool(ForkJoinPool poolIn){
+		pool = poolIn;
+	}
+
+	/**
+  * Return the pool used to push the bunch in parallel
+  *
+  * @return The fork join pool, or null when pushing sequentially
+  */
+	public ForkJoinPool getPool(){
+		return pool;
+	}
+
+	/**
+  * Set the largest number of particles pushed by one parallel task
+  *
+  * @param grainSizeIn The number of particles per task
+  */
+	public void setGrainSize(int grainSizeIn){
+		grainSize = Math.max(1, grainSizeIn);
+	}
+
+	/**
+  * Set the integrator used to move the particles. The relativistic
+	* Boris algorithm starts from the Lorentz factors in the store, which
+	* the other algorithms leave as they are, so they are worked out
+	* again when it takes over.
+  *
+  * @param integratorIn The integrator
+  */
+	public void setIntegrator(Integrator integratorIn){
+		if (integratorIn instanceof RelativisticBorisIntegrator
+		&& !(integrator instanceof RelativisticBorisIntegrator)){
+			updateGamma();
+		}
+		integrator = integratorIn;
+	}
+
+	/**
+  * Works out the Lorentz factor of every particle from its velocity.
+  */
+	protected void updateGamma(){
+		particles.updateGamma(0, numberParticles);
+	}
+
+	/**
+  * Return the integrator used to move the particles
+  *
+  * @return The integrator
+  */
+	public Integrator getIntegrator(){
+		return integrator;
+	}
+
+	/**
+  * Set the kernel used to push the bunch through a uniform field
+  *
+  * @param kernelIn The push kernel
+  */
+	public void setKernel(PushKernel kernelIn){
+		kernel = kernelIn;
+	}
+
+	/**
+  * Return the kernel used to push the bunch through a uniform field
+  *
+  * @return The push kernel
+  */
+	public PushKernel getKernel(){
+		return kernel;
+	}
+
+	/**
+  * Set the solver for the space charge field of the bunch
+  *
+  * @param spaceChargeIn The space charge solver, or null to ignore the
+	* forces between particles
+  */
+	public void setSpaceCharge(SpaceChargeSolver spaceChargeIn){
+		spaceCharge = spaceChargeIn;
+	}
+
+	/**
+  * Return the solver for the space charge field of the bunch
+  *
+  * @return The space charge solver, or null if there is none
+  */
+	public SpaceChargeSolver getSpaceCharge(){
+		return spaceCharge;
+	}
+
+	/**
+  * Set the random number generator used by the bunch
+  *
+  * @param randomIn The generator, or null to use Math.random
+  */
+	public void setRandom(Random randomIn){
+		random = randomIn;
+	}
+
+	/**
+  * Return the random number generator used by the bunch
+  *
+  * @return The generator, or null if Math.random is used
+  */
+	public Random getRandom(){
+		return random;
+	}
+
+	/**
+  * Set the metrics which measure the time spent updating the bunch
+  *
+  * @param metricsIn The metrics, or null to measure nothing
+  */
+	public void setMetrics(SimulationMetrics metricsIn){
+		metrics = metricsIn;
+	}
+
+	/**
+  * Return the metrics which measure the time spent updating the bunch
+  *
+  * @return The metrics, or null if there are none
+  */
+	public SimulationMetrics getMetrics(){
+		return metrics;
+	}
+
+	/**
+  * Set the boundary of the machine, outside which particles are lost
+  *
+  * @param apertureIn The aperture, or null to keep every particle
+  */
+	public void setAperture(Aperture apertureIn){
+		aperture = apertureIn;
+	}
+
+	/**
+  * Return the boundary of the machine
+  *
+  * @return The aperture, or null if there is none
+  */
+	public Aperture getAperture(){
+		return aperture;
+	}
+
+	/**
+  * Return the number of particles still in the bunch
+  *
+  * @return The number of particles
+  */
+	public int getNumberParticles(){
+		return numberParticles;
+	}
+
+	/**
+  * Return the number of particles lost from the bunch
+  *
+  * @return The number of particles lost
+  */
+	public long getLostCount(){
+		return lostCount;
+	}
+
+	/**
+  * Set the number of particles lost from the bunch, when carrying on
+	* from a checkpoint
+  *
+  * @param lostCountIn The number of particles lost
+  */
+	public void setLostCount(long lostCountIn){
+		lostCount = lostCountIn;
+	}
+
+	/**
+  * Makes the particles of the bunch a copy of those of a store, which
+	* may hold fewer than the bunch once particles have been lost.
+  *
+  * @param storeIn The store to copy
+  */
+	public void copyParticles(ParticleStore storeIn){
+		particles.copyFrom(storeIn);
+		numberParticles = storeIn.size();
+		pendingCount = 0;
+	}
+
+	/**
+  * Writes the record of every particle lost since the last call, as
+	* LOSS_WIDTH values: the time of the step it was lost in, its id, and
+	* its position and velocity once outside the aperture. The records
+	* are then cleared.
+  *
+  * @param sinkIn The sink the records are written to
+	* @throws IOException if the records cannot be written
+  */
+	public void writeLosses(RecordSink sinkIn) throws IOException{
+		double[] record = new double[LOSS_WIDTH];
+		for (int r = 0; r < lossCount; r++){
+			System.arraycopy(losses, r*LOSS_WIDTH, record, 0, LOSS_WIDTH);
+			sinkIn.write(record);
+		}
+		lossCount = 0;
+	}
+
+	/**
+  * Clears the records of the particles lost without writing them.
+  */
+	public void clearLosses(){
+		lossCount = 0;
+	}
+
+	/**
+  * According to the integrator chosen each particle in the bunch is
 	* moved due the force exerted on it by the electromagnetic field.
 	* The force produces an acceleration which causes a velocity and
-	* position change of each particle. The first choice is the euler
-	* algorithm and the second choice is the Euler Cromer algorithm.
+	* position change of each particle. The current electric and
+	* magnetic fields of fieldIn are copied into uniformField, which is
+	* reused from step to step, and applied to every particle.
   *
   * @param deltaTime The time interval used in the simulation
 	* @param fieldIn The user defined EM field
   */
 	public void updateBunch(double deltaTime, DynamicField fieldIn){
-		for (int i = 0; i < numberParticles; i++){
-			 fieldIn.calculateAcceleration(ChargedParticles[i]);
-			 if (choice == 1){
-				 ChargedParticles[i].euler(deltaTime, fieldIn.getAcceleration());
-			 }
-			 else if (choice == 2){
-				 ChargedParticles[i].eulerCromer(deltaTime, fieldIn.getAcceleration());
-			 }
+		uniformField.electric.setVector(fieldIn.electric);
+		uniformField.magnetic.setVector(fieldIn.magnetic);
+		updateBunch(deltaTime, 0, uniformField);
+	}
+
+	/**
+  * According to the integrator chosen each particle in the bunch is
+	* moved due the force exerted on it by the electromagnetic field,
+	* evaluated at the position of the particle and the given time.
+	* Any part of the field that depends on time alone is worked out
+	* once for the step with FieldEvaluator.atTime. The field is only
+	* read, so if a pool has been set the bunch is split between its
+	* threads. If a space charge solver has been set
+	* it is first updated with the particles, and its field is added to
+	* fieldIn for the step. If an aperture has been set the particles
+	* that end the step outside it are recorded and removed. If metrics
+	* have been set the time of the solver update and of the push are
+	* recorded.
+  *
+  * @param deltaTime The time interval used in the simulation
+	* @param timeIn The time at which the field is evaluated
+	* @param fieldIn The user defined EM field
+  */
+	public void updateBunch(double deltaTime, double timeIn,
+	FieldEvaluator fieldIn){
+		boolean measured = SimulationMetrics.ENABLED && metrics != null;
+		long start = measured ? System.nanoTime() : 0;
+		fieldIn = fieldIn.atTime(timeIn);
+		if (spaceCharge != null){
+			spaceCharge.update(particles, pool);
+			fieldIn = new SpaceChargeField(fieldIn, spaceCharge);
+			if (measured){
+				metrics.record(SimulationMetrics.FIELD, start, numberParticles);
+				start = System.nanoTime();
+			}
+		}
+		if (pool == null || numberParticles <= grainSize){
+			pushRange(0, numberParticles, deltaTime, timeIn, fieldIn);
+		}
+		else {
+			pool.invoke(new PushTask(0, numberParticles, deltaTime, timeIn,
+			fieldIn));
+		}
+		removeLosses(timeIn);
+		if (measured){
+			metrics.record(SimulationMetrics.PUSH, start, numberParticles);
+		}
+	}
+
+	/**
+  * Moves the particles with indices from start up to, but not
+	* including, end with the integrator chosen.
+  *
+	* @param start The index of the first particle
+	* @param end One past the index of the last particle
+  * @param deltaTime The time interval used in the simulation
+	* @param timeIn The time at which the field is evaluated
+	* @param fieldIn The user defined EM field
+  */
+	protected void pushRange(int start, int end, double deltaTime,
+	double timeIn, FieldEvaluator fieldIn){
+		integrator.push(particles, start, end, deltaTime, timeIn, fieldIn,
+		kernel);
+		if (aperture != null){
+			findLosses(particles, start, end, start);
+		}
+	}
+
+	/**
+  * Checks a range of particles of a store against the aperture and
+	* adds those outside it to the pending losses. Ranges may be checked
+	* on several threads at once.
+  *
+	* @param storeIn The store holding the particles
+	* @param from The index in the store of the first particle
+	* @param to One past the index in the store of the last particle
+	* @param first The index in the bunch of the first particle
+  */
+	protected void findLosses(ParticleStore storeIn, int from, int to,
+	int first){
+		int[] found = null;
+		int count = 0;
+		for (int i = from; i < to; i++){
+			if (aperture.isLost(storeIn.x[i], storeIn.y[i], storeIn.z[i])){
+				if (found == null){
+					found = new int[to - i];
+				}
+				found[count++] = first + i - from;
+			}
+		}
+		if (count > 0){
+			synchronized (this){
+				if (pendingCount + count > pending.length){
+					pending = Arrays.copyOf(pending, Math.max(2*pending.length,
+					pendingCount + count));
+				}
+				System.arraycopy(found, 0, pending, pendingCount, count);
+				pendingCount += count;
+			}
+		}
+	}
+
+	/**
+  * Records the particles found outside the aperture during a step and
+	* removes them from the bunch, so later steps only push the
+	* survivors. Each is replaced by the last particle of the bunch, so
+	* only as many particles are moved as were lost and the cost does not
+	* grow with the size of the bunch. The ids of the particles stay with
+	* them. The losses are handled in order of index, so the result does
+	* not depend on which threads found them.
+  *
+	* @param timeIn The time of the step
+  */
+	protected void removeLosses(double timeIn){
+		if (pendingCount == 0){
+			return;
+		}
+		Arrays.sort(pending, 0, pendingCount);
+		if ((lossCount + pendingCount)*LOSS_WIDTH > losses.length){
+			losses = Arrays.copyOf(losses, Math.max(2*losses.length,
+			(lossCount + pendingCount)*LOSS_WIDTH));
+		}
+		for (int k = 0; k < pendingCount; k++){
+			recordLoss(pending[k], timeIn, losses, lossCount*LOSS_WIDTH);
+			lossCount++;
+		}
+		for (int k = pendingCount - 1; k >= 0; k--){
+			int last = numberParticles - 1;
+			if (pending[k] != last){
+				moveParticle(last, pending[k]);
+			}
+			numberParticles--;
+		}
+		particles.truncate(numberParticles);
+		lostCount += pendingCount;
+		pendingCount = 0;
+	}
+
+	/**
+  * Writes the record of a lost particle: the time, its id, and its
+	* position and velocity.
+  *
+	* @param i The index of the particle
+	* @param timeIn The time of the step
+	* @param recordOut The array the record is written to
+	* @param offset Where in the array the record starts
+  */
+	protected void recordLoss(int i, double timeIn, double[] recordOut,
+	int offset){
+		recordOut[offset] = timeIn;
+		recordOut[offset + 1] = particles.id[i];
+		recordOut[offset + 2] = particles.x[i];
+		recordOut[offset + 3] = particles.y[i];
+		recordOut[offset + 4] = particles.z[i];
+		recordOut[offset + 5] = particles.vx[i];
+		recordOut[offset + 6] = particles.vy[i];
+		recordOut[offset + 7] = particles.vz[i];
+	}
+
+	/**
+  * Copies every property of one particle into the place of another.
+  *
+	* @param from The index of the particle copied
+	* @param to The index it is copied to
+  */
+	protected void moveParticle(int from, int to){
+		particles.move(from, to);
+	}
+
+	/**
+	* Task which pushes a range of particles, splitting it in half
+	* until each piece is no larger than the grain size.
+	*/
+	protected class PushTask extends RecursiveAction{
+
+		protected int start, end;
+		protected double deltaTime, time;
+		protected FieldEvaluator field;
+
+		/**
+		* Constructor that sets the range of particles and the step.
+		*
+		* @param startIn The index of the first particle
+		* @param endIn One past the index of the last particle
+		* @param deltaTimeIn The time interval used in the simulation
+		* @param timeIn The time at which the field is evaluated
+		* @param fieldIn The user defined EM field
+		*/
+		protected PushTask(int startIn, int endIn, double deltaTimeIn,
+		double timeIn, FieldEvaluator fieldIn){
+			start = startIn;
+			end = endIn;
+			deltaTime = deltaTimeIn;
+			time = timeIn;
+			field = fieldIn;
+		}
+
+		/**
+		* Pushes the range directly or splits it between two subtasks.
+		*/
+		protected void compute(){
+			if (end - start <= grainSize){
+				pushRange(start, end, deltaTime, time, field);
+			}
+			else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new PushTask(start, middle, deltaTime, time, field),
+				new PushTask(middle, end, deltaTime, time, field));
+			}
+		}
+	}
+
+	/**
+  * Moves every particle through a beamline element, or a whole line of
+	* them, with its transfer map rather than the integrator. If a pool
+	* has been set the bunch is split between its threads. If an aperture
+	* has been set the particles that leave the element outside it are
+	* recorded and removed. If metrics have been set the time is recorded
+	* as a push.
+  *
+	* @param mapIn The transfer map of the element
+	* @param timeIn The time at which the particles leave the element
+  */
+	public void applyMap(TransferMap mapIn, double timeIn){
+		boolean measured = SimulationMetrics.ENABLED && metrics != null;
+		long start = measured ? System.nanoTime() : 0;
+		if (pool == null || numberParticles <= grainSize){
+			mapRange(0, numberParticles, mapIn);
+		}
+		else {
+			pool.invoke(new MapTask(0, numberParticles, mapIn));
+		}
+		removeLosses(timeIn);
+		if (measured){
+			metrics.record(SimulationMetrics.PUSH, start, numberParticles);
+		}
+	}
+
+	/**
+  * Maps the particles with indices from start up to, but not
+	* including, end.
+  *
+	* @param start The index of the first particle
+	* @param end One past the index of the last particle
+	* @param mapIn The transfer map of the element
+  */
+	protected void mapRange(int start, int end, TransferMap mapIn){
+		mapIn.apply(particles, start, end);
+		if (aperture != null){
+			findLosses(particles, start, end, start);
+		}
+	}
+
+	/**
+	* Task which maps a range of particles, splitting it in half until
+	* each piece is no larger than the grain size.
+	*/
+	protected class MapTask extends RecursiveAction{
+
+		protected int start, end;
+		protected TransferMap map;
+
+		/**
+		* Constructor that sets the range of particles and the map.
+		*
+		* @param startIn The index of the first particle
+		* @param endIn One past the index of the last particle
+		* @param mapIn The transfer map of the element
+		*/
+		protected MapTask(int startIn, int endIn, TransferMap mapIn){
+			start = startIn;
+			end = endIn;
+			map = mapIn;
+		}
+
+		/**
+		* Maps the range directly or splits it between two subtasks.
+		*/
+		protected void compute(){
+			if (end - start <= grainSize){
+				mapRange(start, end, map);
+			}
+			else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new MapTask(start, middle, map),
+				new MapTask(middle, end, map));
+			}
 		}
 	}
 
@@ -126,11 +838,104 @@ public class ParticleBunch extends ChargedParticle{
 	* of time and dividing by the total number of particles in the bunch.
 	*/
 	public void calculateAverage(){
-		averagePosition = new PhysicsVector(ChargedParticles[0].getPosition());
+		if (numberParticles == 0){
+			averagePosition.setVector(Double.NaN, Double.NaN, Double.NaN);
+			return;
+		}
+		boolean measured = SimulationMetrics.ENABLED && metrics != null;
+		long start = measured ? System.nanoTime() : 0;
+		double sumX = particles.x[0];
+		double sumY = particles.y[0];
+		double sumZ = particles.z[0];
 		for (int i = 1; i < numberParticles; i++){
-			averagePosition.increaseBy(ChargedParticles[i].getPosition());
+			sumX += particles.x[i];
+			sumY += particles.y[i];
+			sumZ += particles.z[i];
 		}
+		averagePosition.setVector(sumX, sumY, sumZ);
 		averagePosition.scale(1.00/numberParticles);
+		if (measured){
+			metrics.record(SimulationMetrics.AVERAGE, start, numberParticles);
+		}
+	}
+
+	/**
+	* The full beam statistics are calculated in one pass over the
+	* bunch: the centroid, RMS sizes, emittances, Twiss parameters,
+	* energy spread and centroid momentum. If a pool has been set the
+	* bunch is split between its threads and the partial results are
+	* merged. The average position is set to the centroid.
+	*/
+	public void calculateStatistics(){
+		if (pool == null || numberParticles <= grainSize){
+			statistics = new BeamStatistics();
+			accumulateRange(statistics, 0, numberParticles);
+		}
+		else {
+			statistics = pool.invoke(new StatisticsTask(0, numberParticles));
+		}
+		averagePosition = statistics.getMeanPosition();
 	}
 
+	/**
+  * Adds the particles with indices from start up to, but not
+	* including, end to the statistics.
+  *
+	* @param statisticsIn The statistics to add to
+	* @param start The index of the first particle
+	* @param end One past the index of the last particle
+  */
+	protected void accumulateRange(BeamStatistics statisticsIn, int start,
+	int end){
+		statisticsIn.accumulate(particles, start, end);
+	}
+
+	/**
+  * Return the beam statistics from the last call to calculateStatistics
+  *
+  * @return The beam statistics
+  */
+	public BeamStatistics getStatistics(){
+		return statistics;
+	}
+
+	/**
+	* Task which calculates the statistics of a range of particles,
+	* splitting it in half until each piece is no larger than the grain
+	* size and merging the results.
+	*/
+	protected class StatisticsTask extends RecursiveTask<BeamStatistics>{
+
+		protected int start, end;
+
+		/**
+		* Constructor that sets the range of particles.
+		*
+		* @param startIn The index of the first particle
+		* @param endIn One past the index of the last particle
+		*/
+		protected StatisticsTask(int startIn, int endIn){
+			start = startIn;
+			end = endIn;
+		}
+
+		/**
+		* Calculates the statistics directly or merges two subtasks.
+		*
+		* @return The statistics of the range
+		*/
+		protected BeamStatistics compute(){
+			if (end - start <= grainSize){
+				BeamStatistics result = new BeamStatistics();
+				accumulateRange(result, start, end);
+				return result;
+			}
+			int middle = (start + end) >>> 1;
+			StatisticsTask upper = new StatisticsTask(middle, end);
+			upper.fork();
+			BeamStatistics result = new StatisticsTask(start, middle).compute();
+			result.merge(upper.join());
+			return result;
+		}
+	}
 }
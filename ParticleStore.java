@@ -0,0 +1,545 @@
+/**
+ * Class which stores the state of many charged particles as a
+ * structure of arrays. Rather than holding one object per particle,
+ * each property (x, y and z position, velocity and acceleration,
+ * mass and charge) is kept in its own contiguous primitive array,
+ * indexed by particle number. This is so that loops over a whole
+ * bunch read memory sequentially.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.8
+ */
+public class ParticleStore{
+
+  /**
+  * X to ID are the positions of the per particle arrays in columns,
+  * with the position and velocity together from X to VZ, and COLUMNS
+  * is the number of arrays.
+  */
+  protected static final int X = 0, Y = 1, Z = 2, VX = 3, VY = 4, VZ = 5;
+  protected static final int AX = 6, AY = 7, AZ = 8, MASS = 9, CHARGE = 10;
+  protected static final int STEP_SIZE = 11, GAMMA = 12, ID = 13;
+  protected static final int COLUMNS = 14;
+
+  /**
+  * size is the number of particles held. The remaining arrays hold
+  * the components of position, velocity and acceleration, and the
+  * mass and charge of each particle. stepSize holds the last time
+  * interval chosen for each particle by an adaptive integrator, or
+  * zero if none has been chosen yet. gamma holds the Lorentz factor
+  * of each particle for the relativistic Boris algorithm, which keeps
+  * it up to date along with setVelocity, updateGamma and transfer
+  * maps. The other algorithms are non-relativistic and leave it
+  * unchanged, so readers which need it for any algorithm, such as
+  * BeamStatistics, work it out from the velocity. id holds the number
+  * each particle was given when the store was made, which stays with
+  * it when lost particles are removed and the survivors moved to fill
+  * their places.
+  */
+  protected int size;
+  protected double[] x, y, z, vx, vy, vz, ax, ay, az, mass, charge;
+  protected double[] stepSize, gamma, id;
+
+  /**
+  * Constructor that allocates storage for a given number of
+  * particles. Every property is set to zero, except the Lorentz
+  * factor which is one and the id which is the index of the particle.
+  *
+  * @param sizeIn user determined number of particles
+  */
+  public ParticleStore(int sizeIn)
+  {
+    size = sizeIn;
+    x = new double[size];
+    y = new double[size];
+    z = new double[size];
+    vx = new double[size];
+    vy = new double[size];
+    vz = new double[size];
+    ax = new double[size];
+    ay = new double[size];
+    az = new double[size];
+    mass = new double[size];
+    charge = new double[size];
+    stepSize = new double[size];
+    gamma = new double[size];
+    java.util.Arrays.fill(gamma, 1);
+    id = new double[size];
+    for (int i = 0; i < size; i++)
+    {
+      id[i] = i;
+    }
+  }
+
+  /**
+  * Return the number of particles
+  *
+  * @return The number of particles
+  */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+  * Return the id of a particle, the index it had when the store was
+  * made
+  *
+  * @param i The index of the particle
+  * @return The id
+  */
+  public long getId(int i)
+  {
+    return (long) id[i];
+  }
+
+  /**
+  * Reduces the number of particles held, keeping the first sizeIn. The
+  * arrays keep their length, so loops over the store only reach the
+  * particles that remain.
+  *
+  * @param sizeIn The number of particles to keep
+  */
+  public void truncate(int sizeIn)
+  {
+    size = Math.max(0, Math.min(size, sizeIn));
+  }
+
+  /**
+  * Copies every property of one particle into the place of another.
+  *
+  * @param from The index of the particle copied
+  * @param to The index it is copied to
+  */
+  public void move(int from, int to)
+  {
+    for (double[] column : columns())
+    {
+      column[to] = column[from];
+    }
+  }
+
+  /**
+  * Return every per particle array, each at the position given by X to
+  * ID, so that the whole state can be copied or saved column by column.
+  *
+  * @return The arrays
+  */
+  protected double[][] columns()
+  {
+    double[][] columns = new double[COLUMNS][];
+    columns[X] = x;
+    columns[Y] = y;
+    columns[Z] = z;
+    columns[VX] = vx;
+    columns[VY] = vy;
+    columns[VZ] = vz;
+    columns[AX] = ax;
+    columns[AY] = ay;
+    columns[AZ] = az;
+    columns[MASS] = mass;
+    columns[CHARGE] = charge;
+    columns[STEP_SIZE] = stepSize;
+    columns[GAMMA] = gamma;
+    columns[ID] = id;
+    return columns;
+  }
+
+  /**
+  * Makes this store an exact copy of another, reusing its arrays when
+  * they are large enough.
+  *
+  * @param storeIn The store to copy
+  */
+  public void copyFrom(ParticleStore storeIn)
+  {
+    if (x.length < storeIn.size)
+    {
+      size = storeIn.size;
+      x = new double[size];
+      y = new double[size];
+      z = new double[size];
+      vx = new double[size];
+      vy = new double[size];
+      vz = new double[size];
+      ax = new double[size];
+      ay = new double[size];
+      az = new double[size];
+      mass = new double[size];
+      charge = new double[size];
+      stepSize = new double[size];
+      gamma = new double[size];
+      id = new double[size];
+    }
+    size = storeIn.size;
+    double[][] from = storeIn.columns(), to = columns();
+    for (int c = 0; c < to.length; c++)
+    {
+      System.arraycopy(from[c], 0, to[c], 0, size);
+    }
+  }
+
+  /**
+  * Return the x position of a particle
+  *
+  * @param i The index of the particle
+  * @return The x position
+  */
+  public double getX(int i)
+  {
+    return x[i];
+  }
+
+  /**
+  * Return the y position of a particle
+  *
+  * @param i The index of the particle
+  * @return The y position
+  */
+  public double getY(int i)
+  {
+    return y[i];
+  }
+
+  /**
+  * Return the z position of a particle
+  *
+  * @param i The index of the particle
+  * @return The z position
+  */
+  public double getZ(int i)
+  {
+    return z[i];
+  }
+
+  /**
+  * Return the x velocity of a particle
+  *
+  * @param i The index of the particle
+  * @return The x velocity
+  */
+  public double getVX(int i)
+  {
+    return vx[i];
+  }
+
+  /**
+  * Return the y velocity of a particle
+  *
+  * @param i The index of the particle
+  * @return The y velocity
+  */
+  public double getVY(int i)
+  {
+    return vy[i];
+  }
+
+  /**
+  * Return the z velocity of a particle
+  *
+  * @param i The index of the particle
+  * @return The z velocity
+  */
+  public double getVZ(int i)
+  {
+    return vz[i];
+  }
+
+  /**
+  * Return the mass of a particle
+  *
+  * @param i The index of the particle
+  * @return The mass
+  */
+  public double getMass(int i)
+  {
+    return mass[i];
+  }
+
+  /**
+  * Return the charge of a particle
+  *
+  * @param i The index of the particle
+  * @return The charge
+  */
+  public double getCharge(int i)
+  {
+    return charge[i];
+  }
+
+  /**
+  * Return the Lorentz factor of a particle
+  *
+  * @param i The index of the particle
+  * @return The Lorentz factor
+  */
+  public double getGamma(int i)
+  {
+    return gamma[i];
+  }
+
+  /**
+  * Set the position of a particle
+  *
+  * @param i The index of the particle
+  * @param xIn The new x position
+  * @param yIn The new y position
+  * @param zIn The new z position
+  */
+  public void setPosition(int i, double xIn, double yIn, double zIn)
+  {
+    x[i] = xIn;
+    y[i] = yIn;
+    z[i] = zIn;
+  }
+
+  /**
+  * Set the velocity of a particle and work out its Lorentz factor
+  *
+  * @param i The index of the particle
+  * @param vxIn The new x velocity
+  * @param vyIn The new y velocity
+  * @param vzIn The new z velocity
+  */
+  public void setVelocity(int i, double vxIn, double vyIn, double vzIn)
+  {
+    vx[i] = vxIn;
+    vy[i] = vyIn;
+    vz[i] = vzIn;
+    gamma[i] = RelativisticParticle.lorentzFactor(vxIn, vyIn, vzIn);
+  }
+
+  /**
+  * Set the acceleration of a particle
+  *
+  * @param i The index of the particle
+  * @param axIn The new x acceleration
+  * @param ayIn The new y acceleration
+  * @param azIn The new z acceleration
+  */
+  public void setAcceleration(int i, double axIn, double ayIn, double azIn)
+  {
+    ax[i] = axIn;
+    ay[i] = ayIn;
+    az[i] = azIn;
+  }
+
+  /**
+  * Copies the state of a charged particle into the store.
+  *
+  * @param i The index of the particle
+  * @param particleIn The particle to copy from
+  */
+  public void setParticle(int i, ChargedParticle particleIn)
+  {
+    setPosition(i, particleIn.position.getX(), particleIn.position.getY(),
+    particleIn.position.getZ());
+    setVelocity(i, particleIn.velocity.getX(), particleIn.velocity.getY(),
+    particleIn.velocity.getZ());
+    setAcceleration(i, particleIn.acceleration.getX(),
+    particleIn.acceleration.getY(), particleIn.acceleration.getZ());
+    mass[i] = particleIn.getMass();
+    charge[i] = particleIn.getCharge();
+  }
+
+  /**
+  * Return a charged particle object holding a copy of the state of
+  * one particle. Changes to the returned object are not written
+  * back to the store.
+  *
+  * @param i The index of the particle
+  * @return A copy of the particle
+  */
+  public ChargedParticle getParticle(int i)
+  {
+    ChargedParticle particle = new ChargedParticle(mass[i], charge[i],
+    new PhysicsVector(x[i], y[i], z[i]),
+    new PhysicsVector(vx[i], vy[i], vz[i]));
+    particle.setAcceleration(new PhysicsVector(ax[i], ay[i], az[i]));
+    return particle;
+  }
+
+  /**
+  * Implement the Euler algorithm on a single particle:
+  * r_(n+1) = r_(n) + v_(n)*t
+  * v_(n+1) = v_(n) + a_(n)*t
+  *
+  * @param i The index of the particle
+  * @param deltaTime The time interval
+  */
+  public void euler(int i, double deltaTime)
+  {
+    x[i] += deltaTime*vx[i];
+    y[i] += deltaTime*vy[i];
+    z[i] += deltaTime*vz[i];
+    vx[i] += deltaTime*ax[i];
+    vy[i] += deltaTime*ay[i];
+    vz[i] += deltaTime*az[i];
+  }
+
+  /**
+  * Implement the Euler Cromer algorithm on a single particle:
+  * v_(n+1) = v_(n) + a_(n)*t
+  * r_(n+1) = r_(n) + v_(n+1)*t
+  *
+  * @param i The index of the particle
+  * @param deltaTime The time interval
+  */
+  public void eulerCromer(int i, double deltaTime)
+  {
+    vx[i] += deltaTime*ax[i];
+    vy[i] += deltaTime*ay[i];
+    vz[i] += deltaTime*az[i];
+    x[i] += deltaTime*vx[i];
+    y[i] += deltaTime*vy[i];
+    z[i] += deltaTime*vz[i];
+  }
+
+  /**
+  * Implement the Boris algorithm on a single particle, which splits
+  * the electric acceleration into two half steps either side of a
+  * rotation of the velocity about the magnetic field:
+  * v- = v_(n) + (q/m)*E*t/2
+  * v+ = v- rotated about B through the gyration angle for time t
+  * v_(n+1) = v+ + (q/m)*E*t/2
+  * r_(n+1) = r_(n) + v_(n+1)*t
+  *
+  * The rotation conserves the speed exactly in a magnetic field, so
+  * orbits neither spiral in nor out at large time intervals. The
+  * acceleration stored is the mean acceleration over the step.
+  *
+  * @param i The index of the particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric field in [0] to [2] and the magnetic
+  * flux density in [3] to [5]
+  */
+  public void boris(int i, double deltaTime, double[] fieldsIn)
+  {
+    double halfStep = (charge[i]/mass[i])*(0.5*deltaTime);
+    double tx = halfStep*fieldsIn[3];
+    double ty = halfStep*fieldsIn[4];
+    double tz = halfStep*fieldsIn[5];
+    double factor = 2/(1 + (tx*tx + ty*ty + tz*tz));
+    double sx = tx*factor;
+    double sy = ty*factor;
+    double sz = tz*factor;
+
+    double minusX = vx[i] + halfStep*fieldsIn[0];
+    double minusY = vy[i] + halfStep*fieldsIn[1];
+    double minusZ = vz[i] + halfStep*fieldsIn[2];
+    double primeX = minusX + (minusY*tz - minusZ*ty);
+    double primeY = minusY + (minusZ*tx - minusX*tz);
+    double primeZ = minusZ + (minusX*ty - minusY*tx);
+    double plusX = minusX + (primeY*sz - primeZ*sy);
+    double plusY = minusY + (primeZ*sx - primeX*sz);
+    double plusZ = minusZ + (primeX*sy - primeY*sx);
+
+    double newX = plusX + halfStep*fieldsIn[0];
+    double newY = plusY + halfStep*fieldsIn[1];
+    double newZ = plusZ + halfStep*fieldsIn[2];
+    ax[i] = (newX - vx[i])/deltaTime;
+    ay[i] = (newY - vy[i])/deltaTime;
+    az[i] = (newZ - vz[i])/deltaTime;
+    vx[i] = newX;
+    vy[i] = newY;
+    vz[i] = newZ;
+    x[i] += deltaTime*newX;
+    y[i] += deltaTime*newY;
+    z[i] += deltaTime*newZ;
+  }
+
+  /**
+  * Works out the Lorentz factor of a range of particles from their
+  * velocities, after their speeds have been changed by something other
+  * than the relativistic Boris algorithm, before it is used again.
+  *
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  */
+  public void updateGamma(int start, int end)
+  {
+    for (int i = start; i < end; i++)
+    {
+      gamma[i] = RelativisticParticle.lorentzFactor(vx[i], vy[i], vz[i]);
+    }
+  }
+
+  /**
+  * Implement the relativistic Boris algorithm on a single particle.
+  * It works with u = gamma*v, so that the momentum is m*u:
+  * u- = u_(n) + (q/m)*E*t/2
+  * u+ = u- rotated about B through the gyration angle for time t,
+  * using the Lorentz factor of u-
+  * u_(n+1) = u+ + (q/m)*E*t/2
+  * r_(n+1) = r_(n) + v_(n+1)*t
+  *
+  * The cached Lorentz factor of the particle is used to form u_(n)
+  * and then replaced by the Lorentz factor of u_(n+1). Where there is
+  * no electric field the rotation leaves |u| unchanged, so the cached
+  * factor is reused and no square roots are taken. The acceleration
+  * stored is the mean acceleration over the step.
+  *
+  * @param i The index of the particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric field in [0] to [2] and the magnetic
+  * flux density in [3] to [5]
+  */
+  public void relativisticBoris(int i, double deltaTime, double[] fieldsIn)
+  {
+    double inverseCSquared = 1/(RelativisticParticle.SPEED_OF_LIGHT
+    *RelativisticParticle.SPEED_OF_LIGHT);
+    double halfStep = (charge[i]/mass[i])*(0.5*deltaTime);
+    double minusX = gamma[i]*vx[i] + halfStep*fieldsIn[0];
+    double minusY = gamma[i]*vy[i] + halfStep*fieldsIn[1];
+    double minusZ = gamma[i]*vz[i] + halfStep*fieldsIn[2];
+
+    boolean magneticOnly = fieldsIn[0] == 0 && fieldsIn[1] == 0
+    && fieldsIn[2] == 0;
+    double minusGamma = gamma[i];
+    if (!magneticOnly)
+    {
+      minusGamma = Math.sqrt(1 + (minusX*minusX + minusY*minusY
+      + minusZ*minusZ)*inverseCSquared);
+    }
+    double rotation = halfStep/minusGamma;
+    double tx = rotation*fieldsIn[3];
+    double ty = rotation*fieldsIn[4];
+    double tz = rotation*fieldsIn[5];
+    double factor = 2/(1 + (tx*tx + ty*ty + tz*tz));
+    double sx = tx*factor;
+    double sy = ty*factor;
+    double sz = tz*factor;
+
+    double primeX = minusX + (minusY*tz - minusZ*ty);
+    double primeY = minusY + (minusZ*tx - minusX*tz);
+    double primeZ = minusZ + (minusX*ty - minusY*tx);
+    double plusX = minusX + (primeY*sz - primeZ*sy);
+    double plusY = minusY + (primeZ*sx - primeX*sz);
+    double plusZ = minusZ + (primeX*sy - primeY*sx);
+
+    double newX = plusX + halfStep*fieldsIn[0];
+    double newY = plusY + halfStep*fieldsIn[1];
+    double newZ = plusZ + halfStep*fieldsIn[2];
+    double newGamma = minusGamma;
+    if (!magneticOnly)
+    {
+      newGamma = Math.sqrt(1 + (newX*newX + newY*newY + newZ*newZ)
+      *inverseCSquared);
+    }
+    double inverseGamma = 1/newGamma;
+    newX *= inverseGamma;
+    newY *= inverseGamma;
+    newZ *= inverseGamma;
+    double inverseTime = 1/deltaTime;
+    ax[i] = (newX - vx[i])*inverseTime;
+    ay[i] = (newY - vy[i])*inverseTime;
+    az[i] = (newZ - vz[i])*inverseTime;
+    vx[i] = newX;
+    vy[i] = newY;
+    vz[i] = newZ;
+    gamma[i] = newGamma;
+    x[i] += deltaTime*newX;
+    y[i] += deltaTime*newY;
+    z[i] += deltaTime*newZ;
+  }
+}
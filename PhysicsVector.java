@@ -7,7 +7,7 @@
 *
 * @author Iain A. Bertram
 * @author Ian Bailey
-* @version 1.5
+* @version 1.6
 **/
 public class PhysicsVector{
 	// Fix the dimension of the array representing the vectors
@@ -361,6 +361,22 @@ public class PhysicsVector{
 		return scaled;
 	}
 
+	/**
+	* Add a scaled vector to this vector without creating a new one.
+	* I.e. if the scalar is s and the vector v is ri + sj + tk then
+	* this vector xi + yj + zk transforms to (x+sr)i + (y+ss)j + (z+st)k
+	*
+	* @param x the factor to scale v by before it is added.
+	* @param v the vector to be scaled and added to this vector.
+	**/
+	public void addScaled(double x, PhysicsVector v)
+	{
+		for (int i=0; i<vectorComponents.length; i++)
+		{
+			vectorComponents[i] += v.vectorComponents[i]*x;
+		}
+	}
+
 	/**
 	* Standard vector scalar product. If xi + yj + zk and
 	* ri + sj + tk then the dot product returns xr+ys+zt
@@ -407,6 +423,57 @@ public class PhysicsVector{
 		return product;
 	}
 
+	/**
+	* Standard vector (cross) product between two 3D vectors u and v,
+	* written into an existing vector rather than a new one. The
+	* output vector may be the same object as u or v.
+	*
+	* @param u first vector
+	* @param v second vector
+	* @param product the vector which receives the product of u and v
+	**/
+	public static void cross(PhysicsVector u, PhysicsVector v,
+	PhysicsVector product)
+	{
+		double x = u.vectorComponents[1]*v.vectorComponents[2]
+		- u.vectorComponents[2]*v.vectorComponents[1];
+		double y = u.vectorComponents[2]*v.vectorComponents[0]
+		- u.vectorComponents[0]*v.vectorComponents[2];
+		double z = u.vectorComponents[0]*v.vectorComponents[1]
+		- u.vectorComponents[1]*v.vectorComponents[0];
+
+		product.vectorComponents[0] = x;
+		product.vectorComponents[1] = y;
+		product.vectorComponents[2] = z;
+	}
+
+	/**
+	* Lorentz force law for a charge moving with velocity v through
+	* an electric field e and magnetic field b. The acceleration
+	* (q/m)*(e + vxb) is written into an existing vector, which may
+	* be the same object as any of the inputs.
+	*
+	* @param chargeOverMass the charge to mass ratio q/m
+	* @param e the electric field strength
+	* @param v the velocity of the charge
+	* @param b the magnetic flux density
+	* @param acceleration the vector which receives the acceleration
+	**/
+	public static void lorentz(double chargeOverMass, PhysicsVector e,
+	PhysicsVector v, PhysicsVector b, PhysicsVector acceleration)
+	{
+		double[] ec = e.vectorComponents;
+		double[] vc = v.vectorComponents;
+		double[] bc = b.vectorComponents;
+		double x = (ec[0] + (vc[1]*bc[2] - vc[2]*bc[1]))*chargeOverMass;
+		double y = (ec[1] + (vc[2]*bc[0] - vc[0]*bc[2]))*chargeOverMass;
+		double z = (ec[2] + (vc[0]*bc[1] - vc[1]*bc[0]))*chargeOverMass;
+
+		acceleration.vectorComponents[0] = x;
+		acceleration.vectorComponents[1] = y;
+		acceleration.vectorComponents[2] = z;
+	}
+
 	/**
 	* Standard vector addition. If the two vectors are
 	* xi + yj + zk and ri + sj + tk, then the method
@@ -0,0 +1,101 @@
+/**
+ * Interface for a kernel which pushes a range of particles held in a
+ * particle store through a uniform electromagnetic field. The kernel
+ * calculates the Lorentz acceleration a = (q/m)*(E + vxB) of every
+ * particle and then moves it with the chosen algorithm, or rotates
+ * its velocity with the Boris or relativistic Boris algorithm.
+ *
+ * select returns the SIMD kernel built on the Java Vector API when
+ * the jdk.incubator.vector module is available, and the scalar kernel
+ * otherwise.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.3
+ */
+public interface PushKernel{
+
+  /**
+  * Pushes the particles from start up to, but not including, end
+  * with the Euler algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric field in [0] to [2] and the magnetic
+  * flux density in [3] to [5]
+  */
+  void euler(ParticleStore storeIn, int start, int end, double deltaTime,
+  double[] fieldsIn);
+
+  /**
+  * Pushes the particles from start up to, but not including, end
+  * with the Euler Cromer algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric field in [0] to [2] and the magnetic
+  * flux density in [3] to [5]
+  */
+  void eulerCromer(ParticleStore storeIn, int start, int end,
+  double deltaTime, double[] fieldsIn);
+
+  /**
+  * Pushes the particles from start up to, but not including, end
+  * with the Boris algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric field in [0] to [2] and the magnetic
+  * flux density in [3] to [5]
+  */
+  void boris(ParticleStore storeIn, int start, int end, double deltaTime,
+  double[] fieldsIn);
+
+  /**
+  * Pushes the particles from start up to, but not including, end
+  * with the relativistic Boris algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric field in [0] to [2] and the magnetic
+  * flux density in [3] to [5]
+  */
+  void relativisticBoris(ParticleStore storeIn, int start, int end,
+  double deltaTime, double[] fieldsIn);
+
+  /**
+  * Returns the fastest kernel available. The SIMD kernel is only
+  * present when compiled and run with
+  * --add-modules jdk.incubator.vector, otherwise the scalar kernel
+  * is returned. The SIMD kernel is looked for in the package of this
+  * interface, so the classes may also be compiled into a package, as
+  * the benchmarks are.
+  *
+  * @return The push kernel
+  */
+  static PushKernel select()
+  {
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+    {
+      try
+      {
+        String packageName = PushKernel.class.getPackageName();
+        return (PushKernel) Class.forName(packageName.isEmpty() ?
+        "VectorPushKernel" : packageName + ".VectorPushKernel")
+        .getDeclaredConstructor().newInstance();
+      }
+      catch (ReflectiveOperationException | LinkageError e)
+      {
+        // The SIMD kernel was not compiled, fall back to scalar code
+      }
+    }
+    return new ScalarPushKernel();
+  }
+}
@@ -0,0 +1,58 @@
+/**
+ * Class which represents the magnetic field of a quadrupole whose axis
+ * is the z axis, gradient*(y, x, 0), filling all space. A positive
+ * gradient focuses a positive particle moving in +z in x and defocuses
+ * it in y. It is the field whose motion TransferMap.quadrupole solves,
+ * so a quadrupole can be integrated where its map is not accurate
+ * enough, for example far from the axis.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+public class QuadrupoleField implements FieldEvaluator{
+
+  /**
+  * gradient is the rate at which the field grows away from the axis.
+  */
+  protected double gradient;
+
+  /**
+  * Constructor that sets the gradient.
+  *
+  * @param gradientIn user determined field gradient
+  */
+  public QuadrupoleField(double gradientIn)
+  {
+    gradient = gradientIn;
+  }
+
+  /**
+  * Return the field gradient
+  *
+  * @return The gradient
+  */
+  public double getGradient()
+  {
+    return gradient;
+  }
+
+  /**
+  * Evaluates the field at a position and time.
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param timeIn The current time
+  * @param fieldsOut Buffer of at least six values for the result
+  */
+  public void fieldAt(double x, double y, double z, double timeIn,
+  double[] fieldsOut)
+  {
+    fieldsOut[0] = 0;
+    fieldsOut[1] = 0;
+    fieldsOut[2] = 0;
+    fieldsOut[3] = gradient*y;
+    fieldsOut[4] = gradient*x;
+    fieldsOut[5] = 0;
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Class represents an RF cavity or dee, an electric field which is
+ * uniform in space and varies in time following an RF waveform, which
+ * atTime works out once per step for every particle. Placed in a
+ * CompositeField region the field is confined to the cavity gap.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.1
+ */
+public class RFCavity extends EMField{
+
+  /**
+  * waveform multiplies the peak electric field, the electric field of
+  * the EMField, at each time. The magnetic field does not vary.
+  */
+  protected RFWaveform waveform;
+
+  /**
+  * Constructor that sets the peak electric field and the waveform.
+  *
+  * @param electricIn user determined peak electric field
+  * @param waveformIn user determined waveform
+  */
+  public RFCavity(PhysicsVector electricIn, RFWaveform waveformIn)
+  {
+    super(electricIn, new PhysicsVector());
+    waveform = waveformIn;
+  }
+
+  /**
+  * Return the waveform
+  *
+  * @return The waveform
+  */
+  public RFWaveform getWaveform()
+  {
+    return waveform;
+  }
+
+  /**
+  * Set the waveform
+  *
+  * @param waveformIn The waveform
+  */
+  public void setWaveform(RFWaveform waveformIn)
+  {
+    waveform = waveformIn;
+  }
+
+  /**
+  * Writes the peak electric field times the waveform at the given time,
+  * and the constant magnetic field, into a buffer.
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param timeIn The current time
+  * @param fieldsOut Buffer of at least six values for the result
+  */
+  public void fieldAt(double x, double y, double z, double timeIn,
+  double[] fieldsOut)
+  {
+    fieldWith(waveform.valueAt(timeIn), fieldsOut);
+  }
+
+  /**
+  * Return the field for one step, with the waveform worked out once
+  * at the time of the step.
+  *
+  * @param timeIn The time of the step
+  * @return The field for the step
+  */
+  public FieldEvaluator atTime(double timeIn)
+  {
+    return new Step(this, timeIn, waveform.valueAt(timeIn));
+  }
+
+  /**
+  * Writes the peak electric field times a value of the waveform, and
+  * the constant magnetic field, into a buffer.
+  *
+  * @param factor The value of the waveform
+  * @param fieldsOut Buffer of at least six values for the result
+  */
+  protected void fieldWith(double factor, double[] fieldsOut)
+  {
+    fieldsOut[0] = electric.getX()*factor;
+    fieldsOut[1] = electric.getY()*factor;
+    fieldsOut[2] = electric.getZ()*factor;
+    fieldsOut[3] = magnetic.getX();
+    fieldsOut[4] = magnetic.getY();
+    fieldsOut[5] = magnetic.getZ();
+  }
+
+  /**
+  * Class which holds a cavity at the time of one step together with
+  * the value of its waveform then.
+  */
+  protected static class Step implements FieldEvaluator{
+
+    protected RFCavity cavity;
+    protected double time, factor;
+
+    /**
+    * Constructor that sets the cavity, the time and the waveform value.
+    *
+    * @param cavityIn The cavity
+    * @param timeIn The time of the step
+    * @param factorIn The value of the waveform at that time
+    */
+    protected Step(RFCavity cavityIn, double timeIn, double factorIn)
+    {
+      cavity = cavityIn;
+      time = timeIn;
+      factor = factorIn;
+    }
+
+    /**
+    * Evaluates the field at a position and time, reusing the waveform
+    * value at the time of the step.
+    *
+    * @param x The x position
+    * @param y The y position
+    * @param z The z position
+    * @param timeIn The current time
+    * @param fieldsOut Buffer of at least six values for the result
+    */
+    public void fieldAt(double x, double y, double z, double timeIn,
+    double[] fieldsOut)
+    {
+      if (timeIn == time)
+      {
+        cavity.fieldWith(factor, fieldsOut);
+      }
+      else
+      {
+        cavity.fieldAt(x, y, z, timeIn, fieldsOut);
+      }
+    }
+
+    /**
+    * Return whether the field is the same at every position.
+    *
+    * @return true if the cavity field does not depend on position
+    */
+    public boolean isUniform()
+    {
+      return cavity.isUniform();
+    }
+  }
+}
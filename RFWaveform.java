@@ -0,0 +1,211 @@
+/**
+ * Class represents the time dependence of an RF field, a factor which
+ * multiplies the peak field of a cavity. The waveform is a sum of
+ * harmonics of a fundamental frequency, which may be ramped linearly in
+ * time as in a synchrocyclotron, multiplied by an amplitude envelope
+ * given as a piecewise linear table.
+ *
+ * The sine of the fundamental phase comes from a table with a short
+ * series correction, accurate to a few ulps, and the harmonics follow
+ * from it by phasor recurrence, so no transcendental function is
+ * called while the simulation runs. valueAt changes nothing, so it can
+ * be used from many threads at once. Fields driven by a waveform work
+ * it out once per step in FieldEvaluator.atTime, so every particle
+ * shares the one value.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.1
+ */
+
+import java.util.Arrays;
+
+public class RFWaveform{
+
+  /**
+  * TABLE_SIZE is the number of table entries per cycle, SINES and
+  * COSINES the tabulated sine and cosine, and STEP the angle between
+  * entries.
+  */
+  protected static final int TABLE_SIZE = 1024;
+  protected static final double STEP = 2*Math.PI/TABLE_SIZE;
+  protected static final double[] SINES = new double[TABLE_SIZE + 1];
+  protected static final double[] COSINES = new double[TABLE_SIZE + 1];
+
+  static
+  {
+    for (int i = 0; i <= TABLE_SIZE; i++)
+    {
+      SINES[i] = Math.sin(i*STEP);
+      COSINES[i] = Math.cos(i*STEP);
+    }
+  }
+
+  /**
+  * frequency is the fundamental frequency at time zero, ramp its rate
+  * of change and phase the phase at time zero in radians. amplitudes
+  * holds the amplitude of each harmonic, the first being the
+  * fundamental, and phaseCos and phaseSin the cosine and sine of its
+  * phase. envelopeTimes and envelopeValues tabulate the envelope, which
+  * is one when they are null.
+  */
+  protected double frequency, ramp, phase;
+  protected double[] amplitudes, phaseCos, phaseSin;
+  protected double[] envelopeTimes, envelopeValues;
+
+  /**
+  * Constructor for a pure sine wave, sin(2 pi f t).
+  *
+  * @param frequencyIn user determined frequency
+  */
+  public RFWaveform(double frequencyIn)
+  {
+    this(frequencyIn, 0, 0);
+  }
+
+  /**
+  * Constructor for a sine wave whose frequency changes linearly with
+  * time, sin(2 pi (f t + r t^2/2) + phase).
+  *
+  * @param frequencyIn user determined frequency at time zero
+  * @param rampIn user determined rate of change of frequency
+  * @param phaseIn user determined phase at time zero in radians
+  */
+  public RFWaveform(double frequencyIn, double rampIn, double phaseIn)
+  {
+    frequency = frequencyIn;
+    ramp = rampIn;
+    phase = phaseIn;
+    setHarmonics(new double[] {1}, new double[] {0});
+  }
+
+  /**
+  * Set the harmonic content of the waveform. Harmonic n, counting the
+  * fundamental as one, contributes amplitudes[n - 1]*sin(n theta +
+  * phases[n - 1]) where theta is the phase of the fundamental.
+  *
+  * @param amplitudesIn The amplitude of each harmonic
+  * @param phasesIn The phase of each harmonic in radians
+  */
+  public void setHarmonics(double[] amplitudesIn, double[] phasesIn)
+  {
+    if (amplitudesIn.length != phasesIn.length)
+    {
+      throw new IllegalArgumentException("Each harmonic needs an " +
+      "amplitude and a phase");
+    }
+    amplitudes = amplitudesIn.clone();
+    phaseCos = new double[phasesIn.length];
+    phaseSin = new double[phasesIn.length];
+    for (int n = 0; n < phasesIn.length; n++)
+    {
+      phaseCos[n] = Math.cos(phasesIn[n]);
+      phaseSin[n] = Math.sin(phasesIn[n]);
+    }
+  }
+
+  /**
+  * Set the amplitude envelope, interpolated linearly between the given
+  * times and held constant before the first and after the last.
+  *
+  * @param timesIn The times, in increasing order
+  * @param valuesIn The envelope at each time
+  */
+  public void setEnvelope(double[] timesIn, double[] valuesIn)
+  {
+    if (timesIn.length != valuesIn.length || timesIn.length == 0)
+    {
+      throw new IllegalArgumentException("The envelope needs a value at " +
+      "each of at least one time");
+    }
+    envelopeTimes = timesIn.clone();
+    envelopeValues = valuesIn.clone();
+  }
+
+  /**
+  * Return the frequency of the fundamental at a time
+  *
+  * @param timeIn The time
+  * @return The frequency
+  */
+  public double getFrequency(double timeIn)
+  {
+    return frequency + ramp*timeIn;
+  }
+
+  /**
+  * Return the value of the waveform at a time.
+  *
+  * @param timeIn The time
+  * @return The value of the waveform
+  */
+  public double valueAt(double timeIn)
+  {
+    double cycles = timeIn*(frequency + 0.5*ramp*timeIn)
+    + phase/(2*Math.PI);
+    double sin1 = sinCycles(cycles);
+    double cos1 = sinCycles(cycles + 0.25);
+
+    // sin(n theta) and cos(n theta) by the recurrence of the phasor
+    double sinN = sin1, cosN = cos1, value = 0;
+    for (int n = 0; n < amplitudes.length; n++)
+    {
+      value += amplitudes[n]*(sinN*phaseCos[n] + cosN*phaseSin[n]);
+      double next = sinN*cos1 + cosN*sin1;
+      cosN = cosN*cos1 - sinN*sin1;
+      sinN = next;
+    }
+    return value*envelope(timeIn);
+  }
+
+  /**
+  * Return the envelope at a time.
+  *
+  * @param timeIn The time
+  * @return The envelope
+  */
+  protected double envelope(double timeIn)
+  {
+    if (envelopeTimes == null)
+    {
+      return 1;
+    }
+    int n = envelopeTimes.length;
+    if (timeIn <= envelopeTimes[0])
+    {
+      return envelopeValues[0];
+    }
+    if (timeIn >= envelopeTimes[n - 1])
+    {
+      return envelopeValues[n - 1];
+    }
+    int i = Arrays.binarySearch(envelopeTimes, timeIn);
+    if (i >= 0)
+    {
+      return envelopeValues[i];
+    }
+    i = -i - 2;
+    double fraction = (timeIn - envelopeTimes[i])/(envelopeTimes[i + 1]
+    - envelopeTimes[i]);
+    return envelopeValues[i] + fraction*(envelopeValues[i + 1]
+    - envelopeValues[i]);
+  }
+
+  /**
+  * Return sin(2 pi cycles) from the table. The angle past the nearest
+  * table entry below is small enough that a few terms of its series
+  * give the sine and cosine to full precision.
+  *
+  * @param cycles The angle in whole turns
+  * @return The sine
+  */
+  public static double sinCycles(double cycles)
+  {
+    double turn = (cycles - Math.floor(cycles))*TABLE_SIZE;
+    int i = (int) turn;
+    double r = (turn - i)*STEP;
+    double r2 = r*r;
+    double sinR = r*(1 - r2*(1.0/6 - r2*(1.0/120 - r2*(1.0/5040))));
+    double cosR = 1 - r2*(0.5 - r2*(1.0/24 - r2*(1.0/720)));
+    return SINES[i]*cosR + COSINES[i]*sinR;
+  }
+}
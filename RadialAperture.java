@@ -0,0 +1,65 @@
+/**
+ * Class represents the aperture of a cyclotron: the particles are lost
+ * beyond a maximum radius from the axis of the machine, the z axis
+ * through a given centre, and when they move further than half the gap
+ * between the dee walls above or below the median plane z = centre z.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+public class RadialAperture implements Aperture{
+
+  /**
+  * centreX, centreY and centreZ locate the centre of the machine,
+  * radiusSquared is the square of the largest radius and halfGap half
+  * the distance between the dee walls.
+  */
+  protected double centreX, centreY, centreZ;
+  protected double radiusSquared, halfGap;
+
+  /**
+  * Constructor that sets the largest radius about the z axis, with no
+  * walls above or below.
+  *
+  * @param radiusIn user determined largest radius
+  */
+  public RadialAperture(double radiusIn)
+  {
+    this(radiusIn, Double.POSITIVE_INFINITY, new PhysicsVector());
+  }
+
+  /**
+  * Constructor that sets the largest radius, the half gap between the
+  * dee walls and the centre of the machine.
+  *
+  * @param radiusIn user determined largest radius
+  * @param halfGapIn user determined half gap between the dee walls
+  * @param centreIn user determined centre of the machine
+  */
+  public RadialAperture(double radiusIn, double halfGapIn,
+  PhysicsVector centreIn)
+  {
+    radiusSquared = radiusIn*radiusIn;
+    halfGap = halfGapIn;
+    centreX = centreIn.getX();
+    centreY = centreIn.getY();
+    centreZ = centreIn.getZ();
+  }
+
+  /**
+  * Return whether a particle at a position is outside the radius or
+  * beyond a dee wall. A position which is not a number is lost too.
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @return true if the particle is lost
+  */
+  public boolean isLost(double x, double y, double z)
+  {
+    double dx = x - centreX;
+    double dy = y - centreY;
+    return !(dx*dx + dy*dy <= radiusSquared
+    && Math.abs(z - centreZ) <= halfGap);
+  }
+}
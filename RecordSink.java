@@ -0,0 +1,28 @@
+/**
+ * Interface for a destination of output records, each record being a
+ * fixed number of doubles.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+
+import java.io.*;
+
+public interface RecordSink extends Closeable{
+
+  /**
+  * Return the number of doubles per record
+  *
+  * @return The record width
+  */
+  int getRecordWidth();
+
+  /**
+  * Writes one record. Only the first record width values of the array
+  * are used, and the array may be reused once this returns.
+  *
+  * @param valuesIn The values of the record
+  * @throws IOException if the record cannot be written
+  */
+  void write(double[] valuesIn) throws IOException;
+}
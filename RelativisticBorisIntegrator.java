@@ -0,0 +1,42 @@
+/**
+ * Integrator which implements the relativistic Boris algorithm. It
+ * pushes the momentum per unit mass u = gamma*v rather than the
+ * velocity, so particles never exceed the speed of light and their
+ * energy is correct at any speed. The Lorentz factor of each particle
+ * is kept in the particle store and worked out once per step.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.1
+ */
+public class RelativisticBorisIntegrator implements Integrator{
+
+  /**
+  * Moves a range of particles with the relativistic Boris algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param timeIn The time at the start of the interval
+  * @param fieldIn The electromagnetic field
+  * @param kernelIn The kernel for pushing through a uniform field
+  */
+  public void push(ParticleStore storeIn, int start, int end,
+  double deltaTime, double timeIn, FieldEvaluator fieldIn,
+  PushKernel kernelIn)
+  {
+    double[] fields = new double[6];
+    if (fieldIn.isUniform())
+    {
+      fieldIn.fieldAt(0, 0, 0, timeIn, fields);
+      kernelIn.relativisticBoris(storeIn, start, end, deltaTime, fields);
+      return;
+    }
+    for (int i = start; i < end; i++)
+    {
+      fieldIn.fieldAt(i, storeIn.x[i], storeIn.y[i], storeIn.z[i],
+      timeIn, fields);
+      storeIn.relativisticBoris(i, deltaTime, fields);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Class designed to represent a charged particle moving at a speed
+ * close to that of light. This class has the properties of a charged
+ * particle, together with its Lorentz factor, which is worked out
+ * once whenever the velocity changes and then kept.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+public class RelativisticParticle extends ChargedParticle{
+
+  /**
+  * SPEED_OF_LIGHT is the speed of light in a vacuum in m/s.
+  */
+  public static final double SPEED_OF_LIGHT = 2.99792458e8;
+
+  /**
+  * gamma is the Lorentz factor 1/sqrt(1 - v^2/c^2) of the particle.
+  */
+  protected double gamma;
+
+  /**
+  * Default constructor that initialises all particle properties to
+  * zero, which gives a Lorentz factor of one.
+  */
+  public RelativisticParticle()
+  {
+    super();
+    gamma = 1;
+  }
+
+  /**
+  * Constructor that takes four arguments to create a
+  * RelativisticParticle. The mass, charge, velocity and position are
+  * then set from these arguments.
+  *
+  * @param massIn user determined mass of particle
+  * @param chargeIn user determined charge of particle
+  * @param positionIn user determined position of particle
+  * @param velocityIn user determined velocity of particle
+  */
+  public RelativisticParticle(double massIn, double chargeIn,
+  PhysicsVector positionIn, PhysicsVector velocityIn)
+  {
+    super(massIn, chargeIn, positionIn, velocityIn);
+    gamma = lorentzFactor(velocity.getX(), velocity.getY(),
+    velocity.getZ());
+  }
+
+  /**
+  * Set the velocity and work out the new Lorentz factor.
+  *
+  * @param velocityIn The new velocity
+  */
+  public void setVelocity(PhysicsVector velocityIn)
+  {
+    super.setVelocity(velocityIn);
+    gamma = lorentzFactor(velocity.getX(), velocity.getY(),
+    velocity.getZ());
+  }
+
+  /**
+  * Return the Lorentz factor
+  *
+  * @return gamma
+  */
+  public double getGamma()
+  {
+    return gamma;
+  }
+
+  /**
+  * Return the momentum p = gamma*m*v
+  *
+  * @return The momentum
+  */
+  public PhysicsVector getMomentum()
+  {
+    return PhysicsVector.scale(gamma*mass, velocity);
+  }
+
+  /**
+  * Return the kinetic energy (gamma - 1)*m*c^2
+  *
+  * @return The kinetic energy
+  */
+  public double getKineticEnergy()
+  {
+    return (gamma - 1)*mass*SPEED_OF_LIGHT*SPEED_OF_LIGHT;
+  }
+
+  /**
+  * Calculates the Lorentz factor 1/sqrt(1 - v^2/c^2) for a velocity.
+  *
+  * @param vx The x velocity
+  * @param vy The y velocity
+  * @param vz The z velocity
+  * @return The Lorentz factor
+  */
+  public static double lorentzFactor(double vx, double vy, double vz)
+  {
+    return 1/Math.sqrt(1 - (vx*vx + vy*vy + vz*vz)
+    /(SPEED_OF_LIGHT*SPEED_OF_LIGHT));
+  }
+}
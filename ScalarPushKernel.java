@@ -0,0 +1,107 @@
+/**
+ * Push kernel which moves one particle at a time. It is used whenever
+ * the SIMD kernel is not available, and also finishes the particles
+ * left over at the end of a range by the SIMD kernel.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.2
+ */
+public class ScalarPushKernel implements PushKernel{
+
+  /**
+  * Pushes a range of particles with the Euler algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric and magnetic fields
+  */
+  public void euler(ParticleStore storeIn, int start, int end,
+  double deltaTime, double[] fieldsIn)
+  {
+    for (int i = start; i < end; i++)
+    {
+      calculateAcceleration(storeIn, i, fieldsIn);
+      storeIn.euler(i, deltaTime);
+    }
+  }
+
+  /**
+  * Pushes a range of particles with the Euler Cromer algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric and magnetic fields
+  */
+  public void eulerCromer(ParticleStore storeIn, int start, int end,
+  double deltaTime, double[] fieldsIn)
+  {
+    for (int i = start; i < end; i++)
+    {
+      calculateAcceleration(storeIn, i, fieldsIn);
+      storeIn.eulerCromer(i, deltaTime);
+    }
+  }
+
+  /**
+  * Pushes a range of particles with the Boris algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric and magnetic fields
+  */
+  public void boris(ParticleStore storeIn, int start, int end,
+  double deltaTime, double[] fieldsIn)
+  {
+    for (int i = start; i < end; i++)
+    {
+      storeIn.boris(i, deltaTime, fieldsIn);
+    }
+  }
+
+  /**
+  * Pushes a range of particles with the relativistic Boris algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric and magnetic fields
+  */
+  public void relativisticBoris(ParticleStore storeIn, int start, int end,
+  double deltaTime, double[] fieldsIn)
+  {
+    for (int i = start; i < end; i++)
+    {
+      storeIn.relativisticBoris(i, deltaTime, fieldsIn);
+    }
+  }
+
+  /**
+  * Calculates the Lorentz acceleration a = (q/m)*(E + vxB) of one
+  * particle and writes it into the store.
+  *
+  * @param storeIn The store holding the particle
+  * @param i The index of the particle
+  * @param fieldsIn The electric and magnetic fields
+  */
+  protected void calculateAcceleration(ParticleStore storeIn, int i,
+  double[] fieldsIn)
+  {
+    double chargeOverMass = storeIn.charge[i]/storeIn.mass[i];
+    double vx = storeIn.vx[i];
+    double vy = storeIn.vy[i];
+    double vz = storeIn.vz[i];
+    storeIn.ax[i] = (fieldsIn[0] + (vy*fieldsIn[5] - vz*fieldsIn[4]))
+    *chargeOverMass;
+    storeIn.ay[i] = (fieldsIn[1] + (vz*fieldsIn[3] - vx*fieldsIn[5]))
+    *chargeOverMass;
+    storeIn.az[i] = (fieldsIn[2] + (vx*fieldsIn[4] - vy*fieldsIn[3]))
+    *chargeOverMass;
+  }
+}
@@ -0,0 +1,415 @@
+/**
+ * Class which advances several bunches of particles together through
+ * shared fields, one scheduled step at a time. Each bunch may be a
+ * different species with its own mass and charge, for example protons
+ * together with H2+ contaminants, or may fill a different RF bucket.
+ *
+ * The field is evaluated once per step for all of the bunches. When it
+ * is uniform its value at the time of the step is worked out once and
+ * handed to every push. Otherwise the fields work out their time
+ * dependence once for each time and reuse it, as DynamicField and
+ * RFWaveform do. Each space charge solver is updated first, with the
+ * particles of its own bunch. Then every bunch is cut into ranges of
+ * at most grainSize particles, and all the ranges are pushed as one
+ * unit on the pool. A small bunch therefore does not leave threads idle
+ * while a large one is pushed, and there is one join per step rather
+ * than one per bunch. Each particle moves independently, so the result
+ * is the same as pushing the bunches one after another. Particles which
+ * leave the aperture of their bunch are then removed from it.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.2
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class Simulation{
+
+  /**
+  * bunches are the bunches advanced, field the field they share and
+  * timeStep the interval of a step. time is the time reached and
+  * steps the number of steps taken.
+  */
+  protected List<ParticleBunch> bunches = new ArrayList<ParticleBunch>();
+  protected FieldEvaluator field;
+  protected double timeStep;
+  protected double time;
+  protected long steps;
+
+  /**
+  * pool pushes the bunches in parallel, when it is null they are
+  * pushed on the calling thread. grainSize is the largest number of
+  * particles pushed by a single task.
+  */
+  protected ForkJoinPool pool;
+  protected int grainSize = 4096;
+
+  /**
+  * metrics adds up the time spent in each phase of a step, when it is
+  * null, or SimulationMetrics.ENABLED is false, nothing is measured.
+  */
+  protected SimulationMetrics metrics;
+
+  /**
+  * Constructor that sets the shared field and the time step.
+  *
+  * @param fieldIn user determined field
+  * @param timeStepIn user determined time step
+  */
+  public Simulation(FieldEvaluator fieldIn, double timeStepIn)
+  {
+    field = fieldIn;
+    timeStep = timeStepIn;
+  }
+
+  /**
+  * Adds a bunch to the simulation.
+  *
+  * @param bunchIn The bunch
+  */
+  public void addBunch(ParticleBunch bunchIn)
+  {
+    bunches.add(bunchIn);
+  }
+
+  /**
+  * Return the bunches of the simulation
+  *
+  * @return The bunches, which cannot be changed through the list
+  */
+  public List<ParticleBunch> getBunches()
+  {
+    return Collections.unmodifiableList(bunches);
+  }
+
+  /**
+  * Return the shared field
+  *
+  * @return The field
+  */
+  public FieldEvaluator getField()
+  {
+    return field;
+  }
+
+  /**
+  * Return the time reached
+  *
+  * @return The time
+  */
+  public double getTime()
+  {
+    return time;
+  }
+
+  /**
+  * Set the time reached, for example to carry on from a checkpoint
+  *
+  * @param timeIn The time
+  */
+  public void setTime(double timeIn)
+  {
+    time = timeIn;
+  }
+
+  /**
+  * Return the number of steps taken
+  *
+  * @return The number of steps
+  */
+  public long getSteps()
+  {
+    return steps;
+  }
+
+  /**
+  * Set the pool used to push the bunches in parallel
+  *
+  * @param poolIn The fork join pool, or null for sequential pushing
+  */
+  public void setPool(ForkJoinPool poolIn)
+  {
+    pool = poolIn;
+  }
+
+  /**
+  * Return the pool used to push the bunches in parallel
+  *
+  * @return The fork join pool, or null when pushing sequentially
+  */
+  public ForkJoinPool getPool()
+  {
+    return pool;
+  }
+
+  /**
+  * Set the largest number of particles pushed by one task
+  *
+  * @param grainSizeIn The number of particles per task
+  */
+  public void setGrainSize(int grainSizeIn)
+  {
+    grainSize = Math.max(1, grainSizeIn);
+  }
+
+  /**
+  * Set the metrics which measure the time spent in each step
+  *
+  * @param metricsIn The metrics, or null to measure nothing
+  */
+  public void setMetrics(SimulationMetrics metricsIn)
+  {
+    metrics = metricsIn;
+  }
+
+  /**
+  * Return the total number of particles in every bunch
+  *
+  * @return The number of particles
+  */
+  public long getParticleCount()
+  {
+    long count = 0;
+    for (ParticleBunch bunch : bunches)
+    {
+      count += bunch.numberParticles;
+    }
+    return count;
+  }
+
+  /**
+  * Advances the time by one step and moves every bunch to it, with the
+  * field evaluated at the new time.
+  */
+  public void step()
+  {
+    boolean measured = SimulationMetrics.ENABLED && metrics != null;
+    long start = measured ? System.nanoTime() : 0;
+    time += timeStep;
+    FieldEvaluator stepField = new StepField(field, time);
+    FieldEvaluator[] fields = new FieldEvaluator[bunches.size()];
+    int ranges = 0;
+    for (int b = 0; b < fields.length; b++)
+    {
+      ParticleBunch bunch = bunches.get(b);
+      fields[b] = stepField;
+      SpaceChargeSolver solver = bunch.getSpaceCharge();
+      if (solver != null)
+      {
+        solver.update(bunch.getStore(), pool);
+        fields[b] = new SpaceChargeField(stepField, solver);
+      }
+      ranges += (bunch.numberParticles + grainSize - 1)/grainSize;
+    }
+    int particles = (int) Math.min(Integer.MAX_VALUE, getParticleCount());
+    if (measured)
+    {
+      metrics.record(SimulationMetrics.FIELD, start, particles);
+      start = System.nanoTime();
+    }
+
+    if (pool == null)
+    {
+      for (int b = 0; b < fields.length; b++)
+      {
+        ParticleBunch bunch = bunches.get(b);
+        bunch.pushRange(0, bunch.numberParticles, timeStep, time,
+        fields[b]);
+      }
+    }
+    else
+    {
+      int[] rangeBunch = new int[ranges];
+      int[] rangeStart = new int[ranges];
+      int r = 0;
+      for (int b = 0; b < fields.length; b++)
+      {
+        for (int first = 0; first < bunches.get(b).numberParticles;
+        first += grainSize)
+        {
+          rangeBunch[r] = b;
+          rangeStart[r] = first;
+          r++;
+        }
+      }
+      pool.invoke(new StepTask(0, ranges, rangeBunch, rangeStart, fields));
+    }
+    for (ParticleBunch bunch : bunches)
+    {
+      bunch.removeLosses(time);
+    }
+    steps++;
+    if (measured)
+    {
+      metrics.record(SimulationMetrics.PUSH, start, particles);
+      metrics.endStep(particles);
+    }
+  }
+
+  /**
+  * Takes steps until the time passes endTime.
+  *
+  * @param endTime user determined time to stop at
+  */
+  public void run(double endTime)
+  {
+    while (time <= endTime)
+    {
+      step();
+    }
+    if (SimulationMetrics.ENABLED && metrics != null)
+    {
+      metrics.summarise();
+    }
+  }
+
+  /**
+  * Task which pushes a run of the ranges the bunches are cut into,
+  * splitting it in half until it holds a single range.
+  */
+  protected class StepTask extends RecursiveAction{
+
+    protected int first, last;
+    protected int[] rangeBunch, rangeStart;
+    protected FieldEvaluator[] fields;
+
+    /**
+    * Constructor that sets the run of ranges.
+    *
+    * @param firstIn The index of the first range
+    * @param lastIn One past the index of the last range
+    * @param rangeBunchIn The bunch of each range
+    * @param rangeStartIn The first particle of each range
+    * @param fieldsIn The field felt by each bunch
+    */
+    protected StepTask(int firstIn, int lastIn, int[] rangeBunchIn,
+    int[] rangeStartIn, FieldEvaluator[] fieldsIn)
+    {
+      first = firstIn;
+      last = lastIn;
+      rangeBunch = rangeBunchIn;
+      rangeStart = rangeStartIn;
+      fields = fieldsIn;
+    }
+
+    /**
+    * Pushes the range directly or splits the run between two subtasks.
+    */
+    protected void compute()
+    {
+      if (last - first == 1)
+      {
+        ParticleBunch bunch = bunches.get(rangeBunch[first]);
+        int start = rangeStart[first];
+        int end = (int) Math.min((long) start + grainSize,
+        bunch.numberParticles);
+        bunch.pushRange(start, end, timeStep, time,
+        fields[rangeBunch[first]]);
+      }
+      else if (last > first)
+      {
+        int middle = (first + last) >>> 1;
+        invokeAll(new StepTask(first, middle, rangeBunch, rangeStart,
+        fields), new StepTask(middle, last, rangeBunch, rangeStart, fields));
+      }
+    }
+  }
+
+  /**
+  * Class which represents the shared field during one step. The field
+  * for the step is taken with FieldEvaluator.atTime, and if it is
+  * uniform it is evaluated once, at the time of the step, and that value
+  * is given to every bunch. Other fields, and other times, are passed
+  * on to the field for the step.
+  */
+  protected static class StepField implements FieldEvaluator{
+
+    protected FieldEvaluator field;
+    protected double time;
+    protected boolean uniform;
+    protected double[] values = new double[6];
+
+    /**
+    * Constructor that evaluates a uniform field at the time of the step.
+    *
+    * @param fieldIn The shared field
+    * @param timeIn The time of the step
+    */
+    protected StepField(FieldEvaluator fieldIn, double timeIn)
+    {
+      field = fieldIn.atTime(timeIn);
+      time = timeIn;
+      uniform = field.isUniform();
+      if (uniform)
+      {
+        field.fieldAt(0, 0, 0, timeIn, values);
+      }
+    }
+
+    /**
+    * Evaluates the field at a position and time.
+    *
+    * @param x The x position
+    * @param y The y position
+    * @param z The z position
+    * @param timeIn The current time
+    * @param fieldsOut Buffer of at least six values for the result
+    */
+    public void fieldAt(double x, double y, double z, double timeIn,
+    double[] fieldsOut)
+    {
+      if (uniform && timeIn == time)
+      {
+        System.arraycopy(values, 0, fieldsOut, 0, 6);
+      }
+      else
+      {
+        field.fieldAt(x, y, z, timeIn, fieldsOut);
+      }
+    }
+
+    /**
+    * Calculates the Lorentz acceleration of a particle, passing it on
+    * to the field itself unless the stored value can be used.
+    *
+    * @param x The x position
+    * @param y The y position
+    * @param z The z position
+    * @param vx The x velocity
+    * @param vy The y velocity
+    * @param vz The z velocity
+    * @param timeIn The current time
+    * @param chargeOverMass The charge to mass ratio q/m
+    * @param accelerationOut Buffer of at least six values for the result
+    */
+    public void accelerationAt(double x, double y, double z, double vx,
+    double vy, double vz, double timeIn, double chargeOverMass,
+    double[] accelerationOut)
+    {
+      if (uniform && timeIn == time)
+      {
+        FieldEvaluator.super.accelerationAt(x, y, z, vx, vy, vz, timeIn,
+        chargeOverMass, accelerationOut);
+      }
+      else
+      {
+        field.accelerationAt(x, y, z, vx, vy, vz, timeIn, chargeOverMass,
+        accelerationOut);
+      }
+    }
+
+    /**
+    * Return whether the shared field is the same at every position
+    *
+    * @return true if the field does not depend on position
+    */
+    public boolean isUniform()
+    {
+      return uniform;
+    }
+  }
+}
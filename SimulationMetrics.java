@@ -0,0 +1,258 @@
+/**
+ * Class which measures where a simulation spends its time. The time of
+ * each phase of a step is added up: the field, the push, the average
+ * and the output. The field is the update of the space charge solver.
+ * The external field is evaluated at each particle inside the push
+ * loop of the integrator, so that time is counted with the push. Every
+ * interval steps a summary line is printed. It gives the particle steps
+ * per second, the mean time of each phase per step, and the bytes
+ * allocated per step by every thread.
+ *
+ * Each phase is also committed as a JFR event, cyclotron.Phase, and
+ * each summary as cyclotron.Throughput, so a run started with
+ * -XX:StartFlightRecording can be examined in JDK Mission Control.
+ *
+ * The measurements are only made when the program is run with
+ * -Dcyclotron.metrics=true. ENABLED is a constant, so when it is false
+ * the compiler removes every check of it and the calls it guards. The
+ * instrumentation can therefore stay in for production runs at no
+ * cost. A SimulationMetrics is used by one thread at a time.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+public class SimulationMetrics{
+
+  /**
+  * ENABLED is true when the program is run with
+  * -Dcyclotron.metrics=true.
+  */
+  public static final boolean ENABLED =
+  Boolean.getBoolean("cyclotron.metrics");
+
+  /**
+  * FIELD, PUSH, AVERAGE and OUTPUT number the phases of a step, and
+  * PHASES holds their names.
+  */
+  public static final int FIELD = 0;
+  public static final int PUSH = 1;
+  public static final int AVERAGE = 2;
+  public static final int OUTPUT = 3;
+  protected static final String[] PHASES = {"field", "push", "average",
+  "output"};
+
+  /**
+  * interval is the number of steps between summaries. steps is the
+  * number of steps taken, and intervalSteps and particleSteps the
+  * steps and particle steps since the last summary. phaseTimes holds
+  * the nanoseconds spent in each phase since the last summary.
+  * intervalStart is the time the interval began and allocatedStart
+  * the bytes allocated by then.
+  */
+  protected int interval;
+  protected long steps, intervalSteps, particleSteps;
+  protected long[] phaseTimes = new long[PHASES.length];
+  protected long intervalStart, allocatedStart;
+
+  /**
+  * Constructor that sets the number of steps between summaries.
+  *
+  * @param intervalIn user determined number of steps between summaries
+  */
+  public SimulationMetrics(int intervalIn)
+  {
+    interval = Math.max(1, intervalIn);
+    intervalStart = System.nanoTime();
+    allocatedStart = allocatedBytes();
+  }
+
+  /**
+  * Adds the time since start to a phase.
+  *
+  * @param phase The phase, FIELD, PUSH, AVERAGE or OUTPUT
+  * @param start The value of System.nanoTime when the phase began
+  * @param particles The number of particles the phase worked on
+  */
+  public void record(int phase, long start, int particles)
+  {
+    long time = System.nanoTime() - start;
+    phaseTimes[phase] += time;
+    PhaseEvent event = new PhaseEvent();
+    if (event.shouldCommit())
+    {
+      event.phase = PHASES[phase];
+      event.time = time;
+      event.particles = particles;
+      event.commit();
+    }
+  }
+
+  /**
+  * Counts a step of a bunch, and prints a summary if interval steps
+  * have been taken since the last.
+  *
+  * @param particles The number of particles in the bunch
+  */
+  public void endStep(int particles)
+  {
+    steps++;
+    intervalSteps++;
+    particleSteps += particles;
+    if (intervalSteps >= interval)
+    {
+      summarise();
+    }
+  }
+
+  /**
+  * Prints a summary of the steps since the last, if there have been
+  * any, and starts a new interval.
+  */
+  public void summarise()
+  {
+    if (intervalSteps == 0)
+    {
+      return;
+    }
+    long now = System.nanoTime();
+    long allocated = allocatedBytes();
+    double seconds = (now - intervalStart)/1e9;
+    double rate = particleSteps/Math.max(seconds, 1e-9);
+    double bytesPerStep = allocated < 0 ? Double.NaN
+    : (double) (allocated - allocatedStart)/intervalSteps;
+
+    StringBuilder line = new StringBuilder();
+    line.append(String.format("Step %d: %.3e particle steps/s, per step",
+    steps, rate));
+    for (int p = 0; p < PHASES.length; p++)
+    {
+      line.append(String.format(" %s %.1f us", PHASES[p],
+      phaseTimes[p]/1e3/intervalSteps));
+    }
+    line.append(String.format(", %.0f bytes allocated", bytesPerStep));
+    System.out.println(line);
+
+    ThroughputEvent event = new ThroughputEvent();
+    if (event.shouldCommit())
+    {
+      event.steps = intervalSteps;
+      event.particleStepsPerSecond = rate;
+      event.fieldTime = phaseTimes[FIELD]/intervalSteps;
+      event.pushTime = phaseTimes[PUSH]/intervalSteps;
+      event.averageTime = phaseTimes[AVERAGE]/intervalSteps;
+      event.outputTime = phaseTimes[OUTPUT]/intervalSteps;
+      event.allocatedPerStep = (long) bytesPerStep;
+      event.commit();
+    }
+
+    intervalSteps = 0;
+    particleSteps = 0;
+    Arrays.fill(phaseTimes, 0);
+    intervalStart = now;
+    allocatedStart = allocated;
+  }
+
+  /**
+  * Return the number of bytes allocated by every live thread, or -1 if
+  * the JVM cannot measure it. Threads which have finished are not
+  * counted, so the pool threads of a bunch should live for the run.
+  *
+  * @return The bytes allocated
+  */
+  protected static long allocatedBytes()
+  {
+    java.lang.management.ThreadMXBean threads =
+    ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean))
+    {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean allocation =
+    (com.sun.management.ThreadMXBean) threads;
+    if (!allocation.isThreadAllocatedMemorySupported()
+    || !allocation.isThreadAllocatedMemoryEnabled())
+    {
+      return -1;
+    }
+    long total = 0;
+    for (long bytes : allocation.getThreadAllocatedBytes(
+    threads.getAllThreadIds()))
+    {
+      if (bytes > 0)
+      {
+        total += bytes;
+      }
+    }
+    return total;
+  }
+
+  /**
+  * JFR event recording the time of one phase of a step.
+  */
+  @Name("cyclotron.Phase")
+  @Label("Simulation Phase")
+  @Category("Cyclotron")
+  @Description("Time spent in one phase of a simulation step")
+  @StackTrace(false)
+  static class PhaseEvent extends Event{
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long time;
+
+    @Label("Particles")
+    int particles;
+  }
+
+  /**
+  * JFR event recording the summary of an interval of steps.
+  */
+  @Name("cyclotron.Throughput")
+  @Label("Simulation Throughput")
+  @Category("Cyclotron")
+  @Description("Throughput and time per phase over an interval of steps")
+  @StackTrace(false)
+  static class ThroughputEvent extends Event{
+
+    @Label("Steps")
+    long steps;
+
+    @Label("Particle Steps per Second")
+    double particleStepsPerSecond;
+
+    @Label("Field Time per Step")
+    @Timespan(Timespan.NANOSECONDS)
+    long fieldTime;
+
+    @Label("Push Time per Step")
+    @Timespan(Timespan.NANOSECONDS)
+    long pushTime;
+
+    @Label("Average Time per Step")
+    @Timespan(Timespan.NANOSECONDS)
+    long averageTime;
+
+    @Label("Output Time per Step")
+    @Timespan(Timespan.NANOSECONDS)
+    long outputTime;
+
+    @Label("Allocated per Step")
+    @DataAmount
+    long allocatedPerStep;
+  }
+}
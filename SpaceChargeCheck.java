@@ -0,0 +1,78 @@
+/**
+ * Class which checks that the space charge of a bunch does not act on
+ * the particles that make it. A bunch of a single particle has no
+ * other particle to feel, so it must follow the same path with the
+ * BarnesHutSolver as with no solver at all, for every integrator. This
+ * includes the adaptive Dormand Prince integrator, whose substeps
+ * evaluate the field away from where the particle was when the solver
+ * was updated. It is run as
+ * java SpaceChargeCheck
+ * and exits with status 1 if any path differs.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+public class SpaceChargeCheck{
+
+  /**
+  * STEPS is the number of steps taken, TIME_STEP their length and
+  * GRADIENT that of the quadrupole the particle moves through.
+  */
+  protected static final int STEPS = 10;
+  protected static final double TIME_STEP = 1e-9;
+  protected static final double GRADIENT = 1;
+
+  /**
+  * Runs each integrator with and without space charge and compares the
+  * final position and velocity.
+  *
+  * @param args Not used
+  */
+  public static void main(String[] args)
+  {
+    boolean passed = true;
+    for (int choice = 1; choice <= 5; choice++)
+    {
+      ParticleStore alone = run(choice, null);
+      ParticleStore charged = run(choice, new BarnesHutSolver(0.5));
+      boolean same = alone.getX(0) == charged.getX(0)
+      && alone.getY(0) == charged.getY(0)
+      && alone.getZ(0) == charged.getZ(0)
+      && alone.getVX(0) == charged.getVX(0)
+      && alone.getVY(0) == charged.getVY(0)
+      && alone.getVZ(0) == charged.getVZ(0);
+      System.out.println("Algorithm " + choice + ": vx " + alone.getVX(0)
+      + " without space charge, " + charged.getVX(0) + " with, "
+      + (same ? "same" : "DIFFERENT"));
+      passed &= same;
+    }
+    if (!passed)
+    {
+      System.exit(1);
+    }
+  }
+
+  /**
+  * Pushes a single proton through a quadrupole and returns its store.
+  *
+  * @param choiceIn The algorithm number, as for Integrator.forChoice
+  * @param solverIn The space charge solver, or null for none
+  * @return The store holding the particle after the last step
+  */
+  protected static ParticleStore run(int choiceIn,
+  SpaceChargeSolver solverIn)
+  {
+    ParticleBunch bunch = new ParticleBunch(1.6726e-27, 1.602e-19,
+    new PhysicsVector(1e-3, 0, 0), new PhysicsVector(1e4, 0, 1e5), 1,
+    Integrator.forChoice(choiceIn));
+    bunch.setSpaceCharge(solverIn);
+    FieldEvaluator field = new QuadrupoleField(GRADIENT);
+    double time = 0;
+    for (int s = 0; s < STEPS; s++)
+    {
+      time += TIME_STEP;
+      bunch.updateBunch(TIME_STEP, time, field);
+    }
+    return bunch.getStore();
+  }
+}
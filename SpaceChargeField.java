@@ -0,0 +1,91 @@
+/**
+ * Class represents the field felt by the particles of a bunch, an
+ * external field together with the space charge field of the bunch
+ * itself. Both are only read, so the combination can be shared by the
+ * threads pushing the bunch. A particle of the bunch, evaluated by its
+ * index, does not feel its own charge.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.1
+ */
+public class SpaceChargeField implements FieldEvaluator{
+
+  /**
+  * external is the applied field and solver gives the field of the
+  * particles.
+  */
+  protected FieldEvaluator external;
+  protected SpaceChargeSolver solver;
+
+  /**
+  * Constructor that sets the external field and the space charge
+  * solver, which should already have been updated.
+  *
+  * @param externalIn The applied field
+  * @param solverIn The space charge solver
+  */
+  public SpaceChargeField(FieldEvaluator externalIn,
+  SpaceChargeSolver solverIn)
+  {
+    external = externalIn;
+    solver = solverIn;
+  }
+
+  /**
+  * Evaluates the external field and adds the space charge electric
+  * field at the same position.
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param timeIn The current time
+  * @param fieldsOut Buffer of at least six values for the result
+  */
+  public void fieldAt(double x, double y, double z, double timeIn,
+  double[] fieldsOut)
+  {
+    external.fieldAt(x, y, z, timeIn, fieldsOut);
+    solver.addFieldAt(x, y, z, fieldsOut);
+  }
+
+  /**
+  * Evaluates the external field and adds the space charge electric
+  * field of every particle but the one given.
+  *
+  * @param index The index in the store of the particle
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param timeIn The current time
+  * @param fieldsOut Buffer of at least six values for the result
+  */
+  public void fieldAt(int index, double x, double y, double z,
+  double timeIn, double[] fieldsOut)
+  {
+    external.fieldAt(x, y, z, timeIn, fieldsOut);
+    solver.addFieldAt(index, x, y, z, fieldsOut);
+  }
+
+  /**
+  * Calculates the acceleration of a particle of the bunch in the
+  * external field and the space charge field of the other particles.
+  *
+  * @param index The index in the store of the particle
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param vx The x velocity
+  * @param vy The y velocity
+  * @param vz The z velocity
+  * @param timeIn The current time
+  * @param chargeOverMass The charge to mass ratio q/m
+  * @param accelerationOut Buffer of at least six values for the result
+  */
+  public void accelerationAt(int index, double x, double y, double z,
+  double vx, double vy, double vz, double timeIn, double chargeOverMass,
+  double[] accelerationOut)
+  {
+    fieldAt(index, x, y, z, timeIn, accelerationOut);
+    FieldEvaluator.lorentz(vx, vy, vz, chargeOverMass, accelerationOut);
+  }
+}
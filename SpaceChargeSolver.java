@@ -0,0 +1,82 @@
+/**
+ * Interface for a method of working out the electric field the
+ * particles of a bunch exert on each other, their space charge. Once
+ * per step update is given the particles, after which the field may be
+ * evaluated at any position, from many threads at once, until the next
+ * update.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.2
+ */
+
+import java.io.*;
+import java.util.concurrent.ForkJoinPool;
+
+public interface SpaceChargeSolver{
+
+  /**
+  * COULOMB is the Coulomb constant 1/(4 pi epsilon_0) in N m^2/C^2.
+  */
+  double COULOMB = 8.9875517923e9;
+
+  /**
+  * Prepares the solver for the positions and charges of the particles
+  * of a store.
+  *
+  * @param storeIn The store holding the particles
+  * @param poolIn The pool to work in, or null to work on the calling
+  * thread
+  */
+  void update(ParticleStore storeIn, ForkJoinPool poolIn);
+
+  /**
+  * Adds the electric field of the particles at a position to
+  * fieldsOut[0], [1] and [2].
+  *
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param fieldsOut Buffer holding the field to add to
+  */
+  void addFieldAt(double x, double y, double z, double[] fieldsOut);
+
+  /**
+  * Adds the electric field of every particle but one at a position to
+  * fieldsOut[0], [1] and [2], which is the field felt by that particle
+  * wherever it is evaluated during the step. The default leaves no
+  * particle out, as suits a solver such as PICSolver which spreads each
+  * charge over the mesh, so its own field stays small and finite.
+  *
+  * @param index The index in the store of the particle left out
+  * @param x The x position
+  * @param y The y position
+  * @param z The z position
+  * @param fieldsOut Buffer holding the field to add to
+  */
+  default void addFieldAt(int index, double x, double y, double z,
+  double[] fieldsOut)
+  {
+    addFieldAt(x, y, z, fieldsOut);
+  }
+
+  /**
+  * Writes any state the solver carries from one step to the next, for
+  * a checkpoint. The default writes nothing.
+  *
+  * @param out The stream to write to
+  * @throws IOException if the stream cannot be written
+  */
+  default void writeState(DataOutput out) throws IOException
+  {
+  }
+
+  /**
+  * Reads back the state written by writeState.
+  *
+  * @param in The stream to read from
+  * @throws IOException if the stream cannot be read
+  */
+  default void readState(DataInput in) throws IOException
+  {
+  }
+}
@@ -0,0 +1,281 @@
+/**
+ * Class which runs a cyclotron simulation for every point of a grid of
+ * parameters, many at once, and gathers the results into one summary
+ * table. The grid is read from a text file with one parameter of
+ * CyclotronSimulation per line, as its name, an equals sign and the
+ * values it takes, for example
+ *
+ *   electricMagnitude = 1e-7, 2e-7, 5e-7
+ *   magneticMagnitude = 1e-7:5e-7:5
+ *   algorithmChoice = 3
+ *
+ * A value of the form first:last:count stands for count values evenly
+ * spaced from first to last. Every combination of the values is run,
+ * the first parameter changing slowest. Blank lines and lines starting
+ * with # are ignored. {run} in a value is replaced by the number of the
+ * run, so each run may write its own output, for example
+ * outputFile = Run{run}.bin. Otherwise no trajectory or losses are
+ * written, tracks, checkpoints and statistics go to Tracks{run}.bin,
+ * Checkpoint{run}.bin and Statistics{run}.bin so that runs never share
+ * a file, and each run seeds a random number generator of its own
+ * with its number unless seed is given, so a sweep can be repeated
+ * exactly.
+ *
+ * Each run is an independent simulation pushed on one thread, so the
+ * runs are shared between a pool of worker threads. The summary is a
+ * CSV file with a line for each run holding its parameters, the number
+ * of steps, the time reached and the particles lost, the mean and rms
+ * x and y positions, the radius of the centroid, the mean kinetic
+ * energy and its spread at the end, and the time taken in seconds, or
+ * the error if the run failed.
+ *
+ * Usage: java SweepRunner grid.txt [summary.csv] [workers]
+ *
+ * @author Tehmoor Hussain
+ * @version 1.3
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class SweepRunner{
+
+  /**
+  * RESULTS names the result columns of the summary.
+  */
+  protected static final String RESULTS = "steps,time,lost,meanX,meanY," +
+  "rmsX,rmsY,centroidRadius,meanEnergy,energySpread,seconds,error";
+
+  /**
+  * names holds the parameter names in the order given and values the
+  * values each takes.
+  */
+  protected List<String> names = new ArrayList<String>();
+  protected List<String[]> values = new ArrayList<String[]>();
+
+  /**
+  * Constructor that reads the parameter grid from a file.
+  *
+  * @param fileName user determined grid file
+  * @throws IOException if the file cannot be read or a line is not of
+  * the form name = values
+  */
+  public SweepRunner(String fileName) throws IOException
+  {
+    List<String> lines = Files.readAllLines(Paths.get(fileName));
+    for (int n = 0; n < lines.size(); n++)
+    {
+      String line = lines.get(n).trim();
+      if (line.isEmpty() || line.startsWith("#"))
+      {
+        continue;
+      }
+      int equals = line.indexOf('=');
+      if (equals <= 0)
+      {
+        throw new IOException(fileName + " line " + (n + 1) + " is not " +
+        "of the form name = values");
+      }
+      names.add(line.substring(0, equals).trim());
+      values.add(expand(line.substring(equals + 1).trim()));
+    }
+  }
+
+  /**
+  * Return the values given on one line of the grid file.
+  *
+  * @param text The values, separated by commas or spaces, or a range
+  * first:last:count
+  * @return The values
+  * @throws IOException if a range cannot be read
+  */
+  protected static String[] expand(String text) throws IOException
+  {
+    String[] parts = text.split(":");
+    if (parts.length != 3)
+    {
+      return text.split("[,\\s]+");
+    }
+    try
+    {
+      double first = Double.parseDouble(parts[0].trim());
+      double last = Double.parseDouble(parts[1].trim());
+      int count = Integer.parseInt(parts[2].trim());
+      if (count < 1)
+      {
+        throw new IOException("A range needs at least one value: " + text);
+      }
+      String[] range = new String[count];
+      for (int i = 0; i < count; i++)
+      {
+        range[i] = Double.toString(count == 1 ? first
+        : first + (last - first)*i/(count - 1));
+      }
+      return range;
+    }
+    catch (NumberFormatException e)
+    {
+      throw new IOException("Cannot read the range " + text);
+    }
+  }
+
+  /**
+  * Return the number of runs in the grid
+  *
+  * @return The number of runs
+  */
+  public int getRuns()
+  {
+    int runs = 1;
+    for (String[] list : values)
+    {
+      runs *= list.length;
+    }
+    return runs;
+  }
+
+  /**
+  * Return the values of the parameters for one run, the first
+  * parameter changing slowest.
+  *
+  * @param run The number of the run
+  * @return The value of each parameter
+  */
+  protected String[] point(int run)
+  {
+    String[] point = new String[names.size()];
+    int rest = run;
+    for (int p = names.size() - 1; p >= 0; p--)
+    {
+      String[] list = values.get(p);
+      point[p] = list[rest % list.length].replace("{run}",
+      Integer.toString(run));
+      rest /= list.length;
+    }
+    return point;
+  }
+
+  /**
+  * Runs the simulation for one point of the grid.
+  *
+  * @param run The number of the run
+  * @return The line of the summary for the run
+  */
+  protected String runPoint(int run)
+  {
+    String[] point = point(run);
+    StringBuilder line = new StringBuilder(Integer.toString(run));
+    for (String value : point)
+    {
+      line.append(',').append(value);
+    }
+    long start = System.nanoTime();
+    try
+    {
+      CyclotronSimulation simulation = new CyclotronSimulation();
+      simulation.setParameter("outputFile", "null");
+      simulation.setParameter("lossFile", "null");
+      simulation.setParameter("trackFile", "Tracks" + run + ".bin");
+      simulation.setParameter("checkpointFile", "Checkpoint" + run + ".bin");
+      simulation.setParameter("statisticsFile", "Statistics" + run + ".bin");
+      simulation.setParameter("seed", Integer.toString(run + 1));
+      for (int p = 0; p < point.length; p++)
+      {
+        simulation.setParameter(names.get(p), point[p]);
+      }
+      BeamStatistics statistics = simulation.run();
+      PhysicsVector mean = statistics.getMeanPosition();
+      PhysicsVector rms = statistics.getRmsSize();
+      line.append(',').append(simulation.getSteps());
+      line.append(',').append(simulation.getTime());
+      line.append(',').append(simulation.getLost());
+      line.append(',').append(mean.getX());
+      line.append(',').append(mean.getY());
+      line.append(',').append(rms.getX());
+      line.append(',').append(rms.getY());
+      line.append(',').append(Math.hypot(mean.getX(), mean.getY()));
+      line.append(',').append(statistics.getMeanEnergy());
+      line.append(',').append(statistics.getEnergySpread());
+      line.append(',').append((System.nanoTime() - start)/1e9);
+      line.append(',');
+    }
+    catch (IOException | RuntimeException e)
+    {
+      line.append(",,,,,,,,,,,").append((System.nanoTime() - start)/1e9);
+      line.append(',').append(String.valueOf(e.getMessage())
+      .replace(',', ';').replace('\n', ' '));
+    }
+    return line.toString();
+  }
+
+  /**
+  * Runs every point of the grid on a pool of worker threads and writes
+  * the summary, in the order of the runs, as each finishes.
+  *
+  * @param summaryFile user determined summary file
+  * @param workers user determined number of worker threads
+  * @throws IOException if the summary cannot be written
+  */
+  public void run(String summaryFile, int workers) throws IOException
+  {
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1,
+    workers));
+    try (PrintWriter summary = new PrintWriter(new BufferedWriter(
+    new FileWriter(summaryFile))))
+    {
+      summary.println("run," + String.join(",", names) + "," + RESULTS);
+      List<Future<String>> results = new ArrayList<Future<String>>();
+      for (int run = 0; run < getRuns(); run++)
+      {
+        int number = run;
+        results.add(pool.submit(() -> runPoint(number)));
+      }
+      for (int run = 0; run < results.size(); run++)
+      {
+        String line = results.get(run).get();
+        summary.println(line);
+        summary.flush();
+        System.out.println("Finished run " + (run + 1) + " of " +
+        results.size());
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted during the sweep");
+    }
+    catch (ExecutionException e)
+    {
+      throw new IOException("A run could not be completed", e.getCause());
+    }
+    finally
+    {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+  * Reads the grid named by the first argument and runs it, writing the
+  * summary to the second argument, Sweep.csv by default, with the
+  * number of workers given by the third, one per processor by default.
+  *
+  * @param args The grid file, summary file and number of workers
+  * @throws IOException if a file cannot be read or written
+  */
+  public static void main(String[] args) throws IOException
+  {
+    if (args.length < 1)
+    {
+      System.out.println("Usage: java SweepRunner grid.txt [summary.csv] " +
+      "[workers]");
+      return;
+    }
+    SweepRunner sweep = new SweepRunner(args[0]);
+    String summaryFile = args.length > 1 ? args[1] : "Sweep.csv";
+    int workers = args.length > 2 ? Integer.parseInt(args[2])
+    : Runtime.getRuntime().availableProcessors();
+    sweep.run(summaryFile, workers);
+  }
+}
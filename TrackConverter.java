@@ -0,0 +1,228 @@
+/**
+ * Class which converts a track file written by TrackRecorder into CSV
+ * text, one line per particle per step giving the time, the particle
+ * number and its x, y, z, vx, vy and vz, so that individual particle
+ * tracks can be imported into qtiplot etc.
+ *
+ * Usage: java TrackConverter Tracks.bin Tracks.csv
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class TrackConverter{
+
+  public static void main (String[] args) throws IOException{
+    if (args.length != 2)
+    {
+      System.out.println("Usage: java TrackConverter <input.bin> " +
+      "<output.csv>");
+      return;
+    }
+    PrintWriter writer = new PrintWriter(new BufferedWriter(
+    new FileWriter(args[1])));
+    long steps = convert(args[0], writer);
+    writer.close();
+    System.out.println("Converted " + steps + " steps");
+  }
+
+  /**
+  * Reads a track file and writes every particle at every step as a
+  * line of comma separated values.
+  *
+  * @param fileName The track file
+  * @param writer Where the CSV lines are written
+  * @return The number of steps converted
+  * @throws IOException if the file cannot be read or is not a track
+  * file
+  */
+  public static long convert(String fileName, PrintWriter writer)
+  throws IOException
+  {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+    new FileInputStream(fileName), 1 << 16));
+    Inflater inflater = new Inflater();
+    try
+    {
+      if (in.readInt() != TrackRecorder.MAGIC)
+      {
+        throw new IOException(fileName + " is not a track file");
+      }
+      int version = in.readInt();
+      if (version != TrackRecorder.VERSION)
+      {
+        throw new IOException(fileName + " has unsupported version " +
+        version);
+      }
+      int particles = in.readInt();
+      int quantities = in.readInt();
+      in.readInt();
+      in.readInt();
+      int columns = 1 + quantities*particles;
+
+      long total = 0;
+      int chunkSteps = 0;
+      double[] values = new double[0];
+      byte[] compressed = new byte[0];
+      byte[] shuffled = new byte[0];
+      StringBuilder line = new StringBuilder();
+      while (true)
+      {
+        int steps;
+        try
+        {
+          steps = in.readInt();
+        }
+        catch (EOFException e)
+        {
+          return total;
+        }
+        if (steps > chunkSteps)
+        {
+          chunkSteps = steps;
+          values = new double[columns*steps];
+          shuffled = new byte[8*particles*steps];
+        }
+        compressed = readGroup(in, inflater, steps, 0, 1, values, shuffled,
+        compressed);
+        for (int q = 0; q < quantities; q++)
+        {
+          compressed = readGroup(in, inflater, steps, 1 + q*particles,
+          particles, values, shuffled, compressed);
+        }
+
+        for (int s = 0; s < steps; s++)
+        {
+          double time = values[s];
+          for (int p = 0; p < particles; p++)
+          {
+            line.setLength(0);
+            line.append(time).append(',').append(p);
+            for (int q = 0; q < quantities; q++)
+            {
+              int column = 1 + q*particles + p;
+              line.append(',').append(values[column*steps + s]);
+            }
+            writer.println(line);
+          }
+        }
+        total += steps;
+      }
+    }
+    finally
+    {
+      inflater.end();
+      in.close();
+    }
+  }
+
+  /**
+  * Reads the eight planes of a group of columns and decodes them.
+  *
+  * @param in The track file
+  * @param inflater The inflater to use
+  * @param steps The number of steps in the chunk
+  * @param firstColumn The first column of the group
+  * @param columns The number of columns in the group
+  * @param valuesOut Buffer for the values of the chunk, each column
+  * being steps values long
+  * @param shuffled Buffer for the bytes of the planes
+  * @param compressed Buffer for the bytes of a deflated plane
+  * @return The buffer for deflated planes, enlarged if it was too small
+  * @throws IOException if the group cannot be read or is corrupt
+  */
+  protected static byte[] readGroup(DataInputStream in, Inflater inflater,
+  int steps, int firstColumn, int columns, double[] valuesOut,
+  byte[] shuffled, byte[] compressed) throws IOException
+  {
+    int size = columns*steps;
+    for (int b = 0; b < 8; b++)
+    {
+      int method = in.readByte();
+      int length = in.readInt();
+      if (method == TrackRecorder.ZERO && length == 0)
+      {
+        Arrays.fill(shuffled, b*size, (b + 1)*size, (byte) 0);
+        continue;
+      }
+      if (method == TrackRecorder.STORED && length == size)
+      {
+        in.readFully(shuffled, b*size, size);
+        continue;
+      }
+      if (method != TrackRecorder.DEFLATED)
+      {
+        throw new IOException("Corrupt plane in track file");
+      }
+      if (compressed.length < length)
+      {
+        compressed = new byte[length];
+      }
+      in.readFully(compressed, 0, length);
+      inflate(inflater, compressed, length, shuffled, b*size, size);
+    }
+
+    int index = 0;
+    for (int c = firstColumn; c < firstColumn + columns; c++)
+    {
+      int start = c*steps;
+      for (int s = 0; s < steps; s++)
+      {
+        long residual = 0;
+        for (int b = 0; b < 8; b++)
+        {
+          residual = (residual << 8) | (shuffled[b*size + index] & 0xff);
+        }
+        valuesOut[start + s] = Double.longBitsToDouble(residual
+        ^ Double.doubleToRawLongBits(TrackRecorder.predict(valuesOut,
+        start, s)));
+        index++;
+      }
+    }
+    return compressed;
+  }
+
+  /**
+  * Decompresses one plane.
+  *
+  * @param inflater The inflater to use
+  * @param compressed The compressed bytes
+  * @param length The number of compressed bytes
+  * @param planeOut Buffer for the decompressed bytes
+  * @param offset Where the decompressed bytes start in the buffer
+  * @param size The number of decompressed bytes expected
+  * @throws IOException if the plane is corrupt
+  */
+  protected static void inflate(Inflater inflater, byte[] compressed,
+  int length, byte[] planeOut, int offset, int size) throws IOException
+  {
+    inflater.reset();
+    inflater.setInput(compressed, 0, length);
+    int done = 0;
+    try
+    {
+      while (done < size && !inflater.finished())
+      {
+        int n = inflater.inflate(planeOut, offset + done, size - done);
+        if (n == 0 && inflater.needsInput())
+        {
+          break;
+        }
+        done += n;
+      }
+    }
+    catch (DataFormatException e)
+    {
+      throw new IOException("Corrupt plane in track file", e);
+    }
+    if (done != size)
+    {
+      throw new IOException("Truncated plane in track file");
+    }
+  }
+}
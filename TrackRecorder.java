@@ -0,0 +1,488 @@
+/**
+ * Class which records the full trajectory of every particle in a bunch,
+ * rather than just its average, in a compressed binary file.
+ *
+ * Steps are gathered into chunks of at most CHUNK_BYTES of values, so
+ * the buffers stay a fixed size however many particles are recorded,
+ * with at least one step per chunk. Within a chunk each quantity of each
+ * particle is kept as a column over time. Every value is stored as the
+ * exclusive or of its bits with those of a prediction, the straight
+ * line through the two previous steps, which leaves the leading bytes
+ * zero for a smoothly moving particle. The bytes of each quantity are
+ * then shuffled into eight planes, all the first bytes together, then
+ * all the second bytes and so on. Planes that are all zero are left
+ * out, planes that are mostly zero are deflated and the rest, which
+ * would not shrink, are stored as they are. Chunks are compressed by
+ * background threads, several at once if asked, while the simulation
+ * fills the next one, and are written in order. TrackConverter turns
+ * the file into CSV.
+ *
+ * The file starts with a 24 byte header: the magic number, the format
+ * version, the number of particles, the number of quantities and the
+ * steps per chunk as ints, then four reserved bytes. Each chunk is the
+ * number of steps it holds as an int followed by eight planes for the
+ * time and for each quantity in turn. Each plane is a byte, ZERO,
+ * STORED or DEFLATED, and its length as an int followed by its bytes.
+ * Quantities are x, y, z, vx, vy and vz, each holding one column per
+ * particle. Each particle keeps the column of its id, and once it has
+ * been lost its values are NaN.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.3
+ */
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.zip.Deflater;
+
+public class TrackRecorder implements Closeable{
+
+  /**
+  * MAGIC identifies a track file and VERSION its layout. QUANTITIES is
+  * the number of values recorded per particle per step. ZERO, STORED
+  * and DEFLATED mark how a plane is kept, and planes are deflated when
+  * at least a fraction DEFLATE_ZEROS of their bytes are zero.
+  * CHUNK_BYTES is the most memory the values of one chunk may take;
+  * each chunk buffer takes about three times as much in all.
+  */
+  public static final int MAGIC = 0x5452434b;
+  public static final int VERSION = 1;
+  public static final int QUANTITIES = 6;
+  public static final int STORED = 0, DEFLATED = 1, ZERO = 2;
+  protected static final double DEFLATE_ZEROS = 0.5;
+  protected static final long CHUNK_BYTES = 32L << 20;
+
+  /**
+  * out is the open file and compressor the threads which compress
+  * chunks. free holds the chunk buffers not in use, current is the one
+  * being filled and steps the number of steps in it. particles is the
+  * number of particles and chunkSteps the number of steps per chunk.
+  * submitted counts the chunks handed to the compressor and written
+  * the chunks written to the file. failure holds the first error from
+  * the compressor, which is rethrown by the next record or close.
+  */
+  protected DataOutputStream out;
+  protected ExecutorService compressor;
+  protected BlockingQueue<Chunk> free;
+  protected Chunk current;
+  protected int particles, chunkSteps, steps;
+  protected long submitted, written;
+  protected volatile IOException failure;
+
+  /**
+  * Buffers for one chunk of steps: every value, the shuffled bytes,
+  * the compressed bytes of a plane and the encoded chunk.
+  */
+  protected static class Chunk{
+    protected double[] values;
+    protected byte[] shuffled, compressed;
+    protected int steps;
+    protected long sequence;
+    protected ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    protected DataOutputStream encoder = new DataOutputStream(encoded);
+    protected Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /**
+    * Constructor that allocates the buffers for a number of values.
+    *
+    * @param values The number of values in a full chunk
+    */
+    protected Chunk(int values)
+    {
+      this.values = new double[values];
+      shuffled = new byte[8*values];
+      compressed = new byte[8*values + 64];
+    }
+  }
+
+  /**
+  * Constructor that creates, or replaces, a track file compressed by a
+  * single background thread.
+  *
+  * @param fileName user determined file name
+  * @param particlesIn user determined number of particles recorded
+  * @param chunkStepsIn user determined number of steps per chunk
+  * @throws IOException if the file cannot be created
+  */
+  public TrackRecorder(String fileName, int particlesIn, int chunkStepsIn)
+  throws IOException
+  {
+    this(fileName, particlesIn, chunkStepsIn, 1);
+  }
+
+  /**
+  * Constructor that creates, or replaces, a track file and writes its
+  * header. Up to threadsIn chunks are compressed at once, so recording
+  * keeps up with a fast pusher on a machine with spare cores. Chunks
+  * hold chunkStepsIn steps, or fewer if that many would not fit in
+  * CHUNK_BYTES.
+  *
+  * @param fileName user determined file name
+  * @param particlesIn user determined number of particles recorded
+  * @param chunkStepsIn user determined largest number of steps per chunk
+  * @param threadsIn user determined number of compressor threads
+  * @throws IOException if the file cannot be created
+  * @throws IllegalArgumentException if a single step of that many
+  * particles is too large for a chunk buffer
+  */
+  public TrackRecorder(String fileName, int particlesIn, int chunkStepsIn,
+  int threadsIn) throws IOException
+  {
+    int threads = Math.max(1, threadsIn);
+    particles = particlesIn;
+    long stepValues = 1 + (long) QUANTITIES*particles;
+    chunkSteps = (int) Math.max(1, Math.min(chunkStepsIn,
+    CHUNK_BYTES/(8*stepValues)));
+    long values = chunkSteps*stepValues;
+    if (8*values + 64 > Integer.MAX_VALUE - 8)
+    {
+      throw new IllegalArgumentException("Cannot record tracks of "
+      + particles + " particles, a single step takes " + 8*stepValues
+      + " bytes");
+    }
+    out = new DataOutputStream(new BufferedOutputStream(
+    new FileOutputStream(fileName), 1 << 16));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(particles);
+    out.writeInt(QUANTITIES);
+    out.writeInt(chunkSteps);
+    out.writeInt(0);
+    free = new ArrayBlockingQueue<Chunk>(threads + 1);
+    for (int i = 0; i <= threads; i++)
+    {
+      free.add(new Chunk((int) values));
+    }
+    compressor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "TrackRecorder");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+  * Records the positions and velocities of the particles of a store
+  * at one instant of time, each in the column of its id.
+  *
+  * @param timeIn The time
+  * @param storeIn The store holding the particles
+  * @throws IOException if an earlier chunk could not be written
+  */
+  public void record(double timeIn, ParticleStore storeIn) throws IOException
+  {
+    if (failure != null)
+    {
+      throw failure;
+    }
+    if (current == null)
+    {
+      try
+      {
+        current = free.take();
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while recording");
+      }
+      steps = 0;
+    }
+    double[] values = current.values;
+    values[steps] = timeIn;
+    int column = chunkSteps + steps;
+    column = copy(storeIn, storeIn.x, values, column);
+    column = copy(storeIn, storeIn.y, values, column);
+    column = copy(storeIn, storeIn.z, values, column);
+    column = copy(storeIn, storeIn.vx, values, column);
+    column = copy(storeIn, storeIn.vy, values, column);
+    copy(storeIn, storeIn.vz, values, column);
+    steps++;
+    if (steps == chunkSteps)
+    {
+      submit();
+    }
+  }
+
+  /**
+  * Compresses and writes any partly filled chunk, waits for every
+  * chunk to be written and closes the file.
+  *
+  * @throws IOException if the file cannot be written
+  */
+  public void close() throws IOException
+  {
+    if (out == null)
+    {
+      return;
+    }
+    if (current != null && steps > 0)
+    {
+      submit();
+    }
+    compressor.shutdown();
+    try
+    {
+      compressor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing");
+    }
+    for (Chunk chunk : free)
+    {
+      chunk.deflater.end();
+    }
+    out.close();
+    out = null;
+    if (failure != null)
+    {
+      throw failure;
+    }
+  }
+
+  /**
+  * Copies one quantity of every particle into its columns of the
+  * chunk, each particle's column being chunkSteps values long. While
+  * no particle has been lost they are in the order of their ids,
+  * otherwise each is placed by its id and the lost ones are NaN.
+  *
+  * @param storeIn The store holding the particles
+  * @param valuesIn The quantity of every particle
+  * @param values The chunk being filled
+  * @param column Where the first particle's value is stored
+  * @return Where the next quantity of the first particle is stored
+  */
+  protected int copy(ParticleStore storeIn, double[] valuesIn,
+  double[] values, int column)
+  {
+    if (storeIn.size() >= particles)
+    {
+      for (int i = 0; i < particles; i++)
+      {
+        values[column] = valuesIn[i];
+        column += chunkSteps;
+      }
+      return column;
+    }
+    for (int i = 0; i < particles; i++)
+    {
+      values[column + i*chunkSteps] = Double.NaN;
+    }
+    for (int i = 0; i < storeIn.size(); i++)
+    {
+      long id = storeIn.getId(i);
+      if (id < particles)
+      {
+        values[column + (int) id*chunkSteps] = valuesIn[i];
+      }
+    }
+    return column + particles*chunkSteps;
+  }
+
+  /**
+  * Hands the current chunk to the compressor thread. Every chunk
+  * passes through writeInOrder even if it could not be encoded, so the
+  * chunks after it are not left waiting, and is then made free again.
+  */
+  protected void submit()
+  {
+    Chunk chunk = current;
+    chunk.steps = steps;
+    chunk.sequence = submitted++;
+    current = null;
+    compressor.execute(() -> {
+      try
+      {
+        if (failure == null)
+        {
+          encodeChunk(chunk);
+        }
+      }
+      catch (IOException e)
+      {
+        fail(e);
+      }
+      catch (RuntimeException | Error e)
+      {
+        fail(new IOException("Could not encode track chunk "
+        + chunk.sequence, e));
+      }
+      try
+      {
+        writeInOrder(chunk);
+      }
+      catch (IOException e)
+      {
+        fail(e);
+      }
+      finally
+      {
+        free.add(chunk);
+      }
+    });
+  }
+
+  /**
+  * Keeps the first error from the compressor threads.
+  *
+  * @param e The error
+  */
+  protected synchronized void fail(IOException e)
+  {
+    if (failure == null)
+    {
+      failure = e;
+    }
+  }
+
+  /**
+  * Writes an encoded chunk to the file once every chunk submitted
+  * before it has been written. Run on a compressor thread.
+  *
+  * @param chunk The encoded chunk
+  * @throws IOException if the chunk cannot be written
+  */
+  protected synchronized void writeInOrder(Chunk chunk) throws IOException
+  {
+    try
+    {
+      while (written != chunk.sequence)
+      {
+        wait();
+      }
+      if (failure == null)
+      {
+        chunk.encoded.writeTo(out);
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while writing");
+    }
+    finally
+    {
+      written++;
+      notifyAll();
+    }
+  }
+
+  /**
+  * Encodes and compresses one chunk into its own buffer. Run on a
+  * compressor thread.
+  *
+  * @param chunk The chunk to encode
+  * @throws IOException if the chunk cannot be encoded
+  */
+  protected void encodeChunk(Chunk chunk) throws IOException
+  {
+    chunk.encoded.reset();
+    chunk.encoder.writeInt(chunk.steps);
+    encodeGroup(chunk, 0, 1);
+    for (int q = 0; q < QUANTITIES; q++)
+    {
+      encodeGroup(chunk, 1 + q*particles, particles);
+    }
+  }
+
+  /**
+  * Encodes the eight planes of a group of columns.
+  *
+  * @param chunk The chunk being encoded
+  * @param firstColumn The first column of the group
+  * @param columns The number of columns in the group
+  * @throws IOException if the planes cannot be encoded
+  */
+  protected void encodeGroup(Chunk chunk, int firstColumn, int columns)
+  throws IOException
+  {
+    DataOutputStream encoder = chunk.encoder;
+    int steps = chunk.steps;
+    int size = columns*steps;
+    double[] values = chunk.values;
+    byte[] shuffled = chunk.shuffled;
+    int index = 0;
+    for (int c = firstColumn; c < firstColumn + columns; c++)
+    {
+      int start = c*chunkSteps;
+      for (int s = 0; s < steps; s++)
+      {
+        long residual = Double.doubleToRawLongBits(values[start + s])
+        ^ Double.doubleToRawLongBits(predict(values, start, s));
+        for (int b = 0; b < 8; b++)
+        {
+          shuffled[b*size + index] = (byte) (residual >>> (56 - 8*b));
+        }
+        index++;
+      }
+    }
+
+    for (int b = 0; b < 8; b++)
+    {
+      int offset = b*size;
+      int zeros = 0;
+      for (int i = offset; i < offset + size; i++)
+      {
+        if (shuffled[i] == 0)
+        {
+          zeros++;
+        }
+      }
+      if (zeros == size)
+      {
+        encoder.writeByte(ZERO);
+        encoder.writeInt(0);
+        continue;
+      }
+      if (zeros < DEFLATE_ZEROS*size)
+      {
+        encoder.writeByte(STORED);
+        encoder.writeInt(size);
+        encoder.write(shuffled, offset, size);
+        continue;
+      }
+      Deflater deflater = chunk.deflater;
+      deflater.reset();
+      deflater.setInput(shuffled, offset, size);
+      deflater.finish();
+      int length = 0;
+      while (!deflater.finished())
+      {
+        if (length == chunk.compressed.length)
+        {
+          chunk.compressed = Arrays.copyOf(chunk.compressed, 2*length);
+        }
+        length += deflater.deflate(chunk.compressed, length,
+        chunk.compressed.length - length);
+      }
+      encoder.writeByte(DEFLATED);
+      encoder.writeInt(length);
+      encoder.write(chunk.compressed, 0, length);
+    }
+  }
+
+  /**
+  * Predicts a value of a column from the two values before it, using
+  * zero for the first value of a chunk and the first value for the
+  * second. TrackConverter makes the same prediction to decode it.
+  *
+  * @param values The values of the chunk
+  * @param start The index of the first value of the column
+  * @param s The step being predicted
+  * @return The predicted value
+  */
+  protected static double predict(double[] values, int start, int s)
+  {
+    if (s == 0)
+    {
+      return 0;
+    }
+    if (s == 1)
+    {
+      return values[start];
+    }
+    return 2*values[start + s - 1] - values[start + s - 2];
+  }
+}
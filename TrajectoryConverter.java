@@ -0,0 +1,84 @@
+/**
+ * Class which converts a binary trajectory file written by
+ * TrajectoryWriter into CSV text, one record per line, so that it can
+ * be imported into qtiplot etc.
+ *
+ * Usage: java TrajectoryConverter DataOut.bin DataOut.csv
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+
+import java.io.*;
+
+public class TrajectoryConverter{
+
+  public static void main (String[] args) throws IOException{
+    if (args.length != 2)
+    {
+      System.out.println("Usage: java TrajectoryConverter <input.bin> " +
+      "<output.csv>");
+      return;
+    }
+    PrintWriter writer = new PrintWriter(new BufferedWriter(
+    new FileWriter(args[1])));
+    long records = convert(args[0], writer);
+    writer.close();
+    System.out.println("Converted " + records + " records");
+  }
+
+  /**
+  * Reads a trajectory file and writes every record as a line of
+  * comma separated values.
+  *
+  * @param fileName The trajectory file
+  * @param writer Where the CSV lines are written
+  * @return The number of records converted
+  * @throws IOException if the file cannot be read or is not a
+  * trajectory file
+  */
+  public static long convert(String fileName, PrintWriter writer)
+  throws IOException
+  {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+    new FileInputStream(fileName), 1 << 16));
+    try
+    {
+      if (Integer.reverseBytes(in.readInt()) != TrajectoryWriter.MAGIC)
+      {
+        throw new IOException(fileName + " is not a trajectory file");
+      }
+      int version = Integer.reverseBytes(in.readInt());
+      if (version != TrajectoryWriter.VERSION)
+      {
+        throw new IOException(fileName + " has unsupported version " +
+        version);
+      }
+      int recordWidth = Integer.reverseBytes(in.readInt());
+      in.readInt();
+      long records = Long.reverseBytes(in.readLong());
+      in.readLong();
+
+      StringBuilder line = new StringBuilder();
+      for (long r = 0; r < records; r++)
+      {
+        line.setLength(0);
+        for (int i = 0; i < recordWidth; i++)
+        {
+          if (i > 0)
+          {
+            line.append(',');
+          }
+          line.append(Double.longBitsToDouble(Long.reverseBytes(
+          in.readLong())));
+        }
+        writer.println(line);
+      }
+      return records;
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+}
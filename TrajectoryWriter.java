@@ -0,0 +1,223 @@
+/**
+ * Class which writes simulation output to a binary file through a
+ * memory mapped file channel. The file starts with a fixed header
+ * followed by records, each record being a fixed number of little
+ * endian doubles. Nothing is formatted as text while the simulation
+ * runs; TrajectoryConverter turns the file into CSV afterwards.
+ *
+ * The header is 32 bytes: the magic number, the format version and
+ * the number of doubles per record as ints, four bytes of padding,
+ * then the number of records as a long and eight reserved bytes.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.2
+ */
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+public class TrajectoryWriter implements RecordSink{
+
+  /**
+  * MAGIC identifies a trajectory file, VERSION its layout, HEADER_SIZE
+  * is the length of the header in bytes and REGION_SIZE the number of
+  * bytes mapped at a time.
+  */
+  public static final int MAGIC = 0x50415452;
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 32;
+  protected static final long REGION_SIZE = 1 << 26;
+
+  /**
+  * channel is the open file, region the currently mapped part of it
+  * and regionStart the file offset at which region begins.
+  * recordWidth is the number of doubles per record and records the
+  * number written so far.
+  */
+  protected FileChannel channel;
+  protected MappedByteBuffer region;
+  protected long regionStart, records;
+  protected int recordWidth;
+
+  /**
+  * Constructor that creates, or replaces, a trajectory file and writes
+  * its header.
+  *
+  * @param fileName user determined file name
+  * @param recordWidthIn user determined number of doubles per record
+  * @throws IOException if the file cannot be created
+  */
+  public TrajectoryWriter(String fileName, int recordWidthIn)
+  throws IOException
+  {
+    recordWidth = recordWidthIn;
+    channel = FileChannel.open(Paths.get(fileName),
+    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+    StandardOpenOption.READ, StandardOpenOption.WRITE);
+    mapRegion(0);
+    region.putInt(MAGIC);
+    region.putInt(VERSION);
+    region.putInt(recordWidth);
+    region.putInt(0);
+    region.putLong(0);
+    region.putLong(0);
+  }
+
+  /**
+  * Constructor that reopens an existing trajectory file to carry on
+  * writing it, keeping only its first records, as when a run is
+  * restarted from a checkpoint.
+  *
+  * @param fileName user determined file name
+  * @param recordWidthIn user determined number of doubles per record
+  * @param keepIn user determined number of records to keep
+  * @throws IOException if the file cannot be opened, is not a
+  * trajectory file of this width or holds fewer records
+  */
+  public TrajectoryWriter(String fileName, int recordWidthIn, long keepIn)
+  throws IOException
+  {
+    recordWidth = recordWidthIn;
+    channel = FileChannel.open(Paths.get(fileName),
+    StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long end = HEADER_SIZE + 8*recordWidth*keepIn;
+    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+    Math.min(channel.size(), HEADER_SIZE));
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    if (header.capacity() < HEADER_SIZE || header.getInt(0) != MAGIC
+    || header.getInt(4) != VERSION || header.getInt(8) != recordWidth)
+    {
+      channel.close();
+      throw new IOException(fileName + " is not a trajectory file with " +
+      recordWidth + " doubles per record");
+    }
+    if (channel.size() < end)
+    {
+      channel.close();
+      throw new IOException(fileName + " holds fewer than " + keepIn +
+      " records");
+    }
+    records = keepIn;
+    mapRegion(end);
+  }
+
+  /**
+  * Return the number of doubles per record
+  *
+  * @return The record width
+  */
+  public int getRecordWidth()
+  {
+    return recordWidth;
+  }
+
+  /**
+  * Return the number of records written
+  *
+  * @return The number of records
+  */
+  public long getRecords()
+  {
+    return records;
+  }
+
+  /**
+  * Writes one record. Only the first record width values of the array
+  * are written.
+  *
+  * @param valuesIn The values of the record
+  * @throws IOException if the file cannot be extended
+  */
+  public void write(double[] valuesIn) throws IOException
+  {
+    if (region.remaining() < 8*recordWidth)
+    {
+      mapRegion(regionStart + region.position());
+    }
+    for (int i = 0; i < recordWidth; i++)
+    {
+      region.putDouble(valuesIn[i]);
+    }
+    records++;
+  }
+
+  /**
+  * Writes a record of the time and the x and y components of a
+  * vector, for files with a record width of three.
+  *
+  * @param timeIn The time
+  * @param vectorIn The vector
+  * @throws IOException if the file cannot be extended
+  * @throws IllegalStateException if the record width is not three
+  */
+  public void write(double timeIn, PhysicsVector vectorIn) throws IOException
+  {
+    if (recordWidth != 3)
+    {
+      throw new IllegalStateException("A time and vector record needs a " +
+      "record width of 3, not " + recordWidth);
+    }
+    if (region.remaining() < 24)
+    {
+      mapRegion(regionStart + region.position());
+    }
+    region.putDouble(timeIn);
+    region.putDouble(vectorIn.getX());
+    region.putDouble(vectorIn.getY());
+    records++;
+  }
+
+  /**
+  * Records the number of records in the header, flushes the file and
+  * cuts it to the length of the data written.
+  *
+  * @throws IOException if the file cannot be written
+  */
+  public void close() throws IOException
+  {
+    if (channel == null)
+    {
+      return;
+    }
+    long length = regionStart + region.position();
+    region.force();
+    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+    HEADER_SIZE);
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    header.putLong(16, records);
+    header.force();
+    region = null;
+    try
+    {
+      channel.truncate(length);
+    }
+    catch (IOException e)
+    {
+      // Some systems refuse to shorten a mapped file, the padding left
+      // after the last record is ignored by readers
+    }
+    channel.close();
+    channel = null;
+  }
+
+  /**
+  * Maps the next region of the file, starting at the given offset.
+  *
+  * @param startIn The file offset of the new region
+  * @throws IOException if the file cannot be mapped
+  */
+  protected void mapRegion(long startIn) throws IOException
+  {
+    if (region != null)
+    {
+      region.force();
+    }
+    regionStart = startIn;
+    region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart,
+    REGION_SIZE);
+    region.order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
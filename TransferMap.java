@@ -0,0 +1,703 @@
+/**
+ * Class which represents the transfer map of a beamline element, the
+ * state of a particle after a given time in the element written as a
+ * polynomial in its state on entry. In a drift, a uniform dipole or a
+ * quadrupole the motion can be solved once for every particle, so
+ * applying the map does the work of the many small steps an integrator
+ * would take in one pass over the bunch.
+ *
+ * The state is the position and velocity x, y, z, vx, vy and vz, in
+ * the order of ParticleStore. The map is expanded about a centre, the
+ * state of a reference particle, and gives
+ *
+ *   out[i] = image[i] + sum R[i][j]*d[j] + sum T[i][j][k]*d[j]*d[k]
+ *
+ * where d is the state less the centre and image is where the map
+ * takes the centre. R is the 6x6 transfer matrix and T the second
+ * order map, which is symmetric in j and k, or null if the map is
+ * linear. The maps of consecutive elements are composed with then into
+ * a single map of the same form, dropping the terms beyond second
+ * order, so a transport line of any length is applied in one pass.
+ *
+ * The maps are non-relativistic, like the Lorentz force of
+ * FieldEvaluator. A magnetic field leaves the Lorentz factor of a
+ * particle unchanged, so a magnetic map made with the charge to mass
+ * ratio divided by the Lorentz factor suits the relativistic Boris
+ * algorithm too.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.1
+ */
+public class TransferMap{
+
+  /**
+  * SIZE is the number of coordinates of the state and BLOCK the number
+  * of particles mapped at a time, whose deviations from the centre are
+  * held in working arrays small enough for the processor cache.
+  */
+  protected static final int SIZE = 6;
+  protected static final int BLOCK = 1024;
+
+  /**
+  * duration is the time the map covers. centre is the state the map is
+  * expanded about and image the state it takes the centre to. r is the
+  * transfer matrix and t the second order map, or null if there is
+  * none.
+  */
+  protected double duration;
+  protected double[] centre, image;
+  protected double[][] r;
+  protected double[][][] t;
+
+  /**
+  * For each coordinate of the result, linearIndex and linearTerm hold
+  * the coordinates and coefficients of the non-zero terms of r, and
+  * firstIndex, secondIndex and quadraticTerm those of t, each pair of
+  * coordinates once.
+  */
+  protected int[][] linearIndex, firstIndex, secondIndex;
+  protected double[][] linearTerm, quadraticTerm;
+
+  /**
+  * Constructor that sets every part of the map. The arrays are copied.
+  *
+  * @param durationIn user determined time the map covers
+  * @param centreIn user determined state the map is expanded about
+  * @param imageIn user determined state the centre is taken to
+  * @param rIn user determined 6x6 transfer matrix
+  * @param tIn user determined 6x6x6 second order map, symmetric in its
+  * last two indices, or null for a linear map
+  */
+  public TransferMap(double durationIn, double[] centreIn,
+  double[] imageIn, double[][] rIn, double[][][] tIn)
+  {
+    duration = durationIn;
+    centre = centreIn.clone();
+    image = imageIn.clone();
+    r = new double[SIZE][];
+    for (int i = 0; i < SIZE; i++)
+    {
+      r[i] = rIn[i].clone();
+    }
+    if (tIn != null)
+    {
+      t = new double[SIZE][SIZE][];
+      for (int i = 0; i < SIZE; i++)
+      {
+        for (int j = 0; j < SIZE; j++)
+        {
+          t[i][j] = tIn[i][j].clone();
+        }
+      }
+    }
+    prepare();
+  }
+
+  /**
+  * Return the map of a drift, in which every particle keeps its
+  * velocity. The map is exact.
+  *
+  * @param durationIn user determined time spent in the drift
+  * @return The map
+  */
+  public static TransferMap drift(double durationIn)
+  {
+    double[][] rOut = identity(SIZE);
+    for (int i = 0; i < 3; i++)
+    {
+      rOut[i][i + 3] = durationIn;
+    }
+    return new TransferMap(durationIn, new double[SIZE], new double[SIZE],
+    rOut, null);
+  }
+
+  /**
+  * Return the map of a uniform electric and magnetic field, for
+  * example a dipole, a solenoid or the field of the cyclotron at an
+  * instant. The motion is linear, so the map is exact and is worked out
+  * as the exponential of the matrix of the equations of motion.
+  *
+  * @param electricIn user determined electric field strength
+  * @param magneticIn user determined magnetic flux density
+  * @param chargeOverMass user determined charge to mass ratio q/m
+  * @param durationIn user determined time spent in the field
+  * @return The map
+  */
+  public static TransferMap uniform(PhysicsVector electricIn,
+  PhysicsVector magneticIn, double chargeOverMass, double durationIn)
+  {
+    double bx = chargeOverMass*magneticIn.getX();
+    double by = chargeOverMass*magneticIn.getY();
+    double bz = chargeOverMass*magneticIn.getZ();
+
+    // The state is extended by a seventh coordinate which is always
+    // one, so the push of the electric field is a column of the matrix.
+    double[][] generator = new double[SIZE + 1][SIZE + 1];
+    for (int i = 0; i < 3; i++)
+    {
+      generator[i][i + 3] = 1;
+    }
+    generator[3][4] = bz;
+    generator[3][5] = -by;
+    generator[4][5] = bx;
+    generator[4][3] = -bz;
+    generator[5][3] = by;
+    generator[5][4] = -bx;
+    generator[3][SIZE] = chargeOverMass*electricIn.getX();
+    generator[4][SIZE] = chargeOverMass*electricIn.getY();
+    generator[5][SIZE] = chargeOverMass*electricIn.getZ();
+    double[][] flow = exponential(generator, durationIn);
+
+    double[][] rOut = new double[SIZE][SIZE];
+    double[] imageOut = new double[SIZE];
+    for (int i = 0; i < SIZE; i++)
+    {
+      System.arraycopy(flow[i], 0, rOut[i], 0, SIZE);
+      imageOut[i] = flow[i][SIZE];
+    }
+    return new TransferMap(durationIn, new double[SIZE], imageOut, rOut,
+    null);
+  }
+
+  /**
+  * Return the map of a quadrupole whose axis is the z axis, with the
+  * magnetic field gradient*(y, x, 0), expanded about a particle moving
+  * along the axis at a given speed. A positive gradient focuses a
+  * positive particle moving in +z in x and defocuses it in y. The
+  * transfer matrix is exact. The second order map adds the change of
+  * focusing with the speed of a particle, its chromatic aberration,
+  * and the change of that speed, and is worked out by integrating its
+  * equation of motion with small fourth order Runge Kutta steps.
+  *
+  * @param gradientIn user determined field gradient
+  * @param chargeOverMass user determined charge to mass ratio q/m
+  * @param speedIn user determined speed of the reference particle
+  * @param durationIn user determined time spent in the quadrupole
+  * @param secondOrder user determined choice of whether to work out the
+  * second order map
+  * @return The map
+  */
+  public static TransferMap quadrupole(double gradientIn,
+  double chargeOverMass, double speedIn, double durationIn,
+  boolean secondOrder)
+  {
+    double k = chargeOverMass*gradientIn;
+    double[][] a = new double[SIZE][SIZE];
+    for (int i = 0; i < 3; i++)
+    {
+      a[i][i + 3] = 1;
+    }
+    a[3][0] = -k*speedIn;
+    a[4][1] = k*speedIn;
+    double[][] rOut = exponential(a, durationIn);
+
+    double[][][] tOut = null;
+    if (secondOrder)
+    {
+      // The accelerations -k*dvz*x, k*dvz*y and k*(vx*x - vy*y) are
+      // split evenly between the two orders of each product.
+      double[][][] q = new double[SIZE][SIZE][SIZE];
+      q[3][0][5] = q[3][5][0] = -0.5*k;
+      q[4][1][5] = q[4][5][1] = 0.5*k;
+      q[5][0][3] = q[5][3][0] = 0.5*k;
+      q[5][1][4] = q[5][4][1] = -0.5*k;
+      int steps = (int) Math.max(256, Math.ceil(256*durationIn
+      *Math.sqrt(Math.abs(k*speedIn))));
+      tOut = secondOrder(a, q, durationIn, steps);
+    }
+
+    double[] centreOut = new double[SIZE];
+    double[] imageOut = new double[SIZE];
+    centreOut[5] = speedIn;
+    imageOut[2] = speedIn*durationIn;
+    imageOut[5] = speedIn;
+    return new TransferMap(durationIn, centreOut, imageOut, rOut, tOut);
+  }
+
+  /**
+  * Return the second order map of motion obeying d' = A d + Q(d, d),
+  * for a state d measured from a reference which is itself a solution.
+  * T is zero at the start and changes as T' = A T + Q(R, R), where R
+  * is the transfer matrix exp(A t), and is integrated with the fourth
+  * order Runge Kutta method.
+  *
+  * @param a The matrix A of the linear terms
+  * @param q The quadratic terms, symmetric in their last two indices
+  * @param durationIn The time covered
+  * @param steps The number of Runge Kutta steps
+  * @return The second order map
+  */
+  protected static double[][][] secondOrder(double[][] a, double[][][] q,
+  double durationIn, int steps)
+  {
+    double step = durationIn/steps;
+    double[][] halfStep = exponential(a, 0.5*step);
+    double[][] rNow = identity(SIZE);
+    double[][][] tNow = new double[SIZE][SIZE][SIZE];
+    for (int s = 0; s < steps; s++)
+    {
+      double[][] rHalf = multiply(halfStep, rNow);
+      double[][] rNext = multiply(halfStep, rHalf);
+      double[][][] k1 = derivative(a, q, tNow, rNow);
+      double[][][] k2 = derivative(a, q, add(tNow, k1, 0.5*step), rHalf);
+      double[][][] k3 = derivative(a, q, add(tNow, k2, 0.5*step), rHalf);
+      double[][][] k4 = derivative(a, q, add(tNow, k3, step), rNext);
+      for (int i = 0; i < SIZE; i++)
+      {
+        for (int m = 0; m < SIZE; m++)
+        {
+          for (int n = 0; n < SIZE; n++)
+          {
+            tNow[i][m][n] += step/6*(k1[i][m][n] + 2*k2[i][m][n]
+            + 2*k3[i][m][n] + k4[i][m][n]);
+          }
+        }
+      }
+      rNow = rNext;
+    }
+    return tNow;
+  }
+
+  /**
+  * Return the rate of change A T + Q(R, R) of a second order map.
+  *
+  * @param a The matrix of the linear terms
+  * @param q The quadratic terms
+  * @param tIn The second order map
+  * @param rIn The transfer matrix at the same time
+  * @return The rate of change
+  */
+  protected static double[][][] derivative(double[][] a, double[][][] q,
+  double[][][] tIn, double[][] rIn)
+  {
+    double[][][] rate = new double[SIZE][SIZE][SIZE];
+    for (int i = 0; i < SIZE; i++)
+    {
+      for (int m = 0; m < SIZE; m++)
+      {
+        for (int n = 0; n < SIZE; n++)
+        {
+          double sum = 0;
+          for (int j = 0; j < SIZE; j++)
+          {
+            sum += a[i][j]*tIn[j][m][n];
+            for (int k = 0; k < SIZE; k++)
+            {
+              sum += q[i][j][k]*rIn[j][m]*rIn[k][n];
+            }
+          }
+          rate[i][m][n] = sum;
+        }
+      }
+    }
+    return rate;
+  }
+
+  /**
+  * Return a second order map plus a multiple of another.
+  *
+  * @param tIn The map
+  * @param rateIn The map added
+  * @param scale The multiple
+  * @return The sum
+  */
+  protected static double[][][] add(double[][][] tIn, double[][][] rateIn,
+  double scale)
+  {
+    double[][][] sum = new double[SIZE][SIZE][SIZE];
+    for (int i = 0; i < SIZE; i++)
+    {
+      for (int m = 0; m < SIZE; m++)
+      {
+        for (int n = 0; n < SIZE; n++)
+        {
+          sum[i][m][n] = tIn[i][m][n] + scale*rateIn[i][m][n];
+        }
+      }
+    }
+    return sum;
+  }
+
+  /**
+  * Return the exponential of a square matrix times a time, by scaling
+  * it until it is small, summing the Taylor series and squaring the
+  * result back up.
+  *
+  * @param a The matrix
+  * @param time The time it is multiplied by
+  * @return exp(a*time)
+  */
+  protected static double[][] exponential(double[][] a, double time)
+  {
+    int n = a.length;
+    double norm = 0;
+    for (int i = 0; i < n; i++)
+    {
+      double row = 0;
+      for (int j = 0; j < n; j++)
+      {
+        row += Math.abs(a[i][j]*time);
+      }
+      norm = Math.max(norm, row);
+    }
+    int squarings = norm > 0.5 ? Math.getExponent(norm) + 2 : 0;
+    double scale = Math.scalb(time, -squarings);
+
+    double[][] scaled = new double[n][n];
+    for (int i = 0; i < n; i++)
+    {
+      for (int j = 0; j < n; j++)
+      {
+        scaled[i][j] = a[i][j]*scale;
+      }
+    }
+    double[][] sum = identity(n);
+    double[][] term = identity(n);
+    for (int order = 1; order <= 20; order++)
+    {
+      term = multiply(term, scaled);
+      for (int i = 0; i < n; i++)
+      {
+        for (int j = 0; j < n; j++)
+        {
+          term[i][j] /= order;
+          sum[i][j] += term[i][j];
+        }
+      }
+    }
+    for (int s = 0; s < squarings; s++)
+    {
+      sum = multiply(sum, sum);
+    }
+    return sum;
+  }
+
+  /**
+  * Return the identity matrix
+  *
+  * @param n The number of rows
+  * @return The identity matrix
+  */
+  protected static double[][] identity(int n)
+  {
+    double[][] result = new double[n][n];
+    for (int i = 0; i < n; i++)
+    {
+      result[i][i] = 1;
+    }
+    return result;
+  }
+
+  /**
+  * Return the product of two square matrices
+  *
+  * @param left The matrix on the left
+  * @param right The matrix on the right
+  * @return left*right
+  */
+  protected static double[][] multiply(double[][] left, double[][] right)
+  {
+    int n = left.length;
+    double[][] result = new double[n][n];
+    for (int i = 0; i < n; i++)
+    {
+      for (int k = 0; k < n; k++)
+      {
+        double factor = left[i][k];
+        for (int j = 0; j < n; j++)
+        {
+          result[i][j] += factor*right[k][j];
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+  * Lists the non-zero terms of the map for each coordinate, so that
+  * applying the map skips the many zeros of a sparse element.
+  */
+  protected void prepare()
+  {
+    linearIndex = new int[SIZE][];
+    linearTerm = new double[SIZE][];
+    firstIndex = new int[SIZE][];
+    secondIndex = new int[SIZE][];
+    quadraticTerm = new double[SIZE][];
+    for (int i = 0; i < SIZE; i++)
+    {
+      int count = 0;
+      for (int j = 0; j < SIZE; j++)
+      {
+        count += r[i][j] != 0 ? 1 : 0;
+      }
+      linearIndex[i] = new int[count];
+      linearTerm[i] = new double[count];
+      count = 0;
+      for (int j = 0; j < SIZE; j++)
+      {
+        if (r[i][j] != 0)
+        {
+          linearIndex[i][count] = j;
+          linearTerm[i][count++] = r[i][j];
+        }
+      }
+
+      count = 0;
+      for (int j = 0; t != null && j < SIZE; j++)
+      {
+        for (int k = j; k < SIZE; k++)
+        {
+          count += quadratic(i, j, k) != 0 ? 1 : 0;
+        }
+      }
+      firstIndex[i] = new int[count];
+      secondIndex[i] = new int[count];
+      quadraticTerm[i] = new double[count];
+      count = 0;
+      for (int j = 0; t != null && j < SIZE; j++)
+      {
+        for (int k = j; k < SIZE; k++)
+        {
+          if (quadratic(i, j, k) != 0)
+          {
+            firstIndex[i][count] = j;
+            secondIndex[i][count] = k;
+            quadraticTerm[i][count++] = quadratic(i, j, k);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+  * Return the coefficient of d[j]*d[k] in coordinate i, for j no
+  * greater than k, counting both orders of the product.
+  *
+  * @param i The coordinate of the result
+  * @param j The first coordinate of the product
+  * @param k The second coordinate of the product
+  * @return The coefficient
+  */
+  protected double quadratic(int i, int j, int k)
+  {
+    return j == k ? t[i][j][j] : t[i][j][k] + t[i][k][j];
+  }
+
+  /**
+  * Return the map of this element followed by another. The second is
+  * expanded afresh about where this map takes its centre, which is
+  * exact for a polynomial, and the terms of the result beyond second
+  * order are dropped.
+  *
+  * @param next The map of the element which follows
+  * @return The map of both elements
+  */
+  public TransferMap then(TransferMap next)
+  {
+    double[] shift = new double[SIZE];
+    for (int j = 0; j < SIZE; j++)
+    {
+      shift[j] = image[j] - next.centre[j];
+    }
+    double[] imageOut = new double[SIZE];
+    next.apply(image, imageOut);
+
+    // slope is the transfer matrix of the next map about image.
+    double[][] slope = new double[SIZE][SIZE];
+    for (int i = 0; i < SIZE; i++)
+    {
+      for (int k = 0; k < SIZE; k++)
+      {
+        slope[i][k] = next.r[i][k];
+        for (int j = 0; next.t != null && j < SIZE; j++)
+        {
+          slope[i][k] += (next.t[i][j][k] + next.t[i][k][j])*shift[j];
+        }
+      }
+    }
+    double[][] rOut = multiply(slope, r);
+
+    double[][][] tOut = null;
+    if (t != null || next.t != null)
+    {
+      tOut = new double[SIZE][SIZE][SIZE];
+      for (int i = 0; i < SIZE; i++)
+      {
+        for (int m = 0; m < SIZE; m++)
+        {
+          for (int n = 0; n < SIZE; n++)
+          {
+            double sum = 0;
+            for (int j = 0; j < SIZE; j++)
+            {
+              if (t != null)
+              {
+                sum += slope[i][j]*t[j][m][n];
+              }
+              for (int k = 0; next.t != null && k < SIZE; k++)
+              {
+                sum += next.t[i][j][k]*r[j][m]*r[k][n];
+              }
+            }
+            tOut[i][m][n] = sum;
+          }
+        }
+      }
+    }
+    return new TransferMap(duration + next.duration, centre, imageOut,
+    rOut, tOut);
+  }
+
+  /**
+  * Return this map without its second order terms
+  *
+  * @return The linear part of the map
+  */
+  public TransferMap linear()
+  {
+    return new TransferMap(duration, centre, image, r, null);
+  }
+
+  /**
+  * Maps a single state.
+  *
+  * @param stateIn The state x, y, z, vx, vy and vz before the element
+  * @param stateOut Buffer of at least six values for the state after
+  * it, which may be stateIn
+  */
+  public void apply(double[] stateIn, double[] stateOut)
+  {
+    double[] d = new double[SIZE];
+    for (int j = 0; j < SIZE; j++)
+    {
+      d[j] = stateIn[j] - centre[j];
+    }
+    for (int i = 0; i < SIZE; i++)
+    {
+      double sum = image[i];
+      for (int n = 0; n < linearTerm[i].length; n++)
+      {
+        sum += linearTerm[i][n]*d[linearIndex[i][n]];
+      }
+      for (int n = 0; n < quadraticTerm[i].length; n++)
+      {
+        sum += quadraticTerm[i][n]*d[firstIndex[i][n]]*d[secondIndex[i][n]];
+      }
+      stateOut[i] = sum;
+    }
+  }
+
+  /**
+  * Maps the particles of a store with indices from start up to, but
+  * not including, end, a block at a time. The deviations of a block
+  * from the centre are worked out first, then each coordinate is
+  * rebuilt from them one term at a time, so every loop runs straight
+  * along the arrays of the store and may use SIMD instructions. The
+  * positions and velocities change, and the cached Lorentz factor of
+  * each particle is worked out again from its new velocity while the
+  * block is still in the cache.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  */
+  public void apply(ParticleStore storeIn, int start, int end)
+  {
+    if (end <= start)
+    {
+      return;
+    }
+    double[][] columns = {storeIn.x, storeIn.y, storeIn.z, storeIn.vx,
+    storeIn.vy, storeIn.vz};
+    double[][] d = new double[SIZE][Math.min(BLOCK, end - start)];
+    for (int first = start; first < end; first += BLOCK)
+    {
+      int count = Math.min(BLOCK, end - first);
+      for (int j = 0; j < SIZE; j++)
+      {
+        double[] column = columns[j];
+        double[] deviation = d[j];
+        double centreJ = centre[j];
+        for (int i = 0; i < count; i++)
+        {
+          deviation[i] = column[first + i] - centreJ;
+        }
+      }
+      for (int o = 0; o < SIZE; o++)
+      {
+        double[] column = columns[o];
+        double imageO = image[o];
+        for (int i = 0; i < count; i++)
+        {
+          column[first + i] = imageO;
+        }
+        for (int n = 0; n < linearTerm[o].length; n++)
+        {
+          double[] deviation = d[linearIndex[o][n]];
+          double term = linearTerm[o][n];
+          for (int i = 0; i < count; i++)
+          {
+            column[first + i] += term*deviation[i];
+          }
+        }
+        for (int n = 0; n < quadraticTerm[o].length; n++)
+        {
+          double[] left = d[firstIndex[o][n]];
+          double[] right = d[secondIndex[o][n]];
+          double term = quadraticTerm[o][n];
+          for (int i = 0; i < count; i++)
+          {
+            column[first + i] += term*left[i]*right[i];
+          }
+        }
+      }
+      storeIn.updateGamma(first, first + count);
+    }
+  }
+
+  /**
+  * Return the time the map covers
+  *
+  * @return The duration
+  */
+  public double getDuration()
+  {
+    return duration;
+  }
+
+  /**
+  * Return whether the map has no second order terms
+  *
+  * @return true if the map is linear
+  */
+  public boolean isLinear()
+  {
+    return t == null;
+  }
+
+  /**
+  * Return one element of the transfer matrix
+  *
+  * @param i The coordinate of the result
+  * @param j The coordinate of the state it multiplies
+  * @return R[i][j]
+  */
+  public double getMatrix(int i, int j)
+  {
+    return r[i][j];
+  }
+
+  /**
+  * Return one element of the second order map
+  *
+  * @param i The coordinate of the result
+  * @param j The first coordinate of the product
+  * @param k The second coordinate of the product
+  * @return T[i][j][k], or zero if the map is linear
+  */
+  public double getSecondOrder(int i, int j, int k)
+  {
+    return t == null ? 0 : t[i][j][k];
+  }
+}
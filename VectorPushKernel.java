@@ -0,0 +1,268 @@
+/**
+ * Push kernel built on the Java Vector API, which moves as many
+ * particles per instruction as the preferred vector species allows.
+ * Lanes use the same operations in the same order as the scalar
+ * kernel, so the results are identical to it.
+ *
+ * This class needs the incubating jdk.incubator.vector module, it
+ * must be compiled and run with --add-modules jdk.incubator.vector.
+ * It is only loaded through PushKernel.select.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.4
+ */
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+public class VectorPushKernel extends ScalarPushKernel{
+
+  /**
+  * SPECIES is the widest vector shape supported by the processor.
+  */
+  protected static final VectorSpecies<Double> SPECIES =
+  DoubleVector.SPECIES_PREFERRED;
+
+  /**
+  * Pushes a range of particles with the Euler algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric and magnetic fields
+  */
+  public void euler(ParticleStore storeIn, int start, int end,
+  double deltaTime, double[] fieldsIn)
+  {
+    int i = start;
+    int upperBound = start + SPECIES.loopBound(end - start);
+    for (; i < upperBound; i += SPECIES.length())
+    {
+      DoubleVector chargeOverMass = DoubleVector.fromArray(SPECIES,
+      storeIn.charge, i).div(DoubleVector.fromArray(SPECIES, storeIn.mass,
+      i));
+      DoubleVector vx = DoubleVector.fromArray(SPECIES, storeIn.vx, i);
+      DoubleVector vy = DoubleVector.fromArray(SPECIES, storeIn.vy, i);
+      DoubleVector vz = DoubleVector.fromArray(SPECIES, storeIn.vz, i);
+      DoubleVector ax = vy.mul(fieldsIn[5]).sub(vz.mul(fieldsIn[4]))
+      .add(fieldsIn[0]).mul(chargeOverMass);
+      DoubleVector ay = vz.mul(fieldsIn[3]).sub(vx.mul(fieldsIn[5]))
+      .add(fieldsIn[1]).mul(chargeOverMass);
+      DoubleVector az = vx.mul(fieldsIn[4]).sub(vy.mul(fieldsIn[3]))
+      .add(fieldsIn[2]).mul(chargeOverMass);
+      ax.intoArray(storeIn.ax, i);
+      ay.intoArray(storeIn.ay, i);
+      az.intoArray(storeIn.az, i);
+      DoubleVector.fromArray(SPECIES, storeIn.x, i).add(vx.mul(deltaTime))
+      .intoArray(storeIn.x, i);
+      DoubleVector.fromArray(SPECIES, storeIn.y, i).add(vy.mul(deltaTime))
+      .intoArray(storeIn.y, i);
+      DoubleVector.fromArray(SPECIES, storeIn.z, i).add(vz.mul(deltaTime))
+      .intoArray(storeIn.z, i);
+      vx.add(ax.mul(deltaTime)).intoArray(storeIn.vx, i);
+      vy.add(ay.mul(deltaTime)).intoArray(storeIn.vy, i);
+      vz.add(az.mul(deltaTime)).intoArray(storeIn.vz, i);
+    }
+    super.euler(storeIn, i, end, deltaTime, fieldsIn);
+  }
+
+  /**
+  * Pushes a range of particles with the Euler Cromer algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric and magnetic fields
+  */
+  public void eulerCromer(ParticleStore storeIn, int start, int end,
+  double deltaTime, double[] fieldsIn)
+  {
+    int i = start;
+    int upperBound = start + SPECIES.loopBound(end - start);
+    for (; i < upperBound; i += SPECIES.length())
+    {
+      DoubleVector chargeOverMass = DoubleVector.fromArray(SPECIES,
+      storeIn.charge, i).div(DoubleVector.fromArray(SPECIES, storeIn.mass,
+      i));
+      DoubleVector vx = DoubleVector.fromArray(SPECIES, storeIn.vx, i);
+      DoubleVector vy = DoubleVector.fromArray(SPECIES, storeIn.vy, i);
+      DoubleVector vz = DoubleVector.fromArray(SPECIES, storeIn.vz, i);
+      DoubleVector ax = vy.mul(fieldsIn[5]).sub(vz.mul(fieldsIn[4]))
+      .add(fieldsIn[0]).mul(chargeOverMass);
+      DoubleVector ay = vz.mul(fieldsIn[3]).sub(vx.mul(fieldsIn[5]))
+      .add(fieldsIn[1]).mul(chargeOverMass);
+      DoubleVector az = vx.mul(fieldsIn[4]).sub(vy.mul(fieldsIn[3]))
+      .add(fieldsIn[2]).mul(chargeOverMass);
+      ax.intoArray(storeIn.ax, i);
+      ay.intoArray(storeIn.ay, i);
+      az.intoArray(storeIn.az, i);
+      vx = vx.add(ax.mul(deltaTime));
+      vy = vy.add(ay.mul(deltaTime));
+      vz = vz.add(az.mul(deltaTime));
+      vx.intoArray(storeIn.vx, i);
+      vy.intoArray(storeIn.vy, i);
+      vz.intoArray(storeIn.vz, i);
+      DoubleVector.fromArray(SPECIES, storeIn.x, i).add(vx.mul(deltaTime))
+      .intoArray(storeIn.x, i);
+      DoubleVector.fromArray(SPECIES, storeIn.y, i).add(vy.mul(deltaTime))
+      .intoArray(storeIn.y, i);
+      DoubleVector.fromArray(SPECIES, storeIn.z, i).add(vz.mul(deltaTime))
+      .intoArray(storeIn.z, i);
+    }
+    super.eulerCromer(storeIn, i, end, deltaTime, fieldsIn);
+  }
+
+  /**
+  * Pushes a range of particles with the Boris algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric and magnetic fields
+  */
+  public void boris(ParticleStore storeIn, int start, int end,
+  double deltaTime, double[] fieldsIn)
+  {
+    int i = start;
+    int upperBound = start + SPECIES.loopBound(end - start);
+    for (; i < upperBound; i += SPECIES.length())
+    {
+      DoubleVector halfStep = DoubleVector.fromArray(SPECIES,
+      storeIn.charge, i).div(DoubleVector.fromArray(SPECIES, storeIn.mass,
+      i)).mul(0.5*deltaTime);
+      DoubleVector tx = halfStep.mul(fieldsIn[3]);
+      DoubleVector ty = halfStep.mul(fieldsIn[4]);
+      DoubleVector tz = halfStep.mul(fieldsIn[5]);
+      DoubleVector factor = DoubleVector.broadcast(SPECIES, 2)
+      .div(tx.mul(tx).add(ty.mul(ty)).add(tz.mul(tz)).add(1));
+      DoubleVector sx = tx.mul(factor);
+      DoubleVector sy = ty.mul(factor);
+      DoubleVector sz = tz.mul(factor);
+
+      DoubleVector vx = DoubleVector.fromArray(SPECIES, storeIn.vx, i);
+      DoubleVector vy = DoubleVector.fromArray(SPECIES, storeIn.vy, i);
+      DoubleVector vz = DoubleVector.fromArray(SPECIES, storeIn.vz, i);
+      DoubleVector electricX = halfStep.mul(fieldsIn[0]);
+      DoubleVector electricY = halfStep.mul(fieldsIn[1]);
+      DoubleVector electricZ = halfStep.mul(fieldsIn[2]);
+      DoubleVector minusX = vx.add(electricX);
+      DoubleVector minusY = vy.add(electricY);
+      DoubleVector minusZ = vz.add(electricZ);
+      DoubleVector primeX = minusX.add(minusY.mul(tz).sub(minusZ.mul(ty)));
+      DoubleVector primeY = minusY.add(minusZ.mul(tx).sub(minusX.mul(tz)));
+      DoubleVector primeZ = minusZ.add(minusX.mul(ty).sub(minusY.mul(tx)));
+      DoubleVector newX = minusX.add(primeY.mul(sz).sub(primeZ.mul(sy)))
+      .add(electricX);
+      DoubleVector newY = minusY.add(primeZ.mul(sx).sub(primeX.mul(sz)))
+      .add(electricY);
+      DoubleVector newZ = minusZ.add(primeX.mul(sy).sub(primeY.mul(sx)))
+      .add(electricZ);
+
+      newX.sub(vx).div(deltaTime).intoArray(storeIn.ax, i);
+      newY.sub(vy).div(deltaTime).intoArray(storeIn.ay, i);
+      newZ.sub(vz).div(deltaTime).intoArray(storeIn.az, i);
+      newX.intoArray(storeIn.vx, i);
+      newY.intoArray(storeIn.vy, i);
+      newZ.intoArray(storeIn.vz, i);
+      DoubleVector.fromArray(SPECIES, storeIn.x, i).add(newX.mul(deltaTime))
+      .intoArray(storeIn.x, i);
+      DoubleVector.fromArray(SPECIES, storeIn.y, i).add(newY.mul(deltaTime))
+      .intoArray(storeIn.y, i);
+      DoubleVector.fromArray(SPECIES, storeIn.z, i).add(newZ.mul(deltaTime))
+      .intoArray(storeIn.z, i);
+    }
+    super.boris(storeIn, i, end, deltaTime, fieldsIn);
+  }
+
+  /**
+  * Pushes a range of particles with the relativistic Boris algorithm.
+  *
+  * @param storeIn The store holding the particles
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval
+  * @param fieldsIn The electric and magnetic fields
+  */
+  public void relativisticBoris(ParticleStore storeIn, int start, int end,
+  double deltaTime, double[] fieldsIn)
+  {
+    double inverseCSquared = 1/(RelativisticParticle.SPEED_OF_LIGHT
+    *RelativisticParticle.SPEED_OF_LIGHT);
+    double inverseTime = 1/deltaTime;
+    boolean magneticOnly = fieldsIn[0] == 0 && fieldsIn[1] == 0
+    && fieldsIn[2] == 0;
+    int i = start;
+    int upperBound = start + SPECIES.loopBound(end - start);
+    for (; i < upperBound; i += SPECIES.length())
+    {
+      DoubleVector halfStep = DoubleVector.fromArray(SPECIES,
+      storeIn.charge, i).div(DoubleVector.fromArray(SPECIES, storeIn.mass,
+      i)).mul(0.5*deltaTime);
+      DoubleVector gamma = DoubleVector.fromArray(SPECIES, storeIn.gamma, i);
+      DoubleVector vx = DoubleVector.fromArray(SPECIES, storeIn.vx, i);
+      DoubleVector vy = DoubleVector.fromArray(SPECIES, storeIn.vy, i);
+      DoubleVector vz = DoubleVector.fromArray(SPECIES, storeIn.vz, i);
+      DoubleVector electricX = halfStep.mul(fieldsIn[0]);
+      DoubleVector electricY = halfStep.mul(fieldsIn[1]);
+      DoubleVector electricZ = halfStep.mul(fieldsIn[2]);
+      DoubleVector minusX = gamma.mul(vx).add(electricX);
+      DoubleVector minusY = gamma.mul(vy).add(electricY);
+      DoubleVector minusZ = gamma.mul(vz).add(electricZ);
+
+      DoubleVector minusGamma = gamma;
+      if (!magneticOnly)
+      {
+        minusGamma = minusX.mul(minusX).add(minusY.mul(minusY))
+        .add(minusZ.mul(minusZ)).mul(inverseCSquared).add(1).sqrt();
+      }
+      DoubleVector rotation = halfStep.div(minusGamma);
+      DoubleVector tx = rotation.mul(fieldsIn[3]);
+      DoubleVector ty = rotation.mul(fieldsIn[4]);
+      DoubleVector tz = rotation.mul(fieldsIn[5]);
+      DoubleVector factor = DoubleVector.broadcast(SPECIES, 2)
+      .div(tx.mul(tx).add(ty.mul(ty)).add(tz.mul(tz)).add(1));
+      DoubleVector sx = tx.mul(factor);
+      DoubleVector sy = ty.mul(factor);
+      DoubleVector sz = tz.mul(factor);
+
+      DoubleVector primeX = minusX.add(minusY.mul(tz).sub(minusZ.mul(ty)));
+      DoubleVector primeY = minusY.add(minusZ.mul(tx).sub(minusX.mul(tz)));
+      DoubleVector primeZ = minusZ.add(minusX.mul(ty).sub(minusY.mul(tx)));
+      DoubleVector newX = minusX.add(primeY.mul(sz).sub(primeZ.mul(sy)))
+      .add(electricX);
+      DoubleVector newY = minusY.add(primeZ.mul(sx).sub(primeX.mul(sz)))
+      .add(electricY);
+      DoubleVector newZ = minusZ.add(primeX.mul(sy).sub(primeY.mul(sx)))
+      .add(electricZ);
+      DoubleVector newGamma = minusGamma;
+      if (!magneticOnly)
+      {
+        newGamma = newX.mul(newX).add(newY.mul(newY)).add(newZ.mul(newZ))
+        .mul(inverseCSquared).add(1).sqrt();
+      }
+      DoubleVector inverseGamma = DoubleVector.broadcast(SPECIES, 1)
+      .div(newGamma);
+      newX = newX.mul(inverseGamma);
+      newY = newY.mul(inverseGamma);
+      newZ = newZ.mul(inverseGamma);
+
+      newX.sub(vx).mul(inverseTime).intoArray(storeIn.ax, i);
+      newY.sub(vy).mul(inverseTime).intoArray(storeIn.ay, i);
+      newZ.sub(vz).mul(inverseTime).intoArray(storeIn.az, i);
+      newX.intoArray(storeIn.vx, i);
+      newY.intoArray(storeIn.vy, i);
+      newZ.intoArray(storeIn.vz, i);
+      newGamma.intoArray(storeIn.gamma, i);
+      DoubleVector.fromArray(SPECIES, storeIn.x, i).add(newX.mul(deltaTime))
+      .intoArray(storeIn.x, i);
+      DoubleVector.fromArray(SPECIES, storeIn.y, i).add(newY.mul(deltaTime))
+      .intoArray(storeIn.y, i);
+      DoubleVector.fromArray(SPECIES, storeIn.z, i).add(newZ.mul(deltaTime))
+      .intoArray(storeIn.z, i);
+    }
+    super.relativisticBoris(storeIn, i, end, deltaTime, fieldsIn);
+  }
+}
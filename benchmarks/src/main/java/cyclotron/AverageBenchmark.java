@@ -0,0 +1,73 @@
+/**
+ * Benchmarks of the passes over a bunch of 10^2 to 10^7 particles made
+ * to record it: the average position written every step,
+ * ParticleBunch.calculateAverage, and the full beam statistics,
+ * ParticleBunch.calculateStatistics. Neither depends on the integrator,
+ * so unlike BunchBenchmark they are not repeated for each.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+package cyclotron;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "--add-modules",
+"jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class AverageBenchmark{
+
+  /**
+  * particles is the number of particles in the bunch.
+  */
+  @Param({"100", "1000", "10000", "100000", "1000000", "10000000"})
+  public int particles;
+
+  /**
+  * bunch is the bunch averaged.
+  */
+  protected ParticleBunch bunch;
+
+  /**
+  * Sets up a bunch spread as CyclotronSimulation spreads it by
+  * default.
+  */
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    bunch = new ParticleBunch(1.67e-27, 1.60e-19, new PhysicsVector(),
+    new PhysicsVector(0.1, 0, 0), particles, 3);
+    bunch.setRandom(new Random(1));
+    bunch.randomisePositions(new PhysicsVector(0.01, 0, 0));
+  }
+
+  /**
+  * The average position of the bunch.
+  *
+  * @return The average position
+  */
+  @Benchmark
+  public PhysicsVector calculateAverage()
+  {
+    bunch.calculateAverage();
+    return bunch.getAverage();
+  }
+
+  /**
+  * The full statistics of the bunch.
+  *
+  * @return The statistics
+  */
+  @Benchmark
+  public BeamStatistics calculateStatistics()
+  {
+    bunch.calculateStatistics();
+    return bunch.getStatistics();
+  }
+}
@@ -0,0 +1,45 @@
+/**
+ * Class which runs the benchmarks with the JMH command line, adding the
+ * GC profiler unless it has been asked for already, so that the rate at
+ * which every benchmark allocates is reported next to its time. Any
+ * other JMH option may be given, for example
+ *
+ *   java -jar target/benchmarks.jar BunchBenchmark -p particles=1000000
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+package cyclotron;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class Benchmarks{
+
+  /**
+  * Runs the benchmarks with the GC profiler.
+  *
+  * @param args The JMH command line
+  * @throws Exception if the benchmarks cannot be run
+  */
+  public static void main(String[] args) throws Exception
+  {
+    List<String> options = new ArrayList<String>(Arrays.asList(args));
+    boolean profiled = false;
+    for (int i = 0; i + 1 < options.size(); i++)
+    {
+      if (options.get(i).equals("-prof")
+      && options.get(i + 1).startsWith("gc"))
+      {
+        profiled = true;
+      }
+    }
+    if (!profiled)
+    {
+      options.add("-prof");
+      options.add("gc");
+    }
+    org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Benchmarks of one step of a bunch of particles through the field of
+ * the cyclotron, ParticleBunch.updateBunch, for every integrator and
+ * for bunches of 10^2 to 10^7 particles. The bunch and field are set up
+ * as CyclotronSimulation sets them up with its default parameters, and
+ * the bunch is put back to its starting state before each iteration so
+ * every iteration pushes the same orbits. The number of threads pushing
+ * the bunch may be set with -p threads=n.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+package cyclotron;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "--add-modules",
+"jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class BunchBenchmark{
+
+  /**
+  * particles is the number of particles in the bunch, algorithm the
+  * integrator choice as for ParticleBunch and threads the number of
+  * threads pushing the bunch.
+  */
+  @Param({"100", "1000", "10000", "100000", "1000000", "10000000"})
+  public int particles;
+  @Param({"1", "2", "3", "4", "5"})
+  public int algorithm;
+  @Param({"1"})
+  public int threads;
+
+  /**
+  * bunch is the bunch pushed, start a copy of its starting state,
+  * field the field of the cyclotron, pool the threads pushing the
+  * bunch, timeStep the step and time the time reached.
+  */
+  protected ParticleBunch bunch;
+  protected ParticleStore start;
+  protected DynamicField field;
+  protected ForkJoinPool pool;
+  protected double timeStep = 1.00e-4;
+  protected double time;
+
+  /**
+  * Sets up the bunch and field.
+  */
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    double mass = 1.67e-27;
+    double charge = 1.60e-19;
+    field = new DynamicField(new PhysicsVector(0, 0, 0),
+    new PhysicsVector(0, 1e-7, 0), new PhysicsVector(0, 0, 1e-7), 1);
+    field.initialiseElectric();
+    field.setPeriod(2*Math.PI*mass/(1e-7*charge));
+    bunch = new ParticleBunch(mass, charge, new PhysicsVector(),
+    new PhysicsVector(0.1, 0, 0), particles, algorithm);
+    bunch.setRandom(new Random(1));
+    bunch.randomisePositions(new PhysicsVector(0.01, 0, 0));
+    if (threads > 1)
+    {
+      pool = new ForkJoinPool(threads);
+      bunch.setPool(pool);
+    }
+    start = new ParticleStore(particles);
+    start.copyFrom(bunch.getStore());
+  }
+
+  /**
+  * Puts the bunch back to its starting state.
+  */
+  @Setup(Level.Iteration)
+  public void reset()
+  {
+    bunch.getStore().copyFrom(start);
+    time = 0;
+  }
+
+  /**
+  * Shuts down the threads pushing the bunch.
+  */
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    if (pool != null)
+    {
+      pool.shutdown();
+    }
+  }
+
+  /**
+  * One step of the whole bunch.
+  *
+  * @return The particles
+  */
+  @Benchmark
+  public ParticleStore updateBunch()
+  {
+    time += timeStep;
+    bunch.updateBunch(timeStep, time, field);
+    return bunch.getStore();
+  }
+}
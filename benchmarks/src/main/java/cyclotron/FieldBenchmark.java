@@ -0,0 +1,134 @@
+/**
+ * Benchmarks of the field evaluations made for every particle or every
+ * step: the Lorentz acceleration of EMField, the reduction of the
+ * magnetic field past the divider and the oscillation of the electric
+ * field of DynamicField, and the field of DynamicField at a position
+ * as the bunch push reads it. The positions straddle the divider so
+ * both sides of it are taken.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+package cyclotron;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class FieldBenchmark{
+
+  /**
+  * POSITIONS is the number of positions cycled through.
+  */
+  protected static final int POSITIONS = 1024;
+
+  /**
+  * field is the uniform field, dynamic the field of the cyclotron and
+  * particle the particle accelerated. positions are the positions the
+  * field is evaluated at, next the index of the next one, out receives
+  * the field and time and period are those of the oscillation.
+  */
+  protected EMField field;
+  protected DynamicField dynamic;
+  protected ChargedParticle particle;
+  protected PhysicsVector[] positions;
+  protected int next;
+  protected double[] out = new double[6];
+  protected double time, period;
+
+  /**
+  * Sets up the fields with the default parameters of
+  * CyclotronSimulation, and positions spread either side of the
+  * divider.
+  */
+  @Setup
+  public void setUp()
+  {
+    PhysicsVector electric = new PhysicsVector(0, 1e-7, 0);
+    PhysicsVector magnetic = new PhysicsVector(0, 0, 1e-7);
+    field = new EMField(electric, magnetic);
+    dynamic = new DynamicField(new PhysicsVector(0, 0, 0), electric,
+    magnetic, 1);
+    dynamic.initialiseElectric();
+    period = 2*Math.PI*1.67e-27/(1e-7*1.60e-19);
+    dynamic.setPeriod(period);
+    particle = new ChargedParticle(1.67e-27, 1.60e-19,
+    new PhysicsVector(), new PhysicsVector(0.1, 0, 0));
+    Random random = new Random(1);
+    positions = new PhysicsVector[POSITIONS];
+    for (int i = 0; i < POSITIONS; i++)
+    {
+      positions[i] = new PhysicsVector(0.02*(random.nextDouble() - 0.5),
+      0.02*(random.nextDouble() - 0.5), 0);
+    }
+  }
+
+  /**
+  * Return the next position, cycling through them.
+  *
+  * @return The position
+  */
+  protected PhysicsVector nextPosition()
+  {
+    next = (next + 1) & (POSITIONS - 1);
+    return positions[next];
+  }
+
+  /**
+  * The Lorentz acceleration of a particle in the uniform field.
+  *
+  * @return The acceleration
+  */
+  @Benchmark
+  public PhysicsVector calculateAcceleration()
+  {
+    field.calculateAcceleration(particle);
+    return field.getAcceleration();
+  }
+
+  /**
+  * The magnetic field reduced, or not, at the next position.
+  *
+  * @return The magnetic field
+  */
+  @Benchmark
+  public PhysicsVector reduceX()
+  {
+    dynamic.reduceX(nextPosition());
+    return dynamic.getMagnetic();
+  }
+
+  /**
+  * The electric field set for the next time.
+  *
+  * @return The electric field
+  */
+  @Benchmark
+  public PhysicsVector oscillatingElectric()
+  {
+    time += 1e-4;
+    dynamic.oscillatingElectric(time, period);
+    return dynamic.getElectric();
+  }
+
+  /**
+  * The field of the cyclotron at the next position and time.
+  *
+  * @return The electric and magnetic fields
+  */
+  @Benchmark
+  public double[] fieldAt()
+  {
+    PhysicsVector position = nextPosition();
+    time += 1e-4;
+    dynamic.fieldAt(position.getX(), position.getY(), position.getZ(),
+    time, out);
+    return out;
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Benchmarks of a transport line of twenty FODO cells, each a focusing
+ * quadrupole, a drift, a defocusing quadrupole and a drift, for
+ * bunches of 10^2 to 10^7 particles. applyMap passes the bunch through
+ * the whole line with its composed transfer map, to first or second
+ * order, and quadrupoleStep takes a single Boris step through the field
+ * of a quadrupole, of which integrating the line would take thousands.
+ * The bunch is put back to its starting state before each iteration.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+package cyclotron;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "--add-modules",
+"jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class TransferMapBenchmark{
+
+  /**
+  * particles is the number of particles in the bunch and order the
+  * order of the map of the line.
+  */
+  @Param({"100", "1000", "10000", "100000", "1000000", "10000000"})
+  public int particles;
+  @Param({"1", "2"})
+  public int order;
+
+  /**
+  * bunch is the bunch moved, start a copy of its starting state, line
+  * the map of the transport line, quadrupole the field of one of its
+  * quadrupoles and timeStep the step through it.
+  */
+  protected ParticleBunch bunch;
+  protected ParticleStore start;
+  protected TransferMap line;
+  protected QuadrupoleField quadrupole;
+  protected double timeStep = 1e-10;
+
+  /**
+  * Sets up a proton bunch moving at 10^6 m/s along the line, with a
+  * spread of 1 mm, 1 mrad and 1% in speed, and composes the map of the
+  * line.
+  */
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    double mass = 1.67e-27;
+    double charge = 1.60e-19;
+    double speed = 1e6;
+    bunch = new ParticleBunch(mass, charge, new PhysicsVector(),
+    new PhysicsVector(0, 0, speed), particles, 3);
+    ParticleStore store = bunch.getStore();
+    Random random = new Random(1);
+    for (int i = 0; i < particles; i++)
+    {
+      store.x[i] = 1e-3*random.nextGaussian();
+      store.y[i] = 1e-3*random.nextGaussian();
+      store.vx[i] = 1e-3*speed*random.nextGaussian();
+      store.vy[i] = 1e-3*speed*random.nextGaussian();
+      store.vz[i] = speed*(1 + 1e-2*random.nextGaussian());
+    }
+    start = new ParticleStore(particles);
+    start.copyFrom(store);
+
+    double length = 0.05/speed;
+    boolean secondOrder = order == 2;
+    TransferMap drift = TransferMap.drift(2*length);
+    TransferMap cell = TransferMap.quadrupole(1, charge/mass, speed, length,
+    secondOrder).then(drift).then(TransferMap.quadrupole(-1, charge/mass,
+    speed, length, secondOrder)).then(drift);
+    line = cell;
+    for (int c = 1; c < 20; c++)
+    {
+      line = line.then(cell);
+    }
+    quadrupole = new QuadrupoleField(1);
+  }
+
+  /**
+  * Puts the bunch back to its starting state.
+  */
+  @Setup(Level.Iteration)
+  public void reset()
+  {
+    bunch.getStore().copyFrom(start);
+  }
+
+  /**
+  * The whole line, with its transfer map.
+  *
+  * @return The particles
+  */
+  @Benchmark
+  public ParticleStore applyMap()
+  {
+    bunch.applyMap(line, 0);
+    return bunch.getStore();
+  }
+
+  /**
+  * One step through a quadrupole, with the Boris algorithm.
+  *
+  * @return The particles
+  */
+  @Benchmark
+  public ParticleStore quadrupoleStep()
+  {
+    bunch.updateBunch(timeStep, 0, quadrupole);
+    return bunch.getStore();
+  }
+}
@@ -0,0 +1,102 @@
+/**
+ * Benchmarks of the PhysicsVector operations used throughout the push:
+ * the cross product, scaling and adding one vector to another. Each is
+ * measured both in the form which makes a new vector and in the form
+ * which writes into an existing one, so the GC profiler shows what the
+ * allocation costs.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.0
+ */
+package cyclotron;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class VectorBenchmark{
+
+  /**
+  * u and v are the operands, result receives the in place operations
+  * and factor is the scale factor.
+  */
+  protected PhysicsVector u, v, result;
+  protected double factor;
+
+  /**
+  * Sets up the operands.
+  */
+  @Setup
+  public void setUp()
+  {
+    u = new PhysicsVector(0.1, -0.2, 0.3);
+    v = new PhysicsVector(1e-7, 2e-7, -3e-7);
+    result = new PhysicsVector();
+    factor = 1.0001;
+  }
+
+  /**
+  * The cross product returned as a new vector.
+  *
+  * @return The product
+  */
+  @Benchmark
+  public PhysicsVector cross()
+  {
+    return PhysicsVector.cross(u, v);
+  }
+
+  /**
+  * The cross product written into an existing vector.
+  *
+  * @return The product
+  */
+  @Benchmark
+  public PhysicsVector crossInto()
+  {
+    PhysicsVector.cross(u, v, result);
+    return result;
+  }
+
+  /**
+  * A vector scaled and returned as a new vector.
+  *
+  * @return The scaled vector
+  */
+  @Benchmark
+  public PhysicsVector scale()
+  {
+    return PhysicsVector.scale(factor, u);
+  }
+
+  /**
+  * A vector scaled in place.
+  *
+  * @return The scaled vector
+  */
+  @Benchmark
+  public PhysicsVector scaleInPlace()
+  {
+    result.setVector(u);
+    result.scale(factor);
+    return result;
+  }
+
+  /**
+  * One vector added to another in place.
+  *
+  * @return The sum
+  */
+  @Benchmark
+  public PhysicsVector increaseBy()
+  {
+    result.setVector(u);
+    result.increaseBy(v);
+    return result;
+  }
+}
@@ -0,0 +1,460 @@
+/**
+ * Class which represents a bunch of particles held outside the Java
+ * heap. The per particle arrays of ParticleStore are laid out one after
+ * another in a single MemorySegment. The segment is either memory
+ * allocated with the Foreign Function and Memory API or a memory mapped
+ * file. A mapped file may be larger than the physical memory, in which
+ * case the operating system pages it in and out as the bunch is swept.
+ * Either way the heap and the marking work of the garbage collector
+ * stay the same size however many particles there are.
+ *
+ * The bunch is pushed, mapped and its statistics gathered a chunk at a
+ * time. Each thread copies a chunk of CHUNK particles into a small
+ * ParticleStore of its own, works on it with the same integrators,
+ * kernels and transfer maps as an ordinary bunch, and copies it back.
+ * A chunk fits in the processor cache, so the copies cost little
+ * beside the push. The average position is read from the segment
+ * directly.
+ *
+ * The particles are not held in a ParticleStore, so the bunch cannot be
+ * checkpointed, have its tracks recorded or have a space charge solver.
+ * close releases the memory, or writes the mapped file back.
+ *
+ * This class uses java.lang.foreign, which is final in Java 22 and a
+ * preview in Java 21, so it is kept in the offheap directory, out of
+ * the default build, compiled only where that API is present and
+ * created with ParticleBunch.offHeap.
+ *
+ * @author Tehmoor Hussain
+ * @version 1.5
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class OffHeapParticleBunch extends ParticleBunch implements Closeable{
+
+  /**
+  * CHUNK is the number of particles copied to the heap at a time.
+  * The arrays are laid out in the order of ParticleStore.columns, at
+  * the positions given by its column constants.
+  */
+  protected static final int CHUNK = 4096;
+
+  /**
+  * arena owns the memory of the bunch, and segment holds the particles,
+  * each array in turn, capacity particles long. mapped is true when
+  * the segment is a file. staging holds the chunk each thread is
+  * working on.
+  */
+  protected int capacity;
+  protected Arena arena;
+  protected MemorySegment segment;
+  protected boolean mapped;
+  protected ThreadLocal<ParticleStore> staging =
+  ThreadLocal.withInitial(() -> new ParticleStore(CHUNK));
+
+  /**
+  * Constructor that creates an off heap bunch with every particle in
+  * the same initial state.
+  *
+  * @param massIn user determined mass
+  * @param chargeIn user determined charge
+  * @param positionIn user determined position
+  * @param velocityIn user determined velocity
+  * @param numberIn user determined number of particles
+  * @param integratorIn user determined integrator
+  * @param fileIn user determined file backing the particles, or null to
+  * hold them in memory
+  * @throws IOException if the file cannot be mapped
+  */
+  public OffHeapParticleBunch(double massIn, double chargeIn,
+  PhysicsVector positionIn, PhysicsVector velocityIn, int numberIn,
+  Integrator integratorIn, String fileIn) throws IOException
+  {
+    super();
+    checkColumns();
+    setMass(massIn);
+    setCharge(chargeIn);
+    setPosition(positionIn);
+    setVelocity(velocityIn);
+    numberParticles = numberIn;
+    capacity = numberIn;
+    integrator = integratorIn;
+    grainSize = CHUNK;
+
+    long bytes = (long) ParticleStore.COLUMNS*numberIn*Double.BYTES;
+    arena = Arena.ofShared();
+    try
+    {
+      if (fileIn == null)
+      {
+        segment = arena.allocate(Math.max(bytes, 1), 64);
+      }
+      else
+      {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileIn),
+        StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE))
+        {
+          segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes,
+          arena);
+        }
+        mapped = true;
+      }
+    }
+    catch (IOException | RuntimeException e)
+    {
+      arena.close();
+      throw e;
+    }
+
+    ParticleStore chunk = staging.get();
+    ChargedParticle particle = new ChargedParticle(massIn, chargeIn,
+    positionIn, velocityIn);
+    for (int i = 0; i < Math.min(CHUNK, numberIn); i++)
+    {
+      chunk.setParticle(i, particle);
+    }
+    for (int start = 0; start < numberIn; start += CHUNK)
+    {
+      int count = Math.min(CHUNK, numberIn - start);
+      for (int i = 0; i < count; i++)
+      {
+        chunk.id[i] = start + i;
+      }
+      save(chunk, start, count, true);
+    }
+  }
+
+  /**
+  * Checks that ParticleStore.columns gives a separate array at each of
+  * the positions its column constants name, which the layout of the
+  * segment depends on.
+  *
+  * @throws IllegalStateException if a column is missing or repeated
+  */
+  protected static void checkColumns()
+  {
+    double[][] columns = new ParticleStore(0).columns();
+    if (columns.length != ParticleStore.COLUMNS)
+    {
+      throw new IllegalStateException("ParticleStore has " +
+      columns.length + " columns rather than " + ParticleStore.COLUMNS);
+    }
+    for (int c = 0; c < columns.length; c++)
+    {
+      boolean repeated = false;
+      for (int d = 0; d < c; d++)
+      {
+        repeated |= columns[c] == columns[d];
+      }
+      if (columns[c] == null || repeated)
+      {
+        throw new IllegalStateException("ParticleStore column " + c +
+        " is missing or repeated");
+      }
+    }
+  }
+
+  /**
+  * Return the offset in bytes of a particle in one of the arrays.
+  *
+  * @param column The array, in the order of ParticleStore.columns
+  * @param i The index of the particle
+  * @return The offset in the segment
+  */
+  protected long offset(int column, int i)
+  {
+    return ((long) column*capacity + i)*Double.BYTES;
+  }
+
+  /**
+  * Copies particles from the segment into the start of a store.
+  *
+  * @param storeIn The store to copy into
+  * @param start The index of the first particle
+  * @param count The number of particles
+  */
+  protected void load(ParticleStore storeIn, int start, int count)
+  {
+    double[][] columns = storeIn.columns();
+    for (int c = 0; c < ParticleStore.COLUMNS; c++)
+    {
+      MemorySegment.copy(segment, ValueLayout.JAVA_DOUBLE, offset(c, start),
+      columns[c], 0, count);
+    }
+  }
+
+  /**
+  * Copies particles from the start of a store into the segment.
+  *
+  * @param storeIn The store to copy from
+  * @param start The index of the first particle
+  * @param count The number of particles
+  * @param constants Whether to copy the masses, charges and ids, which
+  * the push leaves unchanged
+  */
+  protected void save(ParticleStore storeIn, int start, int count,
+  boolean constants)
+  {
+    double[][] columns = storeIn.columns();
+    for (int c = 0; c < ParticleStore.COLUMNS; c++)
+    {
+      if (constants || (c != ParticleStore.MASS && c != ParticleStore.CHARGE
+      && c != ParticleStore.ID))
+      {
+        MemorySegment.copy(columns[c], 0, segment, ValueLayout.JAVA_DOUBLE,
+        offset(c, start), count);
+      }
+    }
+  }
+
+  /**
+  * Moves the particles with indices from start up to, but not
+  * including, end a chunk at a time.
+  *
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param deltaTime The time interval used in the simulation
+  * @param timeIn The time at which the field is evaluated
+  * @param fieldIn The user defined EM field
+  */
+  protected void pushRange(int start, int end, double deltaTime,
+  double timeIn, FieldEvaluator fieldIn)
+  {
+    ParticleStore chunk = staging.get();
+    for (int first = start; first < end; first += CHUNK)
+    {
+      int count = Math.min(CHUNK, end - first);
+      load(chunk, first, count);
+      integrator.push(chunk, 0, count, deltaTime, timeIn, fieldIn, kernel);
+      save(chunk, first, count, false);
+      if (aperture != null)
+      {
+        findLosses(chunk, 0, count, first);
+      }
+    }
+  }
+
+  /**
+  * Works out the Lorentz factor of every particle from its velocity, a
+  * chunk at a time.
+  */
+  protected void updateGamma()
+  {
+    ParticleStore chunk = staging.get();
+    for (int first = 0; first < numberParticles; first += CHUNK)
+    {
+      int count = Math.min(CHUNK, numberParticles - first);
+      load(chunk, first, count);
+      chunk.updateGamma(0, count);
+      save(chunk, first, count, false);
+    }
+  }
+
+  /**
+  * Maps the particles with indices from start up to, but not
+  * including, end a chunk at a time.
+  *
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  * @param mapIn The transfer map of the element
+  */
+  protected void mapRange(int start, int end, TransferMap mapIn)
+  {
+    ParticleStore chunk = staging.get();
+    for (int first = start; first < end; first += CHUNK)
+    {
+      int count = Math.min(CHUNK, end - first);
+      load(chunk, first, count);
+      mapIn.apply(chunk, 0, count);
+      save(chunk, first, count, false);
+      if (aperture != null)
+      {
+        findLosses(chunk, 0, count, first);
+      }
+    }
+  }
+
+  /**
+  * Writes the record of a lost particle: the time, its id, and its
+  * position and velocity.
+  *
+  * @param i The index of the particle
+  * @param timeIn The time of the step
+  * @param recordOut The array the record is written to
+  * @param offset Where in the array the record starts
+  */
+  protected void recordLoss(int i, double timeIn, double[] recordOut,
+  int offset)
+  {
+    recordOut[offset] = timeIn;
+    recordOut[offset + 1] = segment.get(ValueLayout.JAVA_DOUBLE,
+    offset(ParticleStore.ID, i));
+    for (int c = ParticleStore.X; c <= ParticleStore.VZ; c++)
+    {
+      recordOut[offset + 2 + c - ParticleStore.X] =
+      segment.get(ValueLayout.JAVA_DOUBLE, offset(c, i));
+    }
+  }
+
+  /**
+  * Copies every property of one particle into the place of another.
+  *
+  * @param from The index of the particle copied
+  * @param to The index it is copied to
+  */
+  protected void moveParticle(int from, int to)
+  {
+    for (int c = 0; c < ParticleStore.COLUMNS; c++)
+    {
+      segment.set(ValueLayout.JAVA_DOUBLE, offset(c, to),
+      segment.get(ValueLayout.JAVA_DOUBLE, offset(c, from)));
+    }
+  }
+
+  /**
+  * Adds the particles with indices from start up to, but not
+  * including, end to the statistics a chunk at a time.
+  *
+  * @param statisticsIn The statistics to add to
+  * @param start The index of the first particle
+  * @param end One past the index of the last particle
+  */
+  protected void accumulateRange(BeamStatistics statisticsIn, int start,
+  int end)
+  {
+    ParticleStore chunk = staging.get();
+    for (int first = start; first < end; first += CHUNK)
+    {
+      int count = Math.min(CHUNK, end - first);
+      load(chunk, first, count);
+      statisticsIn.accumulate(chunk, 0, count);
+    }
+  }
+
+  /**
+  * The average position of a particle in the bunch is calculated,
+  * reading the positions from the segment.
+  */
+  public void calculateAverage()
+  {
+    if (numberParticles == 0)
+    {
+      averagePosition.setVector(Double.NaN, Double.NaN, Double.NaN);
+      return;
+    }
+    boolean measured = SimulationMetrics.ENABLED && metrics != null;
+    long start = measured ? System.nanoTime() : 0;
+    double sumX = 0, sumY = 0, sumZ = 0;
+    long x = offset(ParticleStore.X, 0), y = offset(ParticleStore.Y, 0);
+    long z = offset(ParticleStore.Z, 0);
+    for (int i = 0; i < numberParticles; i++)
+    {
+      long shift = (long) i*Double.BYTES;
+      sumX += segment.get(ValueLayout.JAVA_DOUBLE, x + shift);
+      sumY += segment.get(ValueLayout.JAVA_DOUBLE, y + shift);
+      sumZ += segment.get(ValueLayout.JAVA_DOUBLE, z + shift);
+    }
+    averagePosition.setVector(sumX, sumY, sumZ);
+    averagePosition.scale(1.00/numberParticles);
+    if (measured)
+    {
+      metrics.record(SimulationMetrics.AVERAGE, start, numberParticles);
+    }
+  }
+
+  /**
+  * Set the position of one particle in the bunch
+  *
+  * @param i The index of the particle
+  * @param xIn The new x position
+  * @param yIn The new y position
+  * @param zIn The new z position
+  */
+  protected void placeParticle(int i, double xIn, double yIn, double zIn)
+  {
+    segment.set(ValueLayout.JAVA_DOUBLE, offset(ParticleStore.X, i), xIn);
+    segment.set(ValueLayout.JAVA_DOUBLE, offset(ParticleStore.Y, i), yIn);
+    segment.set(ValueLayout.JAVA_DOUBLE, offset(ParticleStore.Z, i), zIn);
+  }
+
+  /**
+  * Return a copy of one particle in the bunch as a charged particle
+  * object.
+  *
+  * @param i The index of the particle
+  * @return A copy of the particle
+  */
+  public ChargedParticle getParticle(int i)
+  {
+    ParticleStore chunk = staging.get();
+    load(chunk, i, 1);
+    return chunk.getParticle(0);
+  }
+
+  /**
+  * Set the state of one particle in the bunch
+  *
+  * @param i The index of the particle
+  * @param particleIn The new state of the particle
+  */
+  public void setParticle(int i, ChargedParticle particleIn)
+  {
+    ParticleStore chunk = staging.get();
+    load(chunk, i, 1);
+    chunk.setParticle(0, particleIn);
+    save(chunk, i, 1, true);
+  }
+
+  /**
+  * The particles of an off heap bunch are not held in a store.
+  *
+  * @return Never returns
+  * @throws UnsupportedOperationException always
+  */
+  public ParticleStore getStore()
+  {
+    throw new UnsupportedOperationException("The particles of an off " +
+    "heap bunch are not held in a ParticleStore");
+  }
+
+  /**
+  * Space charge solvers read the particles from a store, so cannot be
+  * set on an off heap bunch.
+  *
+  * @param spaceChargeIn The space charge solver, which must be null
+  * @throws UnsupportedOperationException if a solver is given
+  */
+  public void setSpaceCharge(SpaceChargeSolver spaceChargeIn)
+  {
+    if (spaceChargeIn != null)
+    {
+      throw new UnsupportedOperationException("An off heap bunch cannot " +
+      "have a space charge solver");
+    }
+  }
+
+  /**
+  * Writes a mapped file back to disk and releases the memory of the
+  * bunch, after which it must not be used.
+  */
+  public void close()
+  {
+    if (arena.scope().isAlive())
+    {
+      if (mapped)
+      {
+        segment.force();
+      }
+      arena.close();
+    }
+  }
+}